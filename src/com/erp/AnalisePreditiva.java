@@ -5,24 +5,126 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.time.YearMonth;
 import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
+import weka.classifiers.functions.LinearRegression;
 import weka.classifiers.trees.J48;
+import weka.classifiers.trees.M5P;
+import weka.classifiers.trees.RandomForest;
+import weka.clusterers.SimpleKMeans;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.SelectedTag;
 import weka.core.SerializationHelper;
+import weka.core.Utils;
 
 public class AnalisePreditiva {
+    // --- MÉTRICAS DE DESEMPENHO POR FASE ---
+    private static final MetricsService.Timer TEMPO_CARGA_PRODUTOS = MetricsService.timer("analise.carregarProdutos");
+    private static final MetricsService.Timer TEMPO_ABC_AGREGACAO = MetricsService.timer("analise.abc.agregar");
+    private static final MetricsService.Timer TEMPO_ABC_ORDENACAO = MetricsService.timer("analise.abc.ordenar");
+    private static final MetricsService.Timer TEMPO_ABC_CLASSIFICACAO = MetricsService.timer("analise.abc.classificar");
+    private static final MetricsService.Timer TEMPO_DEMANDA_AGREGACAO = MetricsService.timer("analise.demanda.agregar");
+    private static final MetricsService.Timer TEMPO_DEMANDA_CALCULO = MetricsService.timer("analise.demanda.calcular");
+    private static final MetricsService.Timer TEMPO_J48_TREINO = MetricsService.timer("analise.j48.treinar");
+    private static final MetricsService.Timer TEMPO_J48_AVALIACAO = MetricsService.timer("analise.j48.avaliar");
+    private static final MetricsService.Timer TEMPO_J48_PREDICAO = MetricsService.timer("analise.j48.prever");
+    private static final MetricsService.Counter PREDICOES_J48_WEKA = MetricsService.counter("analise.j48.prever.weka");
+
+    // --- MODELO DE CATEGORIA (J48) ---
+    private static final String ARQUIVO_MODELO_J48 = "model/j48_erp_model.model";
+    private static final String ARQUIVO_CABECALHO_J48 = "model/j48_erp_header.model";
+    // Versão (lastModified) do modelo cuja árvore compilada foi conferida contra o Weka no treinamento
+    private static final String ARQUIVO_CONFERENCIA_J48 = "model/j48_erp_compilada.model";
+    // Palavras do nome usadas como atributos tem_palavra_*, na mesma ordem do treinamento
+    static final String[] PALAVRAS_CHAVE_CATEGORIA = {"teclado", "mouse", "monitor", "ssd", "hd", "ram", "cabo"};
+
+    /**
+     * Modelo de categoria lido do disco, com a posição de cada atributo no vetor de valores.
+     * <p>
+     * {@code arvore} só existe quando a árvore compilada deste modelo foi conferida contra o
+     * Weka no treinamento; sem ela, e sempre que a árvore não decide, vale o J48.
+     */
+    private static final class ModeloCategoria {
+        final long versao;
+        final J48 classificador;
+        final Instances header;
+        final ArvoreCompilada arvore;
+        final int indicePreco;
+        final int[] indicesPalavras;
+
+        ModeloCategoria(long versao, J48 classificador, Instances header, ArvoreCompilada arvore) {
+            this.versao = versao;
+            this.classificador = classificador;
+            this.header = header;
+            this.arvore = arvore;
+            this.indicePreco = header.attribute("precoVenda").index();
+            this.indicesPalavras = new int[PALAVRAS_CHAVE_CATEGORIA.length];
+            for (int i = 0; i < PALAVRAS_CHAVE_CATEGORIA.length; i++) {
+                indicesPalavras[i] = header.attribute("tem_palavra_" + PALAVRAS_CHAVE_CATEGORIA[i]).index();
+            }
+        }
+    }
+
+    // Modelo lido do disco e compilado na primeira predição
+    private static volatile ModeloCategoria modeloCategoria;
+    // Recebe os resultados da medição de latência, para o JIT não descartar os laços medidos
+    private static volatile long sumidouroMedicao;
+
+    // --- EXECUÇÃO EM SEGUNDO PLANO ---
+    // Uma única thread: as análises rodam uma de cada vez, cada uma com seu próprio snapshot
+    private static final ExecutorService executorAnalises = Executors.newSingleThreadExecutor(tarefa -> {
+        Thread thread = new Thread(tarefa, "erp-analises");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Última tarefa de cada análise: em andamento, ou concluída e servindo de cache do relatório
+    private static final Map<String, TarefaRelatorio> tarefas = new ConcurrentHashMap<>();
+    // Como ler a versão dos dados de cada análise, pelo mesmo nome usado em tarefas
+    private static final Map<String, VersaoDados> versoes = new ConcurrentHashMap<>();
+
+    /**
+     * Uma análise executável em segundo plano.
+     */
+    @FunctionalInterface
+    private interface Analise {
+        void executar(Connection conn, PrintStream saida, TarefaRelatorio tarefa) throws IOException, ParseException;
+    }
+
+    /**
+     * Lê a versão dos dados de que uma análise depende. O relatório em cache só vale enquanto
+     * a versão no banco for igual à lida no snapshot em que ele foi calculado.
+     */
+    @FunctionalInterface
+    private interface VersaoDados {
+        long ler(Connection conn) throws SQLException;
+    }
+
     /**
      * Estrutura para armazenar dados de faturamento de um produto específico.
      * Facilita a ordenação e o cálculo dos percentuais para a Curva ABCD.
@@ -42,49 +144,224 @@ public class AnalisePreditiva {
         }
     }
 
+    /**
+     * Submete uma análise para execução em segundo plano, sobre um snapshot somente leitura do banco.
+     * <p>
+     * Se a última execução da mesma análise ainda está em andamento, ela é reaproveitada.
+     * Se já terminou e nenhuma venda foi registrada no banco desde o seu snapshot (no mesmo
+     * mês), o relatório em cache é exibido na hora, sem recalcular; a versão das vendas é lida
+     * do próprio banco, então vendas feitas por outro processo também invalidam o cache.
+     * Caso contrário uma nova tarefa é criada;
+     * seu relatório é escrito em um buffer e impresso de uma só vez ao final, para não se
+     * misturar com o menu enquanto o usuário continua trabalhando.
+     * @param nome Nome da análise, exibido nas mensagens e usado como chave do cache.
+     * @param totalEtapas Número de fases informadas pela análise, para o cálculo do progresso.
+     * @param analise A análise, que recebe a conexão do snapshot, a saída do relatório e a tarefa.
+     * @return A tarefa (em andamento ou concluída) com o progresso e o resultado.
+     */
+    private static TarefaRelatorio executarEmSegundoPlano(String nome, int totalEtapas, Analise analise) {
+        return executarEmSegundoPlano(nome, totalEtapas, LogService::lerVersaoVendas, analise);
+    }
+
+    /**
+     * Como {@link #executarEmSegundoPlano(String, int, Analise)}, para uma análise cujo cache
+     * depende de outros dados além das vendas.
+     * @param versao Lê a versão dos dados da análise; o cache vale enquanto ela não mudar.
+     */
+    private static synchronized TarefaRelatorio executarEmSegundoPlano(String nome, int totalEtapas, VersaoDados versao,
+                                                                      Analise analise) {
+        TarefaRelatorio anterior = tarefas.get(nome);
+        if (anterior != null && !anterior.isFinalizada()) {
+            System.out.println(LanguageService.getFormattedString("analysis.job.running",
+                nome, anterior.getEtapa(), anterior.getTotalEtapas(), anterior.getFase(), anterior.getTempoDecorridoMillis()));
+            return anterior;
+        }
+        versoes.put(nome, versao);
+        if (anterior != null && cacheValido(anterior, versao)) {
+            System.out.println(LanguageService.getFormattedString("analysis.job.cached",
+                nome, anterior.getMomentoSnapshot().toString()));
+            System.out.print(anterior.getResultado().resultNow());
+            return anterior;
+        }
+
+        TarefaRelatorio tarefa = new TarefaRelatorio(nome, totalEtapas, YearMonth.now());
+        tarefas.put(nome, tarefa);
+        System.out.println(LanguageService.getFormattedString("analysis.background.started", nome));
+        executorAnalises.submit(() -> {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            PrintStream saida = new PrintStream(buffer, true);
+            tarefa.iniciar();
+            // No modo write-behind, o snapshot precisa incluir o que ainda está só no diário
+            DiarioEscrita.aguardarAplicacao();
+
+            try (Connection snapshot = DbManager.abrirSnapshot()) {
+                // Lida no próprio snapshot: corresponde exatamente aos dados analisados
+                tarefa.registrarVersaoDados(versao.ler(snapshot));
+                analise.executar(snapshot, saida, tarefa);
+            } catch (IOException | ParseException e) {
+                // A própria análise já informou o erro
+                tarefa.falhar(e);
+                return;
+            } catch (SQLException | RuntimeException | LinkageError e) {
+                // LinkageError: dependência opcional do Weka ausente do classpath; sem isso a tarefa nunca terminaria
+                System.err.println(LanguageService.getFormattedString("error.analysis.background", nome, e.getMessage()));
+                tarefa.falhar(e);
+                return;
+            }
+
+            saida.flush();
+            tarefa.concluir(buffer.toString());
+            synchronized (System.out) {
+                System.out.println(LanguageService.getFormattedString("analysis.background.done",
+                    nome, tarefa.getTempoDecorridoMillis(), tarefa.getMomentoSnapshot().toString()));
+                System.out.print(buffer.toString());
+                System.out.flush();
+            }
+        });
+        return tarefa;
+    }
+
+    /**
+     * Indica se uma tarefa ainda vale como cache: concluída no mesmo mês e sem mudança, no banco,
+     * dos dados que ela leu.
+     */
+    private static boolean cacheValido(TarefaRelatorio tarefa, VersaoDados versao) {
+        if (tarefa.getEstado() != TarefaRelatorio.Estado.CONCLUIDA || !tarefa.getMes().equals(YearMonth.now())) {
+            return false;
+        }
+        // Os logs das operações já feitas neste processo precisam estar no banco antes da comparação
+        BarramentoEventos.aguardarConsumo();
+        DiarioEscrita.aguardarAplicacao();
+        try (Connection conn = DbManager.connect()) {
+            return versao.ler(conn) == tarefa.getVersaoDados();
+        } catch (SQLException | RuntimeException e) {
+            // Sem como conferir a versão: recalcula
+            return false;
+        }
+    }
+
+    /**
+     * Exibe o andamento da última tarefa de cada análise e se o seu resultado ainda vale como cache.
+     */
+    public static void exibirAndamento() {
+        System.out.println("\n======================================================================");
+        System.out.println(LanguageService.getString("analysis.job.report.title"));
+        System.out.println("======================================================================");
+        System.out.printf("%-22s | %-11s | %9s | %-14s | %10s | %s%n",
+            LanguageService.getString("analysis.job.header.analysis"),
+            LanguageService.getString("analysis.job.header.state"),
+            LanguageService.getString("analysis.job.header.progress"),
+            LanguageService.getString("analysis.job.header.phase"),
+            LanguageService.getString("analysis.job.header.time"),
+            LanguageService.getString("analysis.job.header.cache"));
+        System.out.println("----------------------------------------------------------------------------------------------");
+
+        if (tarefas.isEmpty()) {
+            System.out.println(LanguageService.getString("analysis.job.none"));
+        }
+        for (TarefaRelatorio tarefa : tarefas.values()) {
+            boolean valida = cacheValido(tarefa, versoes.get(tarefa.getNome()));
+            System.out.printf("%-22.22s | %-11s | %8.0f%% | %-14.14s | %10d | %s%n",
+                tarefa.getNome(),
+                LanguageService.getString("analysis.job.state." + tarefa.getEstado().name().toLowerCase()),
+                tarefa.getProgresso(),
+                tarefa.getFase(),
+                tarefa.getTempoDecorridoMillis(),
+                LanguageService.getString(valida ? "analysis.job.cache.valid" : "analysis.job.cache.stale"));
+        }
+        System.out.println(LanguageService.getString("analysis.report.end"));
+    }
+
+    /**
+     * Aguarda as análises em segundo plano pendentes e encerra o executor.
+     * Chamado na saída do sistema, para que nenhum relatório em andamento seja perdido.
+     */
+    public static void encerrar() {
+        executorAnalises.shutdown();
+        try {
+            if (!executorAnalises.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+                System.out.println(LanguageService.getString("analysis.background.waiting"));
+                executorAnalises.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Ponto de entrada principal para a execução da análise da Curva ABCD.
-     * Orquestra o carregamento, processamento, classificação e exibição dos dados.
+     * A análise roda em segundo plano sobre um snapshot consistente do banco,
+     * ou é servida do cache se nenhuma venda ocorreu desde a última execução.
+     * @return A tarefa da análise, com progresso e resultado.
+     */
+    public static TarefaRelatorio executarAnaliseCurvaABC() {
+        return executarEmSegundoPlano(LanguageService.getString("analysis.name.abcd"), 5, AnalisePreditiva::analisarCurvaABC);
+    }
+
+    /**
+     * Orquestra o carregamento, processamento, classificação e exibição dos dados da Curva ABCD.
+     * @param conn Conexão (snapshot) usada em todas as consultas.
+     * @param saida Destino do relatório.
+     * @param tarefa Tarefa que acompanha o progresso.
      */
-    public static void executarAnaliseCurvaABC() {
+    private static void analisarCurvaABC(Connection conn, PrintStream saida, TarefaRelatorio tarefa) throws IOException {
         try {
-            Map<String, Produto> mapaDeProdutos = carregarProdutosDoArquivo();
+            tarefa.avancar("carga");
+            JfrEvents.FaseAnaliseEvent fase = JfrEvents.iniciarFase("abc", "carga");
+            Map<String, Produto> mapaDeProdutos = carregarProdutosDoArquivo(conn);
+            fase.concluir(mapaDeProdutos.size());
             if (mapaDeProdutos.isEmpty()) {
-                System.out.println(LanguageService.getString("analysis.product.none"));
+                saida.println(LanguageService.getString("analysis.product.none"));
                 return;
             }
 
-            Map<String, Double> faturamentoPorProduto = apurarFaturamentoDeVendasPorProduto(mapaDeProdutos);
+            tarefa.avancar("agregacao");
+            long inicio = System.nanoTime();
+            Map<String, Double> faturamentoPorProduto = apurarFaturamentoDeVendasPorProduto(conn, mapaDeProdutos);
+            TEMPO_ABC_AGREGACAO.recordSince(inicio);
             if (faturamentoPorProduto.isEmpty()) {
-                System.out.println(LanguageService.getString("analysis.sales.none"));
+                saida.println(LanguageService.getString("analysis.sales.none"));
                 return;
             }
 
+            tarefa.avancar("ordenacao");
+            inicio = System.nanoTime();
+            fase = JfrEvents.iniciarFase("abc", "ordenacao");
             List<ProdutoFaturamento> listaOrdenada = ordenarProdutosPorFaturamento(faturamentoPorProduto, mapaDeProdutos);
+            fase.concluir(listaOrdenada.size());
+            TEMPO_ABC_ORDENACAO.recordSince(inicio);
 
             double faturamentoGeral = faturamentoPorProduto.values().stream().mapToDouble(Double::doubleValue).sum();
 
+            tarefa.avancar("classificacao");
+            inicio = System.nanoTime();
+            fase = JfrEvents.iniciarFase("abc", "classificacao");
             Map<Character, List<ProdutoFaturamento>> produtosClassificados = classificarProdutosNaCurvaABCD(listaOrdenada, faturamentoGeral);
+            fase.concluir(listaOrdenada.size());
+            TEMPO_ABC_CLASSIFICACAO.recordSince(inicio);
 
-            exibirRelatorioFinal(produtosClassificados, faturamentoGeral);
+            tarefa.avancar("relatorio");
+            exibirRelatorioFinal(saida, produtosClassificados, faturamentoGeral);
 
         } catch (IOException e) {
             System.err.println(LanguageService.getFormattedString("analysis.file.read_error", e.getMessage()));
+            throw e;
         }
     }
 
     /**
      * Carrega os produtos do banco de dados e os organiza em um Mapa.
+     * @param conn Conexão a ser usada na consulta.
      * @return Um Mapa onde a chave é o ID do produto e o valor é o objeto Produto.
      * @throws IOException Se ocorrer um erro na leitura do banco.
      */
-    private static Map<String, Produto> carregarProdutosDoArquivo() throws IOException {
+    private static Map<String, Produto> carregarProdutosDoArquivo(Connection conn) throws IOException {
         Map<String, Produto> produtos = new HashMap<>();
         String sql = "SELECT * FROM Produtos";
         
-        try (Connection conn = DbManager.connect();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+        long inicio = System.nanoTime();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql);
+             ResultSet rs = pstmt.executeQuery()) {
 
             while (rs.next()) {
                 Produto produto = new Produto(
@@ -101,27 +378,30 @@ public class AnalisePreditiva {
             System.err.println(LanguageService.getFormattedString("error.analysis.load.products", e.getMessage()));
             // Lança IOException para manter compatibilidade com a assinatura original
             throw new IOException("Database Error", e);
+        } finally {
+            TEMPO_CARGA_PRODUTOS.recordSince(inicio);
         }
         return produtos;
     }
 
     /**
      * Processa a tabela de logs para calcular o faturamento total por produto.
+     * @param conn Conexão a ser usada na consulta.
      * @param mapaDeProdutos Mapa com os produtos cadastrados para consultar o preço de venda.
      * @return Um Mapa onde a chave é o ID do produto e o valor é o seu faturamento total.
      * @throws IOException Se ocorrer um erro na leitura do banco.
      */
-    private static Map<String, Double> apurarFaturamentoDeVendasPorProduto(Map<String, Produto> mapaDeProdutos) throws IOException {
+    private static Map<String, Double> apurarFaturamentoDeVendasPorProduto(Connection conn, Map<String, Produto> mapaDeProdutos) throws IOException {
         Map<String, Double> faturamento = new HashMap<>();
         
-        // Busca apenas logs de VENDA
-        String sql = "SELECT ProdutoID, Quantidade FROM Logs WHERE Tipo = 'VENDA'";
-
-        try (Connection conn = DbManager.connect();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+        // Busca apenas logs de VENDA, incluindo os meses arquivados
+        JfrEvents.FaseAnaliseEvent fase = JfrEvents.iniciarFase("abc", "agregacao");
+        long linhasLidas = 0;
+        try (PreparedStatement pstmt = ArquivoLogs.prepararConsulta(conn, "ProdutoID, Quantidade", "Tipo = 'VENDA'", null, null, null);
+             ResultSet rs = pstmt.executeQuery()) {
 
             while (rs.next()) {
+                linhasLidas++;
                 String produtoId = rs.getString("ProdutoID");
                 int quantidade = rs.getInt("Quantidade");
 
@@ -135,6 +415,7 @@ public class AnalisePreditiva {
             System.err.println(LanguageService.getFormattedString("error.analysis.calc.revenue", e.getMessage()));
             throw new IOException("Database Error", e);
         }
+        fase.concluir(linhasLidas);
         return faturamento;
     }
 
@@ -208,51 +489,53 @@ public class AnalisePreditiva {
 
     /**
      * Exibe o relatório final formatado, mostrando os produtos em suas respectivas classes.
+     * @param saida Destino do relatório.
      * @param produtosClassificados Mapa com as listas de produtos já classificadas.
      * @param faturamentoGeral O faturamento total para cálculo dos percentuais.
      */
-    private static void exibirRelatorioFinal(Map<Character, List<ProdutoFaturamento>> produtosClassificados, double faturamentoGeral) {
-        System.out.println("\n======================================================================");
-        System.out.println(LanguageService.getString("analysis.abcd.report.title"));
-        System.out.println("======================================================================");
-        System.out.printf(LanguageService.getString("analysis.abcd.total_revenue"), faturamentoGeral);
-
-        exibirSecaoDaClasse('A', LanguageService.getString("analysis.abcd.class_a"), produtosClassificados.get('A'), faturamentoGeral);
-        exibirSecaoDaClasse('B', LanguageService.getString("analysis.abcd.class_b"), produtosClassificados.get('B'), faturamentoGeral);
-        exibirSecaoDaClasse('C', LanguageService.getString("analysis.abcd.class_c"), produtosClassificados.get('C'), faturamentoGeral);
-        exibirSecaoDaClasse('D', LanguageService.getString("analysis.abcd.class_d"), produtosClassificados.get('D'), faturamentoGeral);
-
-        System.out.println(LanguageService.getString("analysis.report.end"));
+    private static void exibirRelatorioFinal(PrintStream saida, Map<Character, List<ProdutoFaturamento>> produtosClassificados, double faturamentoGeral) {
+        saida.println("\n======================================================================");
+        saida.println(LanguageService.getString("analysis.abcd.report.title"));
+        saida.println("======================================================================");
+        saida.printf(LanguageService.getString("analysis.abcd.total_revenue"), faturamentoGeral);
+
+        exibirSecaoDaClasse(saida, 'A', LanguageService.getString("analysis.abcd.class_a"), produtosClassificados.get('A'), faturamentoGeral);
+        exibirSecaoDaClasse(saida, 'B', LanguageService.getString("analysis.abcd.class_b"), produtosClassificados.get('B'), faturamentoGeral);
+        exibirSecaoDaClasse(saida, 'C', LanguageService.getString("analysis.abcd.class_c"), produtosClassificados.get('C'), faturamentoGeral);
+        exibirSecaoDaClasse(saida, 'D', LanguageService.getString("analysis.abcd.class_d"), produtosClassificados.get('D'), faturamentoGeral);
+
+        saida.println(LanguageService.getString("analysis.report.end"));
     }
 
     /**
      * Função auxiliar para exibir uma seção (classe) específica do relatório.
+     * @param saida Destino do relatório.
      * @param classe A letra da classe (A, B, C ou D).
      * @param descricao A descrição daquela classe.
      * @param produtos A lista de produtos pertencentes à classe.
      * @param faturamentoGeral O faturamento total para cálculo do percentual.
      */
-    private static void exibirSecaoDaClasse(char classe, String descricao, List<ProdutoFaturamento> produtos, double faturamentoGeral) {
-        System.out.printf(LanguageService.getString("analysis.abcd.class_title"), classe, descricao);
+    private static void exibirSecaoDaClasse(PrintStream saida, char classe, String descricao, List<ProdutoFaturamento> produtos, double faturamentoGeral) {
+        saida.printf(LanguageService.getString("analysis.abcd.class_title"), classe, descricao);
 
         if (produtos.isEmpty()) {
-            System.out.println(LanguageService.getString("analysis.class.no_products"));
+            saida.println(LanguageService.getString("analysis.class.no_products"));
             return;
         }
 
-        System.out.println("----------------------------------------------------------------------");
-        System.out.printf("%-5s | %-35s | %-15s | %s%n", 
+        saida.println("----------------------------------------------------------------------");
+        saida.printf("%-5s | %-35s | %-15s | %s%n", 
             LanguageService.getString("analysis.table.header.id"), 
             LanguageService.getString("analysis.table.header.product"), 
             LanguageService.getString("analysis.table.header.revenue"), 
             LanguageService.getString("analysis.table.header.percent_total"));
-        System.out.println("----------------------------------------------------------------------");
+        saida.println("----------------------------------------------------------------------");
 
         double epsilon = 1e-9;
         for (ProdutoFaturamento pf : produtos) {
             // Proteção contra divisão por zero
             double percentualIndividual = (faturamentoGeral > epsilon) ? (pf.faturamentoDoProduto / faturamentoGeral) * 100.0 : 0.0;
-            System.out.printf("%-5s | %-35.35s | R$ %-12.2f | %.2f%%%n",
+            saida.printf("%-5s | %-35.35s | R$ %-12.2f | %.2f%%%n",
                     pf.produto.getId(),
                     pf.produto.getNome(),
                     pf.faturamentoDoProduto,
@@ -262,13 +545,951 @@ public class AnalisePreditiva {
 
     // --- FIM: LÓGICA DE ANÁLISE DE CURVA ABCD ---
 
+    // ===================================================================================
+    // --- INÍCIO: MATRIZ ABC-XYZ POR CATEGORIA ---
+    // ===================================================================================
+
+    // Limites do percentual acumulado de faturamento de cada classe ABC (a última classe fica com o restante)
+    private static final double[] LIMITES_ABC = lerLimites("erp.abc.limites", "70,90,99", 0);
+    // Limites do coeficiente de variação da demanda mensal das classes X e Y (Z fica com o restante)
+    private static final double[] LIMITES_XYZ = lerLimites("erp.xyz.limites", "0.5,1.0", 2);
+
+    private static final MetricsService.Timer TEMPO_ABCXYZ_AGREGACAO = MetricsService.timer("analise.abcxyz.agregar");
+    private static final MetricsService.Timer TEMPO_ABCXYZ_CLASSIFICACAO = MetricsService.timer("analise.abcxyz.classificar");
+
+    /**
+     * Resultado da classificação de uma categoria: o número de produtos e o faturamento
+     * de cada célula da matriz [classe ABC][classe XYZ].
+     */
+    private static class MatrizCategoria {
+        final String categoria;
+        final int[][] produtos = new int[LIMITES_ABC.length + 1][LIMITES_XYZ.length + 1];
+        final double[][] faturamento = new double[LIMITES_ABC.length + 1][LIMITES_XYZ.length + 1];
+        double faturamentoTotal;
+        int semVendas;
+
+        MatrizCategoria(String categoria) {
+            this.categoria = categoria;
+        }
+
+        void somar(MatrizCategoria outra) {
+            for (int abc = 0; abc < produtos.length; abc++) {
+                for (int xyz = 0; xyz < produtos[abc].length; xyz++) {
+                    produtos[abc][xyz] += outra.produtos[abc][xyz];
+                    faturamento[abc][xyz] += outra.faturamento[abc][xyz];
+                }
+            }
+            faturamentoTotal += outra.faturamentoTotal;
+            semVendas += outra.semVendas;
+        }
+    }
+
+    /**
+     * Somas por produto de um trecho das vendas lidas para a matriz ABC-XYZ: faturamento total
+     * e quantidade por mês da janela. Cada partição soma o seu trecho em um acumulador próprio,
+     * e os acumuladores são juntados no fim.
+     */
+    private static final class AcumuladorABCXYZ {
+        final double[] faturamento;
+        final int[] vendasPorMes;
+
+        AcumuladorABCXYZ(int produtos) {
+            faturamento = new double[produtos];
+            vendasPorMes = new int[produtos * NUMERO_MESES_ANALISE];
+        }
+
+        void somar(int de, int ate, int[] produtoDaVenda, int[] quantidadeDaVenda, int[] mesDaVenda, Produto[] produtos) {
+            for (int i = de; i < ate; i++) {
+                int indice = produtoDaVenda[i];
+                faturamento[indice] += produtos[indice].getPrecoVenda() * quantidadeDaVenda[i];
+                if (mesDaVenda[i] >= 0) {
+                    vendasPorMes[indice * NUMERO_MESES_ANALISE + mesDaVenda[i]] += quantidadeDaVenda[i];
+                }
+            }
+        }
+
+        void juntar(AcumuladorABCXYZ outro) {
+            for (int i = 0; i < faturamento.length; i++) {
+                faturamento[i] += outro.faturamento[i];
+            }
+            for (int i = 0; i < vendasPorMes.length; i++) {
+                vendasPorMes[i] += outro.vendasPorMes[i];
+            }
+        }
+    }
+
+    /**
+     * Lê uma lista crescente de limites separados por vírgula de uma propriedade do sistema.
+     * Valores inválidos fazem a análise usar o padrão.
+     * @param quantidade Número exato de limites exigido, ou 0 para qualquer número (até 25 classes).
+     */
+    private static double[] lerLimites(String propriedade, String padrao, int quantidade) {
+        String valor = System.getProperty(propriedade, padrao);
+        try {
+            double[] limites = Arrays.stream(valor.split(",")).map(String::trim).mapToDouble(Double::parseDouble).toArray();
+            if (quantidade > 0 ? limites.length != quantidade : limites.length > 25) {
+                throw new NumberFormatException(valor);
+            }
+            for (int i = 1; i < limites.length; i++) {
+                if (limites[i] <= limites[i - 1]) {
+                    throw new NumberFormatException(valor);
+                }
+            }
+            return limites;
+        } catch (NumberFormatException e) {
+            System.err.println(LanguageService.getFormattedString("analysis.abcxyz.invalid_limits", propriedade, valor, padrao));
+            return Arrays.stream(padrao.split(",")).mapToDouble(Double::parseDouble).toArray();
+        }
+    }
+
+    /**
+     * Ponto de entrada da matriz ABC-XYZ por categoria.
+     * A análise roda em segundo plano sobre um snapshot consistente do banco,
+     * ou é servida do cache se nenhuma venda ocorreu desde a última execução.
+     * @return A tarefa da análise, com progresso e resultado.
+     */
+    public static TarefaRelatorio executarMatrizABCXYZ() {
+        return executarEmSegundoPlano(LanguageService.getString("analysis.name.abcxyz"), 4, AnalisePreditiva::analisarMatrizABCXYZ);
+    }
+
+    /**
+     * Classifica os produtos de cada categoria na curva ABC (pelo faturamento, com os limites
+     * de {@code erp.abc.limites}) e na escala XYZ (pelo coeficiente de variação das vendas dos
+     * últimos meses, com os limites de {@code erp.xyz.limites}), e monta a matriz combinada.
+     * <p>
+     * As vendas são lidas uma única vez para vetores primitivos. A soma por produto (faturamento
+     * total e quantidade por mês) é feita em paralelo, com as vendas divididas em trechos
+     * contíguos: cada partição percorre só o seu trecho, em acumuladores próprios, sem travas,
+     * e os acumuladores são juntados no fim. As duas classificações saem do resultado, e cada
+     * categoria é classificada em paralelo.
+     * @param conn Conexão (snapshot) usada em todas as consultas.
+     * @param saida Destino do relatório.
+     * @param tarefa Tarefa que acompanha o progresso.
+     */
+    private static void analisarMatrizABCXYZ(Connection conn, PrintStream saida, TarefaRelatorio tarefa) throws IOException {
+        tarefa.avancar("carga");
+        Map<String, Produto> mapaDeProdutos = carregarProdutosDoArquivo(conn);
+        if (mapaDeProdutos.isEmpty()) {
+            saida.println(LanguageService.getString("analysis.product.none"));
+            return;
+        }
+        Produto[] produtos = mapaDeProdutos.values().toArray(new Produto[0]);
+        Map<String, Integer> indiceDoProduto = new HashMap<>(produtos.length * 2);
+        for (int i = 0; i < produtos.length; i++) {
+            indiceDoProduto.put(produtos[i].getId(), i);
+        }
+
+        tarefa.avancar("agregacao");
+        long inicio = System.nanoTime();
+        JfrEvents.FaseAnaliseEvent fase = JfrEvents.iniciarFase("abcxyz", "agregacao");
+        // Uma linha de venda por posição: produto, quantidade e mês dentro da janela (-1 se fora dela)
+        int[] produtoDaVenda = new int[1024];
+        int[] quantidadeDaVenda = new int[1024];
+        int[] mesDaVenda = new int[1024];
+        int vendas = 0;
+        YearMonth primeiroMes = YearMonth.now().minusMonths(NUMERO_MESES_ANALISE - 1);
+        try (PreparedStatement pstmt = ArquivoLogs.prepararConsulta(conn, "ProdutoID, Quantidade, Data", "Tipo = 'VENDA'", null, null, null);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                Integer indice = indiceDoProduto.get(rs.getString("ProdutoID"));
+                if (indice == null) {
+                    continue;
+                }
+                if (vendas == produtoDaVenda.length) {
+                    produtoDaVenda = Arrays.copyOf(produtoDaVenda, vendas * 2);
+                    quantidadeDaVenda = Arrays.copyOf(quantidadeDaVenda, vendas * 2);
+                    mesDaVenda = Arrays.copyOf(mesDaVenda, vendas * 2);
+                }
+                // Data no formato 'yyyy-MM-dd': o mês sai direto do texto, sem SimpleDateFormat
+                String data = rs.getString("Data");
+                YearMonth mes = YearMonth.of(Integer.parseInt(data.substring(0, 4)), Integer.parseInt(data.substring(5, 7)));
+                long distancia = primeiroMes.until(mes, ChronoUnit.MONTHS);
+                produtoDaVenda[vendas] = indice;
+                quantidadeDaVenda[vendas] = rs.getInt("Quantidade");
+                mesDaVenda[vendas] = distancia >= 0 && distancia < NUMERO_MESES_ANALISE ? (int) distancia : -1;
+                vendas++;
+            }
+        } catch (SQLException | RuntimeException e) {
+            System.err.println(LanguageService.getFormattedString("error.analysis.calc.revenue", e.getMessage()));
+            throw new IOException("Database Error", e);
+        }
+
+        int totalVendas = vendas;
+        int[] produtoLido = produtoDaVenda;
+        int[] quantidadeLida = quantidadeDaVenda;
+        int[] mesLido = mesDaVenda;
+        int particoes = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), totalVendas));
+        int tamanhoParticao = (totalVendas + particoes - 1) / particoes;
+        AcumuladorABCXYZ total = IntStream.range(0, particoes).parallel()
+            .mapToObj(particao -> {
+                AcumuladorABCXYZ acumulador = new AcumuladorABCXYZ(produtos.length);
+                int de = particao * tamanhoParticao;
+                acumulador.somar(de, Math.min(totalVendas, de + tamanhoParticao), produtoLido, quantidadeLida, mesLido, produtos);
+                return acumulador;
+            })
+            .reduce((a, b) -> {
+                a.juntar(b);
+                return a;
+            })
+            .orElseThrow();
+        double[] faturamento = total.faturamento;
+        int[] vendasPorMes = total.vendasPorMes;
+        fase.concluir(totalVendas);
+        TEMPO_ABCXYZ_AGREGACAO.recordSince(inicio);
+        if (totalVendas == 0) {
+            saida.println(LanguageService.getString("analysis.sales.none"));
+            return;
+        }
+
+        tarefa.avancar("classificacao");
+        inicio = System.nanoTime();
+        fase = JfrEvents.iniciarFase("abcxyz", "classificacao");
+        Map<String, List<Integer>> produtosPorCategoria = IntStream.range(0, produtos.length).boxed()
+            .collect(Collectors.groupingBy(i -> produtos[i].getCategoria(), TreeMap::new, Collectors.toList()));
+        List<MatrizCategoria> matrizes = produtosPorCategoria.entrySet().parallelStream()
+            .map(entrada -> classificarCategoria(entrada.getKey(), entrada.getValue(), faturamento, vendasPorMes))
+            .collect(Collectors.toList());
+        fase.concluir(produtos.length);
+        TEMPO_ABCXYZ_CLASSIFICACAO.recordSince(inicio);
+
+        tarefa.avancar("relatorio");
+        exibirRelatorioABCXYZ(saida, matrizes);
+    }
+
+    /**
+     * Classifica os produtos de uma categoria nas escalas ABC e XYZ.
+     * Produtos sem faturamento ficam fora da matriz, como na curva global.
+     */
+    private static MatrizCategoria classificarCategoria(String categoria, List<Integer> indices, double[] faturamento, int[] vendasPorMes) {
+        MatrizCategoria matriz = new MatrizCategoria(categoria);
+        List<Integer> ordenados = new ArrayList<>(indices.size());
+        for (int indice : indices) {
+            if (faturamento[indice] > 0) {
+                ordenados.add(indice);
+                matriz.faturamentoTotal += faturamento[indice];
+            } else {
+                matriz.semVendas++;
+            }
+        }
+        ordenados.sort((a, b) -> Double.compare(faturamento[b], faturamento[a]));
+
+        double acumulado = 0.0;
+        boolean primeiro = true;
+        for (int indice : ordenados) {
+            acumulado += faturamento[indice];
+            double percentualAcumulado = acumulado / matriz.faturamentoTotal * 100.0;
+            // O primeiro produto é sempre A, mesmo que sozinho passe do primeiro limite
+            int abc = primeiro ? 0 : classeDoValor(percentualAcumulado, LIMITES_ABC);
+            primeiro = false;
+            int xyz = classeDoValor(coeficienteDeVariacao(vendasPorMes, indice), LIMITES_XYZ);
+            matriz.produtos[abc][xyz]++;
+            matriz.faturamento[abc][xyz] += faturamento[indice];
+        }
+        return matriz;
+    }
+
+    private static int classeDoValor(double valor, double[] limites) {
+        for (int classe = 0; classe < limites.length; classe++) {
+            if (valor <= limites[classe] + 1e-9) {
+                return classe;
+            }
+        }
+        return limites.length;
+    }
+
+    /**
+     * Desvio padrão dividido pela média das vendas mensais do produto na janela analisada.
+     * Sem vendas na janela, a demanda é tratada como a mais irregular possível.
+     */
+    private static double coeficienteDeVariacao(int[] vendasPorMes, int indice) {
+        int base = indice * NUMERO_MESES_ANALISE;
+        double media = 0.0;
+        for (int mes = 0; mes < NUMERO_MESES_ANALISE; mes++) {
+            media += vendasPorMes[base + mes];
+        }
+        media /= NUMERO_MESES_ANALISE;
+        if (media == 0.0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double variancia = 0.0;
+        for (int mes = 0; mes < NUMERO_MESES_ANALISE; mes++) {
+            double desvio = vendasPorMes[base + mes] - media;
+            variancia += desvio * desvio;
+        }
+        return Math.sqrt(variancia / NUMERO_MESES_ANALISE) / media;
+    }
+
+    /**
+     * Exibe a matriz de cada categoria e a matriz consolidada de todas elas.
+     * @param saida Destino do relatório.
+     * @param matrizes As matrizes de cada categoria, em ordem alfabética.
+     */
+    private static void exibirRelatorioABCXYZ(PrintStream saida, List<MatrizCategoria> matrizes) {
+        saida.println("\n======================================================================");
+        saida.println(LanguageService.getString("analysis.abcxyz.report.title"));
+        saida.println("======================================================================");
+        saida.println(LanguageService.getFormattedString("analysis.abcxyz.report.limits",
+            Arrays.toString(LIMITES_ABC), Arrays.toString(LIMITES_XYZ), NUMERO_MESES_ANALISE));
+
+        MatrizCategoria geral = new MatrizCategoria(LanguageService.getString("analysis.abcxyz.all"));
+        for (MatrizCategoria matriz : matrizes) {
+            exibirMatriz(saida, matriz);
+            geral.somar(matriz);
+        }
+        exibirMatriz(saida, geral);
+        saida.println(LanguageService.getString("analysis.report.end"));
+    }
+
+    private static void exibirMatriz(PrintStream saida, MatrizCategoria matriz) {
+        saida.println(LanguageService.getFormattedString("analysis.abcxyz.category",
+            matriz.categoria, matriz.faturamentoTotal, matriz.semVendas));
+        StringBuilder cabecalho = new StringBuilder(String.format("%-5s", ""));
+        for (int xyz = 0; xyz <= LIMITES_XYZ.length; xyz++) {
+            cabecalho.append(String.format(" | %18s", (char) ('X' + xyz)));
+        }
+        saida.println(cabecalho);
+        for (int abc = 0; abc <= LIMITES_ABC.length; abc++) {
+            StringBuilder linha = new StringBuilder(String.format("%-5s", (char) ('A' + abc)));
+            for (int xyz = 0; xyz <= LIMITES_XYZ.length; xyz++) {
+                double percentual = matriz.faturamentoTotal > 0 ? matriz.faturamento[abc][xyz] / matriz.faturamentoTotal * 100.0 : 0.0;
+                linha.append(String.format(" | %8d (%5.1f%%)", matriz.produtos[abc][xyz], percentual));
+            }
+            saida.println(linha);
+        }
+    }
+
+    // --- FIM: MATRIZ ABC-XYZ POR CATEGORIA ---
+
+    // ===================================================================================
+    // --- INÍCIO: ANÁLISE DE MARGEM E RENTABILIDADE ---
+    // ===================================================================================
+
+    // Linhas agrupadas entregues de cada vez às threads de agregação
+    private static final int LINHAS_POR_BLOCO = Integer.getInteger("erp.margin.blockRows", 65536);
+    // Uma partição do log agrupada pelo SQLite: venda (1) ou compra (0), pessoa, produto, quantidade e linhas
+    private static final String SQL_MARGEM_POR_PARTICAO =
+        "SELECT Tipo = 'VENDA', PessoaID, ProdutoID, SUM(Quantidade), COUNT(*) FROM %s"
+        + " WHERE Tipo IN ('VENDA', 'COMPRA') GROUP BY 1, 2, 3";
+    // Quantos produtos e clientes são exibidos no topo e no fim de cada ranking
+    private static final int TAMANHO_RANKING_MARGEM = Integer.getInteger("erp.margin.top", 15);
+
+    private static final MetricsService.Timer TEMPO_MARGEM_AGREGACAO = MetricsService.timer("analise.margem.agregar");
+    private static final MetricsService.Counter LINHAS_MARGEM = MetricsService.counter("analise.margem.linhas");
+
+    /**
+     * Um bloco de grupos de COMPRA e VENDA já convertidos para índices.
+     * O cliente é -1 nas compras, que só contam para o volume comprado do produto.
+     */
+    private static final class BlocoLogs {
+        final int[] produto = new int[LINHAS_POR_BLOCO];
+        final int[] cliente = new int[LINHAS_POR_BLOCO];
+        final long[] quantidade = new long[LINHAS_POR_BLOCO];
+        int linhas;
+    }
+
+    /**
+     * Acumuladores primitivos de uma thread de agregação: unidades vendidas e compradas por
+     * produto, e receita e custo por cliente. Cada bloco é somado em um acumulador que só
+     * aquela thread usa no momento; no fim, os acumuladores são juntados.
+     */
+    private static final class AcumuladorMargem {
+        final long[] vendidas;
+        final long[] compradas;
+        double[] receitaCliente = new double[256];
+        double[] custoCliente = new double[256];
+
+        AcumuladorMargem(int produtos) {
+            vendidas = new long[produtos];
+            compradas = new long[produtos];
+        }
+
+        void somar(BlocoLogs bloco, double[] precoVenda, double[] precoCompra) {
+            for (int i = 0; i < bloco.linhas; i++) {
+                int produto = bloco.produto[i];
+                long quantidade = bloco.quantidade[i];
+                int cliente = bloco.cliente[i];
+                if (cliente < 0) {
+                    compradas[produto] += quantidade;
+                    continue;
+                }
+                vendidas[produto] += quantidade;
+                if (cliente >= receitaCliente.length) {
+                    int tamanho = Math.max(cliente + 1, receitaCliente.length * 2);
+                    receitaCliente = Arrays.copyOf(receitaCliente, tamanho);
+                    custoCliente = Arrays.copyOf(custoCliente, tamanho);
+                }
+                receitaCliente[cliente] += quantidade * precoVenda[produto];
+                custoCliente[cliente] += quantidade * precoCompra[produto];
+            }
+        }
+
+        void juntar(AcumuladorMargem outro) {
+            for (int i = 0; i < vendidas.length; i++) {
+                vendidas[i] += outro.vendidas[i];
+                compradas[i] += outro.compradas[i];
+            }
+            if (outro.receitaCliente.length > receitaCliente.length) {
+                receitaCliente = Arrays.copyOf(receitaCliente, outro.receitaCliente.length);
+                custoCliente = Arrays.copyOf(custoCliente, outro.custoCliente.length);
+            }
+            for (int i = 0; i < outro.receitaCliente.length; i++) {
+                receitaCliente[i] += outro.receitaCliente[i];
+                custoCliente[i] += outro.custoCliente[i];
+            }
+        }
+    }
+
+    /**
+     * Uma linha do relatório de margem: um produto, uma categoria ou um cliente.
+     */
+    private static final class LinhaMargem {
+        final String id;
+        final String nome;
+        long vendidas;
+        long compradas;
+        double receita;
+        double custo;
+        double gastoCompras;
+
+        LinhaMargem(String id, String nome) {
+            this.id = id;
+            this.nome = nome;
+        }
+
+        double getMargem() {
+            return receita - custo;
+        }
+
+        double getPercentualMargem() {
+            return receita > 0 ? getMargem() / receita * 100.0 : 0.0;
+        }
+
+        void somar(LinhaMargem outra) {
+            vendidas += outra.vendidas;
+            compradas += outra.compradas;
+            receita += outra.receita;
+            custo += outra.custo;
+            gastoCompras += outra.gastoCompras;
+        }
+    }
+
+    /**
+     * Ponto de entrada da análise de margem e rentabilidade.
+     * A análise roda em segundo plano sobre um snapshot consistente do banco,
+     * ou é servida do cache se nenhuma venda ou compra ocorreu desde a última execução
+     * (o gasto com compras também entra no relatório).
+     * @return A tarefa da análise, com progresso e resultado.
+     */
+    public static TarefaRelatorio executarAnaliseDeMargem() {
+        return executarEmSegundoPlano(LanguageService.getString("analysis.name.margin"), 4, LogService::lerVersaoMovimentos,
+            AnalisePreditiva::analisarMargem);
+    }
+
+    /**
+     * Calcula a margem bruta por produto, categoria e cliente: a receita das vendas (preço de venda)
+     * menos o custo das mercadorias vendidas (preço de compra), junto com o volume comprado de cada
+     * produto. O log não guarda preços, então, como na curva ABCD, valem os preços do cadastro.
+     * <p>
+     * O log é percorrido uma única vez, partição por partição ({@link ArquivoLogs}), todas no mesmo
+     * snapshot. O SQLite agrupa cada partição por tipo, pessoa e produto, de modo que só os grupos
+     * atravessam o JDBC. A leitura converte os grupos em índices e entrega blocos de
+     * {@code erp.margin.blockRows} linhas às threads do pool comum, que os somam em acumuladores
+     * primitivos enquanto a leitura continua; no máximo dois blocos por processador ficam em memória,
+     * seja qual for o tamanho do log. No fim, os acumuladores das threads são juntados.
+     * @param conn Conexão (snapshot) usada em todas as consultas.
+     * @param saida Destino do relatório.
+     * @param tarefa Tarefa que acompanha o progresso.
+     */
+    private static void analisarMargem(Connection conn, PrintStream saida, TarefaRelatorio tarefa) throws IOException {
+        tarefa.avancar("carga");
+        Map<String, Produto> mapaDeProdutos = carregarProdutosDoArquivo(conn);
+        if (mapaDeProdutos.isEmpty()) {
+            saida.println(LanguageService.getString("analysis.product.none"));
+            return;
+        }
+        Produto[] produtos = mapaDeProdutos.values().toArray(new Produto[0]);
+        Map<String, Integer> indiceDoProduto = new HashMap<>(produtos.length * 2);
+        double[] precoVenda = new double[produtos.length];
+        double[] precoCompra = new double[produtos.length];
+        for (int i = 0; i < produtos.length; i++) {
+            indiceDoProduto.put(produtos[i].getId(), i);
+            precoVenda[i] = produtos[i].getPrecoVenda();
+            precoCompra[i] = produtos[i].getPrecoCompra();
+        }
+
+        tarefa.avancar("agregacao");
+        long inicio = System.nanoTime();
+        JfrEvents.FaseAnaliseEvent fase = JfrEvents.iniciarFase("margem", "agregacao");
+        int blocosEmUso = 2 * Math.max(1, Runtime.getRuntime().availableProcessors());
+        Semaphore blocosDisponiveis = new Semaphore(blocosEmUso);
+        Queue<BlocoLogs> blocosLivres = new ConcurrentLinkedQueue<>();
+        Queue<AcumuladorMargem> acumuladores = new ConcurrentLinkedQueue<>();
+        AtomicReference<Throwable> falha = new AtomicReference<>();
+        Map<String, Integer> indiceDoCliente = new HashMap<>();
+        List<String> clientes = new ArrayList<>();
+        long linhas = 0;
+        int particoes = 0;
+
+        try {
+            BlocoLogs bloco = null;
+            for (String tabela : ArquivoLogs.tabelas(conn)) {
+                particoes++;
+                try (PreparedStatement pstmt = conn.prepareStatement(String.format(SQL_MARGEM_POR_PARTICAO, tabela));
+                     ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        Integer produto = indiceDoProduto.get(rs.getString(3));
+                        if (produto == null) {
+                            continue;
+                        }
+                        if (bloco == null) {
+                            blocosDisponiveis.acquire();
+                            bloco = blocosLivres.poll();
+                            if (bloco == null) {
+                                bloco = new BlocoLogs();
+                            }
+                        }
+                        int cliente = -1;
+                        if (rs.getInt(1) == 1) {
+                            String pessoaId = rs.getString(2);
+                            Integer indice = indiceDoCliente.get(pessoaId);
+                            if (indice == null) {
+                                indice = clientes.size();
+                                indiceDoCliente.put(pessoaId, indice);
+                                clientes.add(pessoaId);
+                            }
+                            cliente = indice;
+                        }
+                        bloco.produto[bloco.linhas] = produto;
+                        bloco.cliente[bloco.linhas] = cliente;
+                        bloco.quantidade[bloco.linhas] = rs.getLong(4);
+                        bloco.linhas++;
+                        linhas += rs.getLong(5);
+                        if (bloco.linhas == LINHAS_POR_BLOCO) {
+                            somarEmParalelo(bloco, produtos.length, precoVenda, precoCompra, acumuladores, blocosLivres, blocosDisponiveis, falha);
+                            bloco = null;
+                        }
+                    }
+                }
+            }
+            if (bloco != null) {
+                somarEmParalelo(bloco, produtos.length, precoVenda, precoCompra, acumuladores, blocosLivres, blocosDisponiveis, falha);
+            }
+            // Todas as licenças de volta = nenhum bloco em andamento
+            blocosDisponiveis.acquire(blocosEmUso);
+        } catch (SQLException | RuntimeException e) {
+            System.err.println(LanguageService.getFormattedString("error.analysis.calc.margin", e.getMessage()));
+            throw new IOException("Database Error", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+        if (falha.get() != null) {
+            System.err.println(LanguageService.getFormattedString("error.analysis.calc.margin", falha.get().getMessage()));
+            throw new IOException("Aggregation Error", falha.get());
+        }
+
+        AcumuladorMargem total = new AcumuladorMargem(produtos.length);
+        for (AcumuladorMargem acumulador : acumuladores) {
+            total.juntar(acumulador);
+        }
+        LINHAS_MARGEM.add(linhas);
+        fase.concluir(linhas);
+        TEMPO_MARGEM_AGREGACAO.recordSince(inicio);
+        if (linhas == 0) {
+            saida.println(LanguageService.getString("analysis.sales.none"));
+            return;
+        }
+
+        tarefa.avancar("consolidacao");
+        List<LinhaMargem> porProduto = new ArrayList<>();
+        Map<String, LinhaMargem> porCategoria = new TreeMap<>();
+        LinhaMargem geral = new LinhaMargem("", LanguageService.getString("analysis.margin.total"));
+        for (int i = 0; i < produtos.length; i++) {
+            if (total.vendidas[i] == 0 && total.compradas[i] == 0) {
+                continue;
+            }
+            LinhaMargem linha = new LinhaMargem(produtos[i].getId(), produtos[i].getNome());
+            linha.vendidas = total.vendidas[i];
+            linha.compradas = total.compradas[i];
+            linha.receita = total.vendidas[i] * precoVenda[i];
+            linha.custo = total.vendidas[i] * precoCompra[i];
+            linha.gastoCompras = total.compradas[i] * precoCompra[i];
+            porCategoria.computeIfAbsent(produtos[i].getCategoria(), categoria -> new LinhaMargem(categoria, categoria)).somar(linha);
+            geral.somar(linha);
+            if (linha.vendidas > 0) {
+                porProduto.add(linha);
+            }
+        }
+        Map<String, String> nomesDosClientes = carregarNomesDasPessoas(conn);
+        List<LinhaMargem> porCliente = new ArrayList<>(clientes.size());
+        for (int i = 0; i < clientes.size(); i++) {
+            LinhaMargem linha = new LinhaMargem(clientes.get(i), nomesDosClientes.getOrDefault(clientes.get(i), ""));
+            linha.receita = i < total.receitaCliente.length ? total.receitaCliente[i] : 0.0;
+            linha.custo = i < total.custoCliente.length ? total.custoCliente[i] : 0.0;
+            porCliente.add(linha);
+        }
+        Comparator<LinhaMargem> porMargem = Comparator.comparingDouble(LinhaMargem::getMargem).reversed();
+        porProduto.sort(porMargem);
+        porCliente.sort(porMargem);
+        List<LinhaMargem> categorias = new ArrayList<>(porCategoria.values());
+        categorias.sort(porMargem);
+
+        tarefa.avancar("relatorio");
+        exibirRelatorioMargem(saida, geral, categorias, porProduto, porCliente, linhas, particoes);
+    }
+
+    /**
+     * Entrega um bloco cheio ao pool comum. A thread que o recebe usa um acumulador livre
+     * (ou cria um) e o devolve ao terminar, junto com o bloco e a sua licença.
+     */
+    private static void somarEmParalelo(BlocoLogs bloco, int produtos, double[] precoVenda, double[] precoCompra,
+                                        Queue<AcumuladorMargem> acumuladores, Queue<BlocoLogs> blocosLivres,
+                                        Semaphore blocosDisponiveis, AtomicReference<Throwable> falha) {
+        ForkJoinPool.commonPool().execute(() -> {
+            try {
+                AcumuladorMargem acumulador = acumuladores.poll();
+                if (acumulador == null) {
+                    acumulador = new AcumuladorMargem(produtos);
+                }
+                acumulador.somar(bloco, precoVenda, precoCompra);
+                acumuladores.add(acumulador);
+            } catch (RuntimeException e) {
+                falha.compareAndSet(null, e);
+            } finally {
+                bloco.linhas = 0;
+                blocosLivres.add(bloco);
+                blocosDisponiveis.release();
+            }
+        });
+    }
+
+    private static Map<String, String> carregarNomesDasPessoas(Connection conn) throws IOException {
+        Map<String, String> nomes = new HashMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT id, nome FROM Pessoas");
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                nomes.put(rs.getString("id"), rs.getString("nome"));
+            }
+        } catch (SQLException e) {
+            System.err.println(LanguageService.getFormattedString("error.analysis.calc.margin", e.getMessage()));
+            throw new IOException("Database Error", e);
+        }
+        return nomes;
+    }
+
+    /**
+     * Exibe o resumo geral, a margem de cada categoria e os rankings de produtos e clientes.
+     * @param saida Destino do relatório.
+     * @param geral Totais de todas as categorias.
+     * @param categorias As categorias, da maior para a menor margem.
+     * @param produtos Os produtos vendidos, da maior para a menor margem.
+     * @param clientes Os clientes, da maior para a menor margem.
+     */
+    private static void exibirRelatorioMargem(PrintStream saida, LinhaMargem geral, List<LinhaMargem> categorias,
+                                              List<LinhaMargem> produtos, List<LinhaMargem> clientes, long linhas, int particoes) {
+        saida.println("\n======================================================================");
+        saida.println(LanguageService.getString("analysis.margin.report.title"));
+        saida.println("======================================================================");
+        saida.println(LanguageService.getFormattedString("analysis.margin.summary",
+            geral.receita, geral.custo, geral.getMargem(), geral.getPercentualMargem(), geral.gastoCompras, linhas, particoes));
+
+        saida.println(LanguageService.getString("analysis.margin.by_category"));
+        saida.println(LanguageService.getString("analysis.margin.header.category"));
+        for (LinhaMargem categoria : categorias) {
+            saida.println(String.format("%-20.20s | %10d | %12d | %14.2f | %14.2f | %14.2f | %7.1f",
+                categoria.nome, categoria.vendidas, categoria.compradas, categoria.receita,
+                categoria.custo, categoria.getMargem(), categoria.getPercentualMargem()));
+        }
+
+        exibirRanking(saida, "analysis.margin.by_product", produtos);
+        exibirRanking(saida, "analysis.margin.by_customer", clientes);
+        saida.println(LanguageService.getString("analysis.report.end"));
+    }
+
+    /**
+     * Exibe as primeiras e as últimas {@code erp.margin.top} linhas de uma lista ordenada por margem,
+     * ou a lista inteira se ela for curta.
+     */
+    private static void exibirRanking(PrintStream saida, String chaveTitulo, List<LinhaMargem> linhas) {
+        saida.println(LanguageService.getFormattedString(chaveTitulo, linhas.size()));
+        saida.println(LanguageService.getString("analysis.margin.header.ranking"));
+        if (linhas.size() <= 2 * TAMANHO_RANKING_MARGEM) {
+            linhas.forEach(linha -> exibirLinhaRanking(saida, linha));
+            return;
+        }
+        linhas.subList(0, TAMANHO_RANKING_MARGEM).forEach(linha -> exibirLinhaRanking(saida, linha));
+        saida.println(LanguageService.getFormattedString("analysis.margin.omitted", linhas.size() - 2 * TAMANHO_RANKING_MARGEM));
+        linhas.subList(linhas.size() - TAMANHO_RANKING_MARGEM, linhas.size()).forEach(linha -> exibirLinhaRanking(saida, linha));
+    }
+
+    private static void exibirLinhaRanking(PrintStream saida, LinhaMargem linha) {
+        saida.println(String.format("%-10.10s | %-25.25s | %14.2f | %14.2f | %14.2f | %7.1f",
+            linha.id, linha.nome, linha.receita, linha.custo, linha.getMargem(), linha.getPercentualMargem()));
+    }
+
+    // --- FIM: ANÁLISE DE MARGEM E RENTABILIDADE ---
+
+    // ===================================================================================
+    // --- INÍCIO: SEGMENTAÇÃO RFM DE CLIENTES ---
+    // ===================================================================================
+
+    // Número de grupos do k-means
+    private static final int NUMERO_SEGMENTOS = Integer.getInteger("erp.rfm.k", 5);
+    private static final int MAXIMO_ITERACOES_RFM = Integer.getInteger("erp.rfm.maxIterations", 100);
+    // Linhas gravadas por executeBatch na tabela de segmentos
+    private static final int LOTE_GRAVACAO_RFM = 10_000;
+    // Uma partição do log agrupada pelo SQLite: cliente, última compra, número de vendas e valor
+    private static final String SQL_RFM_POR_PARTICAO =
+        "SELECT l.PessoaID, MAX(l.Data), COUNT(*), SUM(l.Quantidade * p.precoVenda)"
+        + " FROM %s l JOIN Produtos p ON p.id = l.ProdutoID WHERE l.Tipo = 'VENDA' GROUP BY l.PessoaID";
+
+    private static final MetricsService.Timer TEMPO_RFM_AGREGACAO = MetricsService.timer("analise.rfm.agregar");
+    private static final MetricsService.Timer TEMPO_RFM_AGRUPAMENTO = MetricsService.timer("analise.rfm.agrupar");
+    private static final MetricsService.Timer TEMPO_RFM_GRAVACAO = MetricsService.timer("analise.rfm.gravar");
+
+    /**
+     * Rótulo de um segmento, dado pela posição do seu centroide em relação à média de todos os
+     * clientes: compra recente ou não, e frequência e valor acima ou abaixo da média.
+     */
+    private enum RotuloSegmento {
+        CAMPEOES, FIEIS, NOVOS, EM_RISCO, PRECISAM_ATENCAO, PERDIDOS;
+
+        static RotuloSegmento de(boolean recente, boolean frequente, boolean valioso) {
+            if (recente) {
+                return frequente && valioso ? CAMPEOES : frequente || valioso ? FIEIS : NOVOS;
+            }
+            return frequente && valioso ? EM_RISCO : frequente || valioso ? PRECISAM_ATENCAO : PERDIDOS;
+        }
+
+        String getNome() {
+            return LanguageService.getString("analysis.rfm.segment." + name().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Cria a tabela com o último segmento calculado de cada cliente.
+     * @param stmt Um statement aberto no banco.
+     * @throws SQLException Se a tabela não puder ser criada.
+     */
+    static void inicializar(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS SegmentosClientes ("
+                   + " pessoaId TEXT PRIMARY KEY,"
+                   + " segmento INTEGER NOT NULL," // grupo do k-means
+                   + " rotulo TEXT NOT NULL," // nome de RotuloSegmento
+                   + " recenciaDias INTEGER NOT NULL,"
+                   + " frequencia INTEGER NOT NULL,"
+                   + " valor REAL NOT NULL,"
+                   + " calculadoEm TEXT NOT NULL" // 'yyyy-MM-dd'
+                   + ");");
+    }
+
+    /**
+     * Ponto de entrada da segmentação RFM de clientes.
+     * A análise roda em segundo plano sobre um snapshot consistente do banco,
+     * ou é servida do cache se nenhuma venda ocorreu desde a última execução.
+     * @return A tarefa da análise, com progresso e resultado.
+     */
+    public static TarefaRelatorio executarSegmentacaoRFM() {
+        return executarEmSegundoPlano(LanguageService.getString("analysis.name.rfm"), 4, AnalisePreditiva::segmentarClientesRFM);
+    }
+
+    /**
+     * Calcula recência (dias desde a última compra), frequência (número de vendas) e valor
+     * (receita aos preços do cadastro) de cada cliente, agrupa os clientes com o
+     * {@code SimpleKMeans} do Weka e grava o segmento de cada um em {@code SegmentosClientes}.
+     * <p>
+     * O log de vendas é lido uma única vez, partição por partição, com o SQLite agrupando cada
+     * partição por cliente; os grupos são somados em vetores primitivos indexados pelo cliente.
+     * O k-means usa as três medidas em escala logarítmica (são muito assimétricas), inicialização
+     * k-means++ e uma thread por processador. A tabela de segmentos é regravada por inteiro em
+     * uma única transação, em outra conexão, já que o snapshot é somente leitura.
+     * @param conn Conexão (snapshot) usada em todas as consultas.
+     * @param saida Destino do relatório.
+     * @param tarefa Tarefa que acompanha o progresso.
+     */
+    private static void segmentarClientesRFM(Connection conn, PrintStream saida, TarefaRelatorio tarefa) throws IOException {
+        tarefa.avancar("agregacao");
+        long inicio = System.nanoTime();
+        JfrEvents.FaseAnaliseEvent fase = JfrEvents.iniciarFase("rfm", "agregacao");
+        Map<String, Integer> indiceDoCliente = new HashMap<>();
+        List<String> clientes = new ArrayList<>();
+        int[] ultimaCompra = new int[1024];
+        int[] frequencia = new int[1024];
+        double[] valor = new double[1024];
+        long vendas = 0;
+        try {
+            for (String tabela : ArquivoLogs.tabelas(conn)) {
+                try (PreparedStatement pstmt = conn.prepareStatement(String.format(SQL_RFM_POR_PARTICAO, tabela));
+                     ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        String pessoaId = rs.getString(1);
+                        Integer indice = indiceDoCliente.get(pessoaId);
+                        if (indice == null) {
+                            indice = clientes.size();
+                            indiceDoCliente.put(pessoaId, indice);
+                            clientes.add(pessoaId);
+                            if (indice == ultimaCompra.length) {
+                                ultimaCompra = Arrays.copyOf(ultimaCompra, indice * 2);
+                                frequencia = Arrays.copyOf(frequencia, indice * 2);
+                                valor = Arrays.copyOf(valor, indice * 2);
+                            }
+                        }
+                        // MAX(Data) funciona porque o texto 'yyyy-MM-dd' ordena como a data
+                        int dia = (int) LocalDate.parse(rs.getString(2)).toEpochDay();
+                        ultimaCompra[indice] = frequencia[indice] == 0 ? dia : Math.max(ultimaCompra[indice], dia);
+                        frequencia[indice] += rs.getInt(3);
+                        valor[indice] += rs.getDouble(4);
+                        vendas += rs.getInt(3);
+                    }
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            System.err.println(LanguageService.getFormattedString("error.analysis.rfm", e.getMessage()));
+            throw new IOException("Database Error", e);
+        }
+        int totalClientes = clientes.size();
+        fase.concluir(vendas);
+        TEMPO_RFM_AGREGACAO.recordSince(inicio);
+        if (totalClientes == 0) {
+            saida.println(LanguageService.getString("analysis.sales.none"));
+            return;
+        }
+
+        tarefa.avancar("agrupamento");
+        inicio = System.nanoTime();
+        fase = JfrEvents.iniciarFase("rfm", "agrupamento");
+        int hoje = (int) LocalDate.now().toEpochDay();
+        ArrayList<Attribute> atributos = new ArrayList<>();
+        atributos.add(new Attribute("log_recencia"));
+        atributos.add(new Attribute("log_frequencia"));
+        atributos.add(new Attribute("log_valor"));
+        Instances dados = new Instances("rfm_clientes", atributos, totalClientes);
+        // Média de cada medida (na escala do k-means), referência para os rótulos
+        double[] media = new double[3];
+        for (int i = 0; i < totalClientes; i++) {
+            double[] medidas = {
+                Math.log1p(Math.max(0, hoje - ultimaCompra[i])),
+                Math.log1p(frequencia[i]),
+                Math.log1p(Math.max(0.0, valor[i]))
+            };
+            for (int m = 0; m < 3; m++) {
+                media[m] += medidas[m] / totalClientes;
+            }
+            dados.add(new DenseInstance(1.0, medidas));
+        }
+
+        int segmentos = Math.min(NUMERO_SEGMENTOS, totalClientes);
+        int[] segmentoDoCliente;
+        Instances centroides;
+        try {
+            SimpleKMeans kMeans = new SimpleKMeans();
+            kMeans.setNumClusters(segmentos);
+            kMeans.setSeed(1);
+            kMeans.setInitializationMethod(new SelectedTag(SimpleKMeans.KMEANS_PLUS_PLUS, SimpleKMeans.TAGS_SELECTION));
+            kMeans.setMaxIterations(MAXIMO_ITERACOES_RFM);
+            kMeans.setNumExecutionSlots(Math.max(1, Runtime.getRuntime().availableProcessors()));
+            // Guarda o grupo de cada instância, na ordem de entrada, sem reclassificar uma a uma
+            kMeans.setPreserveInstancesOrder(true);
+            kMeans.buildClusterer(dados);
+            segmentoDoCliente = kMeans.getAssignments();
+            centroides = kMeans.getClusterCentroids();
+        } catch (Exception e) {
+            System.err.println(LanguageService.getFormattedString("error.analysis.rfm", e.getMessage()));
+            throw new IOException("Clustering Error", e);
+        }
+        segmentos = centroides.numInstances();
+        RotuloSegmento[] rotulos = new RotuloSegmento[segmentos];
+        for (int s = 0; s < segmentos; s++) {
+            Instance centroide = centroides.instance(s);
+            rotulos[s] = RotuloSegmento.de(centroide.value(0) <= media[0], centroide.value(1) >= media[1], centroide.value(2) >= media[2]);
+        }
+        fase.concluir(totalClientes);
+        TEMPO_RFM_AGRUPAMENTO.recordSince(inicio);
+
+        tarefa.avancar("gravacao");
+        inicio = System.nanoTime();
+        String calculadoEm = LocalDate.now().toString();
+        try (Connection escrita = DbManager.connect()) {
+            escrita.setAutoCommit(false);
+            try (Statement limpeza = escrita.createStatement();
+                 PreparedStatement pstmt = escrita.prepareStatement(
+                     "INSERT INTO SegmentosClientes(pessoaId, segmento, rotulo, recenciaDias, frequencia, valor, calculadoEm)"
+                     + " VALUES(?, ?, ?, ?, ?, ?, ?)")) {
+                limpeza.executeUpdate("DELETE FROM SegmentosClientes");
+                for (int i = 0; i < totalClientes; i++) {
+                    pstmt.setString(1, clientes.get(i));
+                    pstmt.setInt(2, segmentoDoCliente[i]);
+                    pstmt.setString(3, rotulos[segmentoDoCliente[i]].name());
+                    pstmt.setInt(4, Math.max(0, hoje - ultimaCompra[i]));
+                    pstmt.setInt(5, frequencia[i]);
+                    pstmt.setDouble(6, valor[i]);
+                    pstmt.setString(7, calculadoEm);
+                    pstmt.addBatch();
+                    if ((i + 1) % LOTE_GRAVACAO_RFM == 0) {
+                        pstmt.executeBatch();
+                    }
+                }
+                pstmt.executeBatch();
+                escrita.commit();
+            } catch (SQLException e) {
+                escrita.rollback();
+                throw e;
+            } finally {
+                escrita.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println(LanguageService.getFormattedString("error.analysis.rfm.save", e.getMessage()));
+            throw new IOException("Database Error", e);
+        } finally {
+            TEMPO_RFM_GRAVACAO.recordSince(inicio);
+        }
+
+        tarefa.avancar("relatorio");
+        int[] clientesNoSegmento = new int[segmentos];
+        double[] somaRecencia = new double[segmentos];
+        double[] somaFrequencia = new double[segmentos];
+        double[] somaValor = new double[segmentos];
+        double valorTotal = 0.0;
+        for (int i = 0; i < totalClientes; i++) {
+            int s = segmentoDoCliente[i];
+            clientesNoSegmento[s]++;
+            somaRecencia[s] += Math.max(0, hoje - ultimaCompra[i]);
+            somaFrequencia[s] += frequencia[i];
+            somaValor[s] += valor[i];
+            valorTotal += valor[i];
+        }
+
+        saida.println("\n======================================================================");
+        saida.println(LanguageService.getString("analysis.rfm.report.title"));
+        saida.println("======================================================================");
+        saida.println(LanguageService.getFormattedString("analysis.rfm.summary", totalClientes, vendas, segmentos));
+        saida.println(LanguageService.getString("analysis.rfm.header"));
+        Integer[] ordem = new Integer[segmentos];
+        for (int s = 0; s < segmentos; s++) {
+            ordem[s] = s;
+        }
+        // Segmentos de maior valor primeiro
+        Arrays.sort(ordem, (a, b) -> Double.compare(somaValor[b], somaValor[a]));
+        for (int s : ordem) {
+            int n = Math.max(clientesNoSegmento[s], 1);
+            saida.println(String.format("%3d | %-24.24s | %9d | %6.1f | %10.1f | %10.1f | %14.2f | %6.1f",
+                s, rotulos[s].getNome(), clientesNoSegmento[s], clientesNoSegmento[s] * 100.0 / totalClientes,
+                somaRecencia[s] / n, somaFrequencia[s] / n, somaValor[s] / n,
+                valorTotal > 0 ? somaValor[s] / valorTotal * 100.0 : 0.0));
+        }
+        saida.println(LanguageService.getString("analysis.rfm.saved"));
+        saida.println(LanguageService.getString("analysis.report.end"));
+    }
+
+    // --- FIM: SEGMENTAÇÃO RFM DE CLIENTES ---
+
 
     // ===================================================================================
     // --- INÍCIO: LÓGICA DE PREVISÃO DE DEMANDA POR MÉDIA PONDERADA MENSAL ---
     // ===================================================================================
 
     // --- CONFIGURAÇÃO DA ANÁLISE ---
-    private static final int NUMERO_MESES_ANALISE = 6;
+    static final int NUMERO_MESES_ANALISE = 6;
     /**
      * Defina aqui os pesos para cada mês, do mais antigo para o mais recente.
      * A soma de todos os pesos deve ser igual a 1.0 (representando 100%).
@@ -286,25 +1507,47 @@ public class AnalisePreditiva {
 
     /**
      * Ponto de entrada para a execução da análise de Previsão de Demanda com Média Ponderada.
+     * A análise roda em segundo plano sobre um snapshot consistente do banco,
+     * ou é servida do cache se nenhuma venda ocorreu desde a última execução.
+     * @return A tarefa da análise, com progresso e resultado.
+     */
+    public static TarefaRelatorio executarPrevisaoDeDemandaPonderada() {
+        return executarEmSegundoPlano(LanguageService.getString("analysis.name.demand"), 5, AnalisePreditiva::preverDemandaPonderada);
+    }
+
+    /**
+     * Calcula e exibe a previsão de demanda de cada produto.
+     * @param conn Conexão (snapshot) usada em todas as consultas.
+     * @param saida Destino do relatório.
+     * @param tarefa Tarefa que acompanha o progresso.
      */
-    public static void executarPrevisaoDeDemandaPonderada() {
+    private static void preverDemandaPonderada(Connection conn, PrintStream saida, TarefaRelatorio tarefa) throws IOException, ParseException {
         if (Math.abs(Arrays.stream(PESOS_POR_MES).sum() - 1.0) > 0.001) {
-            System.out.println(LanguageService.getString("analysis.demand.weights_warning"));
+            saida.println(LanguageService.getString("analysis.demand.weights_warning"));
         }
 
         try {
-            Map<String, Produto> mapaDeProdutos = carregarProdutosDoArquivo();
+            tarefa.avancar("carga");
+            JfrEvents.FaseAnaliseEvent fase = JfrEvents.iniciarFase("demanda", "carga");
+            Map<String, Produto> mapaDeProdutos = carregarProdutosDoArquivo(conn);
+            fase.concluir(mapaDeProdutos.size());
             if (mapaDeProdutos.isEmpty()) {
-                System.out.println(LanguageService.getString("analysis.product.none"));
+                saida.println(LanguageService.getString("analysis.product.none"));
                 return;
             }
 
-            Map<String, List<Integer>> historicoVendas = apurarVendasUltimosMeses(mapaDeProdutos);
+            tarefa.avancar("agregacao");
+            long inicio = System.nanoTime();
+            Map<String, List<Integer>> historicoVendas = apurarVendasUltimosMeses(conn, mapaDeProdutos);
+            TEMPO_DEMANDA_AGREGACAO.recordSince(inicio);
             if (historicoVendas.isEmpty()) {
-                System.out.println(LanguageService.getString("analysis.demand.no_history"));
+                saida.println(LanguageService.getString("analysis.demand.no_history"));
                 return;
             }
 
+            tarefa.avancar("calculo");
+            inicio = System.nanoTime();
+            fase = JfrEvents.iniciarFase("demanda", "classificacao");
             Map<Produto, Double> previsoes = new HashMap<>();
 
             for(String produtoId : historicoVendas.keySet()){
@@ -314,30 +1557,40 @@ public class AnalisePreditiva {
                     previsoes.put(mapaDeProdutos.get(produtoId), previsao);
                 }
             }
+            fase.concluir(historicoVendas.size());
+            TEMPO_DEMANDA_CALCULO.recordSince(inicio);
 
-            exibirRelatorioPrevisaoDemanda(previsoes);
+            tarefa.avancar("ordenacao");
+            fase = JfrEvents.iniciarFase("demanda", "ordenacao");
+            List<Map.Entry<Produto, Double>> listaOrdenada = ordenarPrevisoes(previsoes);
+            fase.concluir(listaOrdenada.size());
+
+            tarefa.avancar("relatorio");
+            exibirRelatorioPrevisaoDemanda(saida, listaOrdenada);
 
         } catch (IOException | ParseException e) {
             System.err.println(LanguageService.getFormattedString("analysis.demand.process_error", e.getMessage()));
+            throw e;
         }
     }
 
     /**
      * Agrega as vendas de cada produto por mês e retorna apenas os últimos 6 meses de dados.
+     * @param conn Conexão a ser usada na consulta.
      * @param mapaDeProdutos Necessário para validar a existência dos produtos.
      * @return Mapa com ID do produto e uma lista de 6 posições com as quantidades vendidas.
      */
-    private static Map<String, List<Integer>> apurarVendasUltimosMeses(Map<String, Produto> mapaDeProdutos) throws IOException, ParseException {
+    static Map<String, List<Integer>> apurarVendasUltimosMeses(Connection conn, Map<String, Produto> mapaDeProdutos) throws IOException, ParseException {
         SimpleDateFormat formatadorData = new SimpleDateFormat("yyyy-MM-dd");
         Map<String, TreeMap<YearMonth, Integer>> vendasAgregadas = new HashMap<>();
 
-        String sql = "SELECT ProdutoID, Quantidade, Data FROM Logs WHERE Tipo = 'VENDA'";
-
-        try (Connection conn = DbManager.connect();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+        JfrEvents.FaseAnaliseEvent fase = JfrEvents.iniciarFase("demanda", "agregacao");
+        long linhasLidas = 0;
+        try (PreparedStatement pstmt = ArquivoLogs.prepararConsulta(conn, "ProdutoID, Quantidade, Data", "Tipo = 'VENDA'", null, null, null);
+             ResultSet rs = pstmt.executeQuery()) {
 
             while (rs.next()) {
+                linhasLidas++;
                 Date dataVenda = formatadorData.parse(rs.getString("Data")); // Parse YYYY-MM-DD
                 YearMonth mesAno = YearMonth.from(dataVenda.toInstant().atZone(ZoneId.systemDefault()).toLocalDate());
                 String produtoId = rs.getString("ProdutoID");
@@ -352,6 +1605,7 @@ public class AnalisePreditiva {
             System.err.println(LanguageService.getFormattedString("error.analysis.calc.monthly_sales", e.getMessage()));
             throw new IOException("Database Error", e);
         }
+        fase.concluir(linhasLidas);
 
         // O restante da lógica deste método para montar o histórico final permanece idêntico
         Map<String, List<Integer>> historicoFinal = new HashMap<>();
@@ -374,7 +1628,7 @@ public class AnalisePreditiva {
      * @param historicoVendas Lista com as vendas dos últimos 6 meses.
      * @return A previsão de demanda (quantidade) para o próximo mês.
      */
-    private static double calcularPrevisaoPorMediaPonderada(List<Integer> historicoVendas) {
+    static double calcularPrevisaoPorMediaPonderada(List<Integer> historicoVendas) {
         double previsaoPonderada = 0.0;
         for (int i = 0; i < NUMERO_MESES_ANALISE; i++) {
             previsaoPonderada += historicoVendas.get(i) * PESOS_POR_MES[i];
@@ -383,40 +1637,467 @@ public class AnalisePreditiva {
     }
 
     /**
-     * Exibe o relatório final com a previsão de demanda para cada produto.
+     * Mesma média ponderada, sobre um vetor primitivo (sem alocação por chamada).
+     * @param historicoVendas Vendas dos últimos 6 meses, do mais antigo para o mais recente.
+     * @return A previsão de demanda (quantidade) para o próximo mês.
+     */
+    static double calcularPrevisaoPorMediaPonderada(int[] historicoVendas) {
+        double previsaoPonderada = 0.0;
+        for (int i = 0; i < NUMERO_MESES_ANALISE; i++) {
+            previsaoPonderada += historicoVendas[i] * PESOS_POR_MES[i];
+        }
+        return previsaoPonderada;
+    }
+
+    /**
+     * Ordena o mapa de previsões pelo valor (previsão) em ordem decrescente.
      * @param previsoes Mapa contendo o produto e sua demanda prevista.
+     * @return Lista de pares produto/previsão, da maior para a menor demanda.
      */
-    private static void exibirRelatorioPrevisaoDemanda(Map<Produto, Double> previsoes) {
-        // Ordena o mapa de previsões pelo valor (previsão) em ordem decrescente
-        List<Map.Entry<Produto, Double>> listaOrdenada = previsoes.entrySet()
+    private static List<Map.Entry<Produto, Double>> ordenarPrevisoes(Map<Produto, Double> previsoes) {
+        return previsoes.entrySet()
                 .stream()
                 .sorted(Map.Entry.<Produto, Double>comparingByValue().reversed())
                 .collect(Collectors.toList());
+    }
 
-        System.out.println("\n======================================================================");
-        System.out.println(LanguageService.getString("analysis.demand.report.title"));
-        System.out.println("======================================================================");
-        System.out.printf(LanguageService.getString("analysis.demand.report.subtitle"), NUMERO_MESES_ANALISE);
-        System.out.println("----------------------------------------------------------------------");
-        System.out.printf("%-5s | %-45s | %s%n", 
+    /**
+     * Exibe o relatório final com a previsão de demanda para cada produto.
+     * @param saida Destino do relatório.
+     * @param listaOrdenada Lista de produtos e suas demandas previstas, já ordenada.
+     */
+    private static void exibirRelatorioPrevisaoDemanda(PrintStream saida, List<Map.Entry<Produto, Double>> listaOrdenada) {
+        saida.println("\n======================================================================");
+        saida.println(LanguageService.getString("analysis.demand.report.title"));
+        saida.println("======================================================================");
+        saida.printf(LanguageService.getString("analysis.demand.report.subtitle"), NUMERO_MESES_ANALISE);
+        saida.println("----------------------------------------------------------------------");
+        saida.printf("%-5s | %-45s | %s%n", 
             LanguageService.getString("analysis.table.header.id"), 
             LanguageService.getString("analysis.table.header.product"), 
             LanguageService.getString("analysis.table.header.prediction"));
-        System.out.println("----------------------------------------------------------------------");
+        saida.println("----------------------------------------------------------------------");
 
         if(listaOrdenada.isEmpty()){
-            System.out.println(LanguageService.getString("analysis.demand.no_prediction"));
+            saida.println(LanguageService.getString("analysis.demand.no_prediction"));
         } else {
             for (Map.Entry<Produto, Double> previsao : listaOrdenada) {
                 long previsaoArredondada = Math.round(previsao.getValue());
-                System.out.printf("%-5s | %-45.45s |" + LanguageService.getFormattedString("analysis.demand.prediction.units", previsaoArredondada),
+                saida.printf("%-5s | %-45.45s |" + LanguageService.getFormattedString("analysis.demand.prediction.units", previsaoArredondada),
                         previsao.getKey().getId(),
                         previsao.getKey().getNome());
             }
         }
-        System.out.println(LanguageService.getString("analysis.report.end"));
+        saida.println(LanguageService.getString("analysis.report.end"));
     }
 
+    // ===================================================================================
+    // --- INÍCIO: PREVISÃO DE DEMANDA POR MODELO WEKA COM DEFASAGENS ---
+    // ===================================================================================
+
+    // Meses anteriores usados como atributos (lag_1 = mês anterior ao previsto)
+    private static final int MESES_DEFASAGEM = Integer.getInteger("erp.demandModel.lags", 6);
+    // Meses de histórico lidos para o treino, incluindo o mês corrente
+    private static final int MESES_TREINO_DEMANDA = Integer.getInteger("erp.demandModel.months", 24);
+    // LinearRegression, M5P ou RandomForest
+    private static final String ALGORITMO_DEMANDA = System.getProperty("erp.demandModel.algorithm", "M5P");
+    private static final String ARQUIVO_MODELO_DEMANDA = "model/demanda_erp_model.model";
+    private static final String ARQUIVO_CABECALHO_DEMANDA = "model/demanda_erp_header.model";
+    // Produtos previstos por cada cópia do modelo, no mínimo, antes de dividir o catálogo
+    private static final int PRODUTOS_POR_PARTE = 500;
+    // Uma partição do log agrupada pelo SQLite: produto, mês ('yyyy-MM') e quantidade vendida
+    private static final String SQL_VENDAS_MENSAIS_POR_PARTICAO =
+        "SELECT ProdutoID, substr(Data, 1, 7), SUM(Quantidade) FROM %s"
+        + " WHERE Tipo = 'VENDA' AND Data >= ? GROUP BY 1, 2";
+
+    private static final MetricsService.Timer TEMPO_MODELO_DEMANDA_AGREGACAO = MetricsService.timer("analise.modeloDemanda.agregar");
+    private static final MetricsService.Timer TEMPO_MODELO_DEMANDA_TREINO = MetricsService.timer("analise.modeloDemanda.treinar");
+    private static final MetricsService.Timer TEMPO_MODELO_DEMANDA_PREDICAO = MetricsService.timer("analise.modeloDemanda.prever");
+
+    /**
+     * Vendas mensais de cada produto em uma janela de meses consecutivos.
+     */
+    private static final class SerieMensal {
+        final List<Produto> produtos;
+        final YearMonth primeiroMes;
+        // [produto][mês], do mês mais antigo (0) ao mês corrente
+        final int[][] vendas;
+
+        SerieMensal(List<Produto> produtos, YearMonth primeiroMes, int meses) {
+            this.produtos = produtos;
+            this.primeiroMes = primeiroMes;
+            this.vendas = new int[produtos.size()][meses];
+        }
+
+        int meses() {
+            return vendas.length == 0 ? 0 : vendas[0].length;
+        }
+
+        /**
+         * Últimos 6 meses antes do mês {@code alvo}, no formato de {@link #calcularPrevisaoPorMediaPonderada}.
+         */
+        List<Integer> historicoPonderado(int produto, int alvo) {
+            List<Integer> historico = new ArrayList<>(NUMERO_MESES_ANALISE);
+            for (int m = alvo - NUMERO_MESES_ANALISE; m < alvo; m++) {
+                historico.add(m >= 0 ? vendas[produto][m] : 0);
+            }
+            return historico;
+        }
+    }
+
+    /**
+     * Ponto de entrada do treino do modelo de demanda.
+     * O treino roda em segundo plano sobre um snapshot consistente do banco e grava o modelo em
+     * {@code model/}; a previsão por modelo passa a usá-lo na próxima execução.
+     * @return A tarefa do treino, com progresso e resultado.
+     */
+    public static TarefaRelatorio executarTreinoModeloDemanda() {
+        return executarEmSegundoPlano(LanguageService.getString("analysis.name.demand_model_training"), 4, AnalisePreditiva::treinarModeloDemanda);
+    }
+
+    /**
+     * Ponto de entrada da previsão de demanda pelo modelo treinado, alternativa à
+     * {@link #executarPrevisaoDeDemandaPonderada()}.
+     * O cache vale enquanto não houver venda nova nem um modelo regravado, inclusive por outro processo.
+     * @return A tarefa da análise, com progresso e resultado.
+     */
+    public static TarefaRelatorio executarPrevisaoDeDemandaPorModelo() {
+        return executarEmSegundoPlano(LanguageService.getString("analysis.name.demand_model"), 3, AnalisePreditiva::lerVersaoPrevisaoPorModelo,
+            AnalisePreditiva::preverDemandaPorModelo);
+    }
+
+    /**
+     * Versão dos dados da previsão por modelo: as vendas e a data de modificação do arquivo do modelo.
+     */
+    private static long lerVersaoPrevisaoPorModelo(Connection conn) throws SQLException {
+        // lastModified é 0 sem o arquivo; o treino grava o modelo de novo e muda a data
+        return LogService.lerVersaoVendas(conn) * 31 + new java.io.File(ARQUIVO_MODELO_DEMANDA).lastModified();
+    }
+
+    /**
+     * Treina um regressor do Weka ({@code erp.demandModel.algorithm}) que prevê as vendas de um
+     * produto em um mês a partir das vendas dos {@code erp.demandModel.lags} meses anteriores, da
+     * média desses meses, do preço, do mês do ano e da categoria.
+     * <p>
+     * Cada par (produto, mês completo) da janela de {@code erp.demandModel.months} meses vira uma
+     * instância de treino; o mês corrente, ainda incompleto, não é usado como alvo. Antes do treino
+     * final, um modelo treinado sem o último mês completo é avaliado nele, lado a lado com a média
+     * ponderada, para mostrar se o modelo compensa. O modelo final e o cabeçalho dos dados são
+     * gravados em {@code model/}, como o J48.
+     * @param conn Conexão (snapshot) usada em todas as consultas.
+     * @param saida Destino do relatório.
+     * @param tarefa Tarefa que acompanha o progresso.
+     */
+    private static void treinarModeloDemanda(Connection conn, PrintStream saida, TarefaRelatorio tarefa) throws IOException {
+        tarefa.avancar("agregacao");
+        int meses = Math.max(MESES_TREINO_DEMANDA, MESES_DEFASAGEM + 2);
+        List<Produto> produtos = new ArrayList<>(carregarProdutosDoArquivo(conn).values());
+        if (produtos.isEmpty()) {
+            saida.println(LanguageService.getString("analysis.product.none"));
+            return;
+        }
+        SerieMensal serie = apurarSerieMensal(conn, produtos, meses);
+
+        tarefa.avancar("montagem");
+        JfrEvents.FaseAnaliseEvent fase = JfrEvents.iniciarFase("modeloDemanda", "montagem");
+        Instances cabecalho = criarCabecalhoDemanda(produtos, MESES_DEFASAGEM);
+        // O último mês completo fica de fora do primeiro treino, para a avaliação
+        int ultimoMesCompleto = meses - 2;
+        Instances treino = new Instances(cabecalho, produtos.size() * (meses - MESES_DEFASAGEM));
+        Instances avaliacao = new Instances(cabecalho, produtos.size());
+        List<Integer> produtosAvaliados = new ArrayList<>();
+        for (int p = 0; p < produtos.size(); p++) {
+            for (int alvo = MESES_DEFASAGEM; alvo <= ultimoMesCompleto; alvo++) {
+                Instance instancia = criarInstanciaDemanda(cabecalho, serie, p, alvo, MESES_DEFASAGEM, false);
+                if (instancia == null) {
+                    continue;
+                }
+                if (alvo == ultimoMesCompleto) {
+                    avaliacao.add(instancia);
+                    produtosAvaliados.add(p);
+                } else {
+                    treino.add(instancia);
+                }
+            }
+        }
+        fase.concluir(treino.size() + avaliacao.size());
+        if (treino.isEmpty()) {
+            saida.println(LanguageService.getString("analysis.demand.no_history"));
+            return;
+        }
+
+        tarefa.avancar("treino");
+        long inicio = System.nanoTime();
+        fase = JfrEvents.iniciarFase("modeloDemanda", "treino");
+        Classifier modelo;
+        double erroModelo = 0.0;
+        double erroPonderada = 0.0;
+        try {
+            if (!avaliacao.isEmpty()) {
+                Classifier candidato = criarModeloDemanda();
+                candidato.buildClassifier(treino);
+                for (int i = 0; i < avaliacao.size(); i++) {
+                    Instance instancia = avaliacao.instance(i);
+                    int p = produtosAvaliados.get(i);
+                    double previsao = Math.max(0.0, candidato.classifyInstance(instancia));
+                    erroModelo += Math.abs(previsao - instancia.classValue());
+                    erroPonderada += Math.abs(calcularPrevisaoPorMediaPonderada(serie.historicoPonderado(p, ultimoMesCompleto)) - instancia.classValue());
+                }
+                erroModelo /= avaliacao.size();
+                erroPonderada /= avaliacao.size();
+                treino.addAll(avaliacao);
+            }
+            modelo = criarModeloDemanda();
+            modelo.buildClassifier(treino);
+        } catch (Exception e) {
+            System.err.println(LanguageService.getFormattedString("error.analysis.demand_model", e.getMessage()));
+            throw new IOException("Training Error", e);
+        }
+        fase.concluir(treino.size());
+        TEMPO_MODELO_DEMANDA_TREINO.recordSince(inicio);
+
+        tarefa.avancar("gravacao");
+        try {
+            new java.io.File("model").mkdirs();
+            SerializationHelper.write(ARQUIVO_MODELO_DEMANDA, modelo);
+            SerializationHelper.write(ARQUIVO_CABECALHO_DEMANDA, cabecalho);
+        } catch (Exception e) {
+            System.err.println(LanguageService.getFormattedString("error.analysis.demand_model", e.getMessage()));
+            throw new IOException("Model Save Error", e);
+        }
+        // A previsão em cache foi feita com o modelo anterior
+        tarefas.remove(LanguageService.getString("analysis.name.demand_model"));
+
+        saida.println("\n======================================================================");
+        saida.println(LanguageService.getString("analysis.demand_model.train.title"));
+        saida.println("======================================================================");
+        saida.println(LanguageService.getFormattedString("analysis.demand_model.train.summary",
+            modelo.getClass().getSimpleName(), treino.size(), produtos.size(), MESES_DEFASAGEM, meses));
+        if (avaliacao.isEmpty()) {
+            saida.println(LanguageService.getString("analysis.demand_model.train.holdout_none"));
+        } else {
+            saida.println(LanguageService.getFormattedString("analysis.demand_model.train.holdout",
+                serie.primeiroMes.plusMonths(ultimoMesCompleto).toString(), avaliacao.size(), erroModelo, erroPonderada));
+        }
+        saida.println(LanguageService.getFormattedString("analysis.demand_model.saved", ARQUIVO_MODELO_DEMANDA));
+        saida.println(LanguageService.getString("analysis.report.end"));
+    }
+
+    /**
+     * Prevê a demanda do próximo mês de todo o catálogo com o modelo gravado por
+     * {@link #treinarModeloDemanda}.
+     * <p>
+     * O catálogo é dividido em partes previstas em paralelo, cada uma com sua própria cópia do
+     * modelo (os classificadores do Weka não garantem ser seguros entre threads). As vendas do
+     * mês corrente, ainda incompleto, são projetadas para o mês inteiro antes de servirem de
+     * {@code lag_1}. O relatório mostra a média ponderada ao lado, para comparação.
+     * @param conn Conexão (snapshot) usada em todas as consultas.
+     * @param saida Destino do relatório.
+     * @param tarefa Tarefa que acompanha o progresso.
+     */
+    private static void preverDemandaPorModelo(Connection conn, PrintStream saida, TarefaRelatorio tarefa) throws IOException {
+        tarefa.avancar("carga");
+        if (!new java.io.File(ARQUIVO_MODELO_DEMANDA).isFile() || !new java.io.File(ARQUIVO_CABECALHO_DEMANDA).isFile()) {
+            // Falha em vez de relatório vazio: um resultado concluído ficaria em cache mesmo depois do treino
+            System.err.println(LanguageService.getFormattedString("analysis.demand_model.missing", ARQUIVO_MODELO_DEMANDA));
+            throw new IOException("Model not found: " + ARQUIVO_MODELO_DEMANDA);
+        }
+        Classifier modelo;
+        Instances cabecalho;
+        try {
+            modelo = (Classifier) SerializationHelper.read(ARQUIVO_MODELO_DEMANDA);
+            cabecalho = (Instances) SerializationHelper.read(ARQUIVO_CABECALHO_DEMANDA);
+        } catch (Exception e) {
+            System.err.println(LanguageService.getFormattedString("error.analysis.demand_model", e.getMessage()));
+            throw new IOException("Model Load Error", e);
+        }
+        // O número de defasagens vem do modelo gravado, não da configuração atual
+        int defasagens = 0;
+        while (cabecalho.attribute("lag_" + (defasagens + 1)) != null) {
+            defasagens++;
+        }
+        List<Produto> produtos = new ArrayList<>(carregarProdutosDoArquivo(conn).values());
+        if (produtos.isEmpty()) {
+            saida.println(LanguageService.getString("analysis.product.none"));
+            return;
+        }
+        SerieMensal serie = apurarSerieMensal(conn, produtos, Math.max(defasagens, NUMERO_MESES_ANALISE));
+        int proximoMes = serie.meses();
+
+        tarefa.avancar("predicao");
+        long inicio = System.nanoTime();
+        JfrEvents.FaseAnaliseEvent fase = JfrEvents.iniciarFase("modeloDemanda", "predicao");
+        double[] previsoes = new double[produtos.size()];
+        Arrays.fill(previsoes, Double.NaN);
+        int partes = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                                          (produtos.size() + PRODUTOS_POR_PARTE - 1) / PRODUTOS_POR_PARTE));
+        try {
+            Classifier[] copias = AbstractClassifier.makeCopies(modelo, partes);
+            int tamanhoParte = (produtos.size() + partes - 1) / partes;
+            int defasagensDoModelo = defasagens;
+            IntStream.range(0, partes).parallel().forEach(parte -> {
+                Instances dados = new Instances(cabecalho, 0);
+                for (int p = parte * tamanhoParte; p < Math.min(produtos.size(), (parte + 1) * tamanhoParte); p++) {
+                    Instance instancia = criarInstanciaDemanda(dados, serie, p, proximoMes, defasagensDoModelo, true);
+                    if (instancia == null) {
+                        continue;
+                    }
+                    try {
+                        previsoes[p] = Math.max(0.0, copias[parte].classifyInstance(instancia));
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e.getMessage(), e);
+                    }
+                }
+            });
+        } catch (Exception e) {
+            System.err.println(LanguageService.getFormattedString("error.analysis.demand_model", e.getMessage()));
+            throw new IOException("Prediction Error", e);
+        }
+        fase.concluir(produtos.size());
+        TEMPO_MODELO_DEMANDA_PREDICAO.recordSince(inicio);
+
+        tarefa.avancar("relatorio");
+        List<Integer> ordem = new ArrayList<>();
+        for (int p = 0; p < produtos.size(); p++) {
+            if (!Double.isNaN(previsoes[p])) {
+                ordem.add(p);
+            }
+        }
+        ordem.sort((a, b) -> Double.compare(previsoes[b], previsoes[a]));
+
+        saida.println("\n======================================================================");
+        saida.println(LanguageService.getString("analysis.demand.report.title"));
+        saida.println("======================================================================");
+        saida.println(LanguageService.getFormattedString("analysis.demand_model.report.subtitle",
+            modelo.getClass().getSimpleName(), defasagens, serie.primeiroMes.plusMonths(proximoMes).toString()));
+        saida.println(LanguageService.getString("analysis.demand_model.report.header"));
+        if (ordem.isEmpty()) {
+            saida.println(LanguageService.getString("analysis.demand.no_prediction"));
+        }
+        for (int p : ordem) {
+            Produto produto = produtos.get(p);
+            saida.println(String.format("%-8s | %-40.40s | %10d | %10d", produto.getId(), produto.getNome(),
+                Math.round(previsoes[p]), Math.round(calcularPrevisaoPorMediaPonderada(serie.historicoPonderado(p, proximoMes)))));
+        }
+        saida.println(LanguageService.getString("analysis.report.end"));
+    }
+
+    /**
+     * Soma as vendas de cada produto por mês nos últimos {@code meses} meses (incluindo o corrente),
+     * lendo cada partição do log uma única vez, já agrupada pelo SQLite.
+     */
+    private static SerieMensal apurarSerieMensal(Connection conn, List<Produto> produtos, int meses) throws IOException {
+        long inicio = System.nanoTime();
+        JfrEvents.FaseAnaliseEvent fase = JfrEvents.iniciarFase("modeloDemanda", "agregacao");
+        YearMonth primeiroMes = YearMonth.now().minusMonths(meses - 1);
+        SerieMensal serie = new SerieMensal(produtos, primeiroMes, meses);
+        Map<String, Integer> indiceDoProduto = new HashMap<>(produtos.size() * 2);
+        for (int p = 0; p < produtos.size(); p++) {
+            indiceDoProduto.put(produtos.get(p).getId(), p);
+        }
+        long grupos = 0;
+        try {
+            for (String tabela : ArquivoLogs.tabelas(conn)) {
+                try (PreparedStatement pstmt = conn.prepareStatement(String.format(SQL_VENDAS_MENSAIS_POR_PARTICAO, tabela))) {
+                    pstmt.setString(1, primeiroMes.atDay(1).toString());
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            grupos++;
+                            Integer p = indiceDoProduto.get(rs.getString(1));
+                            int mes = (int) primeiroMes.until(YearMonth.parse(rs.getString(2)), ChronoUnit.MONTHS);
+                            if (p != null && mes >= 0 && mes < meses) {
+                                serie.vendas[p][mes] += rs.getInt(3);
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            System.err.println(LanguageService.getFormattedString("error.analysis.calc.monthly_sales", e.getMessage()));
+            throw new IOException("Database Error", e);
+        }
+        fase.concluir(grupos);
+        TEMPO_MODELO_DEMANDA_AGREGACAO.recordSince(inicio);
+        return serie;
+    }
+
+    /**
+     * Cria o classificador configurado em {@code erp.demandModel.algorithm} (M5P se desconhecido).
+     */
+    private static Classifier criarModeloDemanda() {
+        switch (ALGORITMO_DEMANDA.toLowerCase(Locale.ROOT)) {
+            case "linearregression":
+                return new LinearRegression();
+            case "randomforest":
+                RandomForest floresta = new RandomForest();
+                floresta.setNumExecutionSlots(Math.max(1, Runtime.getRuntime().availableProcessors()));
+                return floresta;
+            default:
+                return new M5P();
+        }
+    }
+
+    /**
+     * Estrutura dos dados do modelo de demanda: defasagens, média, preço, mês do ano, categoria
+     * e, por último, a classe (vendas do mês).
+     */
+    private static Instances criarCabecalhoDemanda(List<Produto> produtos, int defasagens) {
+        ArrayList<Attribute> atributos = new ArrayList<>();
+        for (int k = 1; k <= defasagens; k++) {
+            atributos.add(new Attribute("lag_" + k));
+        }
+        atributos.add(new Attribute("media_defasagens"));
+        atributos.add(new Attribute("precoVenda"));
+        List<String> mesesDoAno = new ArrayList<>();
+        for (int m = 1; m <= 12; m++) {
+            mesesDoAno.add(String.format("%02d", m));
+        }
+        atributos.add(new Attribute("mes_do_ano", mesesDoAno));
+        atributos.add(new Attribute("categoria", produtos.stream().map(Produto::getCategoria).distinct().sorted().collect(Collectors.toList())));
+        atributos.add(new Attribute("vendas"));
+        Instances cabecalho = new Instances("demanda_erp", atributos, 0);
+        cabecalho.setClassIndex(atributos.size() - 1);
+        return cabecalho;
+    }
+
+    /**
+     * Monta a instância do produto {@code p} para o mês {@code alvo} da série.
+     * @param projetarUltimo Se o último mês da série (o corrente) deve ser projetado para o mês inteiro.
+     * @return A instância, ou {@code null} se o produto não vendeu nada nesses meses.
+     */
+    private static Instance criarInstanciaDemanda(Instances dados, SerieMensal serie, int p, int alvo, int defasagens, boolean projetarUltimo) {
+        int[] vendas = serie.vendas[p];
+        double[] valores = new double[dados.numAttributes()];
+        double soma = 0.0;
+        for (int k = 1; k <= defasagens; k++) {
+            int mes = alvo - k;
+            double vendido = mes >= 0 ? vendas[mes] : 0;
+            if (projetarUltimo && mes == vendas.length - 1) {
+                LocalDate hoje = LocalDate.now();
+                vendido = vendido * hoje.lengthOfMonth() / hoje.getDayOfMonth();
+            }
+            valores[k - 1] = vendido;
+            soma += vendido;
+        }
+        boolean temAlvo = alvo < vendas.length;
+        if (soma == 0.0 && (!temAlvo || vendas[alvo] == 0)) {
+            return null;
+        }
+        Produto produto = serie.produtos.get(p);
+        valores[defasagens] = soma / defasagens;
+        valores[defasagens + 1] = produto.getPrecoVenda();
+        valores[defasagens + 2] = dados.attribute("mes_do_ano").indexOfValue(String.format("%02d", serie.primeiroMes.plusMonths(alvo).getMonthValue()));
+        int categoria = dados.attribute("categoria").indexOfValue(produto.getCategoria());
+        // Categoria criada depois do treino: fica ausente
+        valores[defasagens + 3] = categoria >= 0 ? categoria : Utils.missingValue();
+        valores[defasagens + 4] = temAlvo ? vendas[alvo] : Utils.missingValue();
+        Instance instancia = new DenseInstance(1.0, valores);
+        instancia.setDataset(dados);
+        return instancia;
+    }
+
+    // --- FIM: PREVISÃO DE DEMANDA POR MODELO WEKA COM DEFASAGENS ---
+
     /**
      * Executa o treinamento do classificador J48 com os dados do banco
      * e salva o modelo treinado em disco.
@@ -427,7 +2108,12 @@ public class AnalisePreditiva {
 
         try {
             // 1. Carregar os dados brutos do banco
-            Map<String, Produto> produtosMap = carregarProdutosDoArquivo();
+            JfrEvents.FaseAnaliseEvent fase = JfrEvents.iniciarFase("j48", "carga");
+            Map<String, Produto> produtosMap;
+            try (Connection conn = DbManager.connect()) {
+                produtosMap = carregarProdutosDoArquivo(conn);
+            }
+            fase.concluir(produtosMap.size());
             if (produtosMap.isEmpty()) {
                 System.out.println("Nenhum produto no banco para treinar.");
                 return;
@@ -486,13 +2172,21 @@ public class AnalisePreditiva {
             System.out.println("Iniciando treinamento com " + dados.size() + " instâncias...");
 
             // 5. Treinar o classificador J48
+            long inicioFase = System.nanoTime();
+            fase = JfrEvents.iniciarFase("j48", "treino");
             J48 classificador = new J48();
             // classificador.setUnpruned(true); // Exemplo de opção do J48
             classificador.buildClassifier(dados);
+            fase.concluir(dados.size());
+            TEMPO_J48_TREINO.recordSince(inicioFase);
 
             // 6. Avaliar o modelo (Cross-validation 10-folds)
+            inicioFase = System.nanoTime();
+            fase = JfrEvents.iniciarFase("j48", "avaliacao");
             Evaluation avaliacao = new Evaluation(dados);
             avaliacao.crossValidateModel(classificador, dados, 10, new Random(1));
+            fase.concluir(dados.size());
+            TEMPO_J48_AVALIACAO.recordSince(inicioFase);
 
             System.out.println("\n--- Relatório de Performance (Fase 1) ---");
             System.out.println(avaliacao.toSummaryString());
@@ -502,10 +2196,29 @@ public class AnalisePreditiva {
             // 7. Salvar o modelo treinado para uso na Fase 2
             // Garante que a pasta 'model' exista
             new java.io.File("model").mkdirs();
-            SerializationHelper.write("model/j48_erp_model.model", classificador);
+            SerializationHelper.write(ARQUIVO_MODELO_J48, classificador);
             // Também salvamos o "cabeçalho" dos dados, essencial para a predição
-            SerializationHelper.write("model/j48_erp_header.model", new Instances(dados, 0));
-            System.out.println("\n>>> Modelo treinado e salvo em 'model/j48_erp_model.model'");
+            Instances header = new Instances(dados, 0);
+            SerializationHelper.write(ARQUIVO_CABECALHO_J48, header);
+            System.out.println("\n>>> Modelo treinado e salvo em '" + ARQUIVO_MODELO_J48 + "'");
+
+            // 8. Conferir a árvore compilada do modelo salvo contra o Weka, em todas as instâncias;
+            //    se divergir, preverCategoria usa o próprio J48
+            ArvoreCompilada arvore = conferirArvoreCompilada(classificador, header, dados);
+            long versao = new java.io.File(ARQUIVO_MODELO_J48).lastModified();
+            if (arvore != null) {
+                SerializationHelper.write(ARQUIVO_CONFERENCIA_J48, versao);
+            } else {
+                new java.io.File(ARQUIVO_CONFERENCIA_J48).delete();
+            }
+            synchronized (AnalisePreditiva.class) {
+                modeloCategoria = new ModeloCategoria(versao, classificador, header, arvore);
+            }
+
+            // 9. Medir a latência da árvore compilada contra a do Weka
+            if (arvore != null) {
+                compararArvoreCompilada(dados);
+            }
 
         } catch (Exception e) {
             System.err.println("ERRO CRÍTICO no treinamento J48: " + e.getMessage());
@@ -519,41 +2232,162 @@ public class AnalisePreditiva {
 
     /**
      * Prevê a categoria de um novo produto com base no modelo J48 treinado.
+     * <p>
+     * O modelo é lido do disco só na primeira chamada e sempre que o arquivo for regravado. Se a
+     * árvore compilada ({@link ArvoreCompilada}) dele foi conferida no treinamento, as chamadas a
+     * percorrem sem montar instâncias do Weka; quando ela não decide (ex.: preço NaN), ou não foi
+     * conferida, a predição é a do J48.
      * @param nome O nome do novo produto
      * @param precoVenda O preço de venda do novo produto
      * @return A string da categoria prevista (ex: "Perifericos")
      * @throws Exception Se o modelo não for encontrado ou houver erro na predição
      */
     public static String preverCategoria(String nome, double precoVenda) throws Exception {
-        // 1. Carregar o modelo e o cabeçalho (estrutura de dados)
-        // Se os arquivos não existirem, lançará uma exceção
-        J48 classificador = (J48) SerializationHelper.read("model/j48_erp_model.model");
-        Instances header = (Instances) SerializationHelper.read("model/j48_erp_header.model");
-
-        // 2. Criar a nova instância para predição
-        Instance inst = new DenseInstance(header.numAttributes());
-        inst.setDataset(header); // Vincula ao cabeçalho (ESSENCIAL)
+        // 1. Carregar (ou reaproveitar) o modelo
+        ModeloCategoria modelo = carregarModeloCategoria();
 
-        // 3. Preencher os atributos da nova instância
-        // DEVE SEGUIR A MESMA ORDEM E LÓGICA DO TREINAMENTO!
+        // 2. Preencher os atributos, na mesma lógica do treinamento
+        long inicio = System.nanoTime();
         String nomeLower = nome.toLowerCase();
+        double[] valores = new double[modelo.header.numAttributes()];
+        valores[modelo.indicePreco] = precoVenda;
+        for (int i = 0; i < PALAVRAS_CHAVE_CATEGORIA.length; i++) {
+            valores[modelo.indicesPalavras[i]] = nomeLower.contains(PALAVRAS_CHAVE_CATEGORIA[i]) ? 1.0 : 0.0;
+        }
 
-        // Acessa os atributos pelo NOME para segurança
-        inst.setValue(header.attribute("precoVenda"), precoVenda);
-        inst.setValue(header.attribute("tem_palavra_teclado"), nomeLower.contains("teclado") ? 1.0 : 0.0);
-        inst.setValue(header.attribute("tem_palavra_mouse"), nomeLower.contains("mouse") ? 1.0 : 0.0);
-        inst.setValue(header.attribute("tem_palavra_monitor"), nomeLower.contains("monitor") ? 1.0 : 0.0);
-        inst.setValue(header.attribute("tem_palavra_ssd"), nomeLower.contains("ssd") ? 1.0 : 0.0);
-        inst.setValue(header.attribute("tem_palavra_hd"), nomeLower.contains("hd") ? 1.0 : 0.0);
-        inst.setValue(header.attribute("tem_palavra_ram"), nomeLower.contains("ram") ? 1.0 : 0.0);
-        inst.setValue(header.attribute("tem_palavra_cabo"), nomeLower.contains("cabo") ? 1.0 : 0.0);
+        // 3. Classificar pela árvore compilada; -1 quer dizer que ela não decide
+        int classe = modelo.arvore != null ? modelo.arvore.classificar(valores) : -1;
+        if (classe < 0) {
+            valores[modelo.header.classIndex()] = Utils.missingValue();
+            Instance inst = new DenseInstance(1.0, valores);
+            inst.setDataset(modelo.header);
+            classe = (int) modelo.classificador.classifyInstance(inst);
+            PREDICOES_J48_WEKA.increment();
+        }
+        TEMPO_J48_PREDICAO.recordSince(inicio);
+        return modelo.header.classAttribute().value(classe);
+    }
 
-        // O atributo da classe (categoria) fica vazio (missing), pois é isso que queremos prever
+    /**
+     * Lê o modelo J48 e o cabeçalho gravados por {@link #executarTreinamentoJ48()}, a menos que
+     * o modelo em memória seja o do arquivo atual. A árvore só é compilada se o treinamento
+     * registrou que a conferiu para esta versão do arquivo.
+     */
+    private static synchronized ModeloCategoria carregarModeloCategoria() throws Exception {
+        java.io.File arquivo = new java.io.File(ARQUIVO_MODELO_J48);
+        // Se o arquivo não existir, lastModified é 0 e a leitura abaixo lança a exceção
+        long versao = arquivo.lastModified();
+        ModeloCategoria atual = modeloCategoria;
+        if (atual != null && atual.versao == versao && versao != 0) {
+            return atual;
+        }
+        J48 classificador = (J48) SerializationHelper.read(ARQUIVO_MODELO_J48);
+        Instances header = (Instances) SerializationHelper.read(ARQUIVO_CABECALHO_J48);
+        ArvoreCompilada arvore = null;
+        if (new java.io.File(ARQUIVO_CONFERENCIA_J48).exists()
+                && ((Long) SerializationHelper.read(ARQUIVO_CONFERENCIA_J48)) == versao) {
+            arvore = ArvoreCompilada.compilar(classificador, header);
+        }
+        modeloCategoria = new ModeloCategoria(versao, classificador, header, arvore);
+        return modeloCategoria;
+    }
 
-        // 4. Classificar a instância
-        double predIndex = classificador.classifyInstance(inst);
+    /**
+     * Compila a árvore do classificador treinado e confere, em cada instância de {@code dados},
+     * que ela prevê exatamente o mesmo que o Weka.
+     * @return A árvore compilada, ou {@code null} se alguma predição divergir.
+     */
+    private static ArvoreCompilada conferirArvoreCompilada(J48 classificador, Instances header, Instances dados)
+            throws Exception {
+        ArvoreCompilada arvore = ArvoreCompilada.compilar(classificador, header);
+        int divergencias = 0;
+        for (int i = 0; i < dados.numInstances(); i++) {
+            Instance inst = dados.instance(i);
+            if (arvore.classificar(inst.toDoubleArray()) != (int) classificador.classifyInstance(inst)) {
+                divergencias++;
+            }
+        }
+        System.out.println("\n--- Árvore Compilada ---");
+        System.out.printf("%d nós; %d de %d predições do modelo salvo idênticas às do Weka%n",
+            arvore.getNumeroNos(), dados.numInstances() - divergencias, dados.numInstances());
+        if (divergencias > 0) {
+            System.out.println("A árvore compilada diverge do Weka; as predições de categoria usarão o J48.");
+            return null;
+        }
+        return arvore;
+    }
 
-        // 5. Retornar o nome da classe prevista
-        return header.classAttribute().value((int) predIndex);
+    /**
+     * Treina um J48 com dois terços dos dados, compila a árvore e mede, no terço restante, a
+     * latência das duas em uma predição por vez (montando a instância, como o Weka exige) e em
+     * lote (sobre instâncias e vetores já prontos). Só mede: quem decide se a árvore compilada
+     * é usada é {@link #conferirArvoreCompilada}, sobre o modelo salvo.
+     * @param dados O conjunto de dados do treinamento, com a classe definida.
+     */
+    private static void compararArvoreCompilada(Instances dados) throws Exception {
+        Instances embaralhados = new Instances(dados);
+        embaralhados.randomize(new Random(1));
+        embaralhados.stratify(3);
+        Instances treino = embaralhados.trainCV(3, 0);
+        Instances teste = embaralhados.testCV(3, 0);
+        J48 classificador = new J48();
+        classificador.buildClassifier(treino);
+        ArvoreCompilada arvore = ArvoreCompilada.compilar(classificador, new Instances(treino, 0));
+
+        int n = teste.numInstances();
+        double[][] valores = new double[n][];
+        for (int i = 0; i < n; i++) {
+            valores[i] = teste.instance(i).toDoubleArray();
+        }
+        if (n == 0) {
+            return;
+        }
+
+        // Uma predição por vez: o Weka monta e vincula a instância, como a versão anterior de preverCategoria
+        double[] linha = new double[arvore.getNumeroAtributos()];
+        long somaControle = 0;
+        long weka = Long.MAX_VALUE;
+        long compilada = Long.MAX_VALUE;
+        long wekaLote = Long.MAX_VALUE;
+        long compiladaLote = Long.MAX_VALUE;
+        int[] classes = new int[n];
+        // Várias rodadas para aquecer o JIT; vale a melhor de cada
+        for (int rodada = 0; rodada < 20; rodada++) {
+            long inicio = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                Instance inst = new DenseInstance(teste.numAttributes());
+                inst.setDataset(teste);
+                for (int a = 0; a < teste.numAttributes(); a++) {
+                    if (a != teste.classIndex()) {
+                        inst.setValue(a, valores[i][a]);
+                    }
+                }
+                somaControle += (long) classificador.classifyInstance(inst);
+            }
+            weka = Math.min(weka, System.nanoTime() - inicio);
+
+            inicio = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                System.arraycopy(valores[i], 0, linha, 0, linha.length);
+                somaControle += arvore.classificar(linha);
+            }
+            compilada = Math.min(compilada, System.nanoTime() - inicio);
+
+            inicio = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                somaControle += (long) classificador.classifyInstance(teste.instance(i));
+            }
+            wekaLote = Math.min(wekaLote, System.nanoTime() - inicio);
+
+            inicio = System.nanoTime();
+            arvore.classificar(valores, classes);
+            compiladaLote = Math.min(compiladaLote, System.nanoTime() - inicio);
+            somaControle += classes[rodada % n];
+        }
+        System.out.printf("Uma por vez: Weka %.0f ns, compilada %.0f ns por predição (%.1fx)%n",
+            (double) weka / n, (double) compilada / n, (double) weka / Math.max(compilada, 1));
+        sumidouroMedicao = somaControle;
+        System.out.printf("Em lote (%d): Weka %.0f ns, compilada %.0f ns por predição (%.1fx)%n",
+            n, (double) wekaLote / n, (double) compiladaLote / n, (double) wekaLote / Math.max(compiladaLote, 1));
     }
 }
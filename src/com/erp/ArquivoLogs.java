@@ -0,0 +1,271 @@
+package com.erp;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Time-partitioned archival of the {@code Logs} table.
+ * <p>
+ * Closed months (every month before the current one) are moved out of the hot
+ * {@code Logs} table into one archive table per month, named {@code Logs_AAAAMM},
+ * and recorded in the {@code LogsParticoes} catalog. The hot table keeps only the
+ * current month, so inserts and scans on it stay cheap, while history remains
+ * queryable through {@link #prepararConsulta}, which only reads the partitions whose
+ * period overlaps the requested date range.
+ * <p>
+ * Archival runs from the System menu, or at startup when {@code erp.logArchive.auto}
+ * is set to {@code true}.
+ */
+public class ArquivoLogs {
+    private static final boolean ARQUIVAR_NA_INICIALIZACAO = Boolean.getBoolean("erp.logArchive.auto");
+
+    private static final DateTimeFormatter FORMATO_TABELA = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private static final MetricsService.Timer TEMPO_ARQUIVAMENTO = MetricsService.timer("log.archive");
+    private static final MetricsService.Counter LINHAS_ARQUIVADAS = MetricsService.counter("log.archive.rows");
+
+    /**
+     * An archived month: its table and the date range it covers ('yyyy-MM-dd').
+     */
+    private static final class Particao {
+        final String tabela;
+        final String dataInicial;
+        final String dataFinal;
+
+        Particao(String tabela, String dataInicial, String dataFinal) {
+            this.tabela = tabela;
+            this.dataInicial = dataInicial;
+            this.dataFinal = dataFinal;
+        }
+    }
+
+    /**
+     * Creates the partition catalog.
+     * Called once by {@link DbManager#initializeDatabase()}.
+     *
+     * @param stmt An open statement on the database.
+     * @throws SQLException if the catalog cannot be created.
+     */
+    static void inicializar(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS LogsParticoes ("
+                   + " tabela TEXT PRIMARY KEY,"
+                   + " periodo TEXT NOT NULL," // 'yyyy-MM'
+                   + " dataInicial TEXT NOT NULL,"
+                   + " dataFinal TEXT NOT NULL,"
+                   + " linhas INTEGER NOT NULL,"
+                   + " arquivadoEm TEXT NOT NULL"
+                   + ");");
+    }
+
+    /**
+     * Runs the startup archival when {@code erp.logArchive.auto} is enabled.
+     */
+    public static void arquivarSeHabilitado() {
+        if (ARQUIVAR_NA_INICIALIZACAO) {
+            arquivarMesesFechados();
+        }
+    }
+
+    /**
+     * Moves every closed month from {@code Logs} to its archive table.
+     * <p>
+     * Each month is moved in its own transaction (copy, delete, catalog update), so an
+     * interruption never leaves a row in both places or in neither.
+     *
+     * @return The number of rows archived.
+     */
+    public static long arquivarMesesFechados() {
+        String inicioMesAtual = YearMonth.now().atDay(1).toString();
+        long total = 0;
+
+        long inicio = System.nanoTime();
+        try (Connection conn = DbManager.connect()) {
+            List<YearMonth> meses = new ArrayList<>();
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "SELECT DISTINCT substr(Data, 1, 7) AS periodo FROM Logs WHERE Data < ? ORDER BY periodo")) {
+                pstmt.setString(1, inicioMesAtual);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        meses.add(YearMonth.parse(rs.getString("periodo")));
+                    }
+                }
+            }
+
+            for (YearMonth mes : meses) {
+                long linhas = arquivarMes(conn, mes);
+                total += linhas;
+                System.out.println(LanguageService.getFormattedString("log.archive.month", mes.toString(), linhas));
+            }
+        } catch (SQLException e) {
+            System.err.println(LanguageService.getFormattedString("error.log.archive", e.getMessage()));
+        } finally {
+            TEMPO_ARQUIVAMENTO.recordSince(inicio);
+        }
+
+        LINHAS_ARQUIVADAS.add(total);
+        System.out.println(LanguageService.getFormattedString("log.archive.done", total));
+        return total;
+    }
+
+    private static long arquivarMes(Connection conn, YearMonth mes) throws SQLException {
+        String tabela = "Logs_" + mes.format(FORMATO_TABELA);
+        String dataInicial = mes.atDay(1).toString();
+        String dataFinal = mes.atEndOfMonth().toString();
+
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + tabela + " ("
+                       + " id INTEGER PRIMARY KEY,"
+                       + " Tipo TEXT NOT NULL,"
+                       + " PessoaID TEXT NOT NULL,"
+                       + " ProdutoID TEXT NOT NULL,"
+                       + " Quantidade INTEGER NOT NULL,"
+                       + " Data TEXT NOT NULL,"
+                       + " Hora TEXT NOT NULL"
+                       + ");");
+            // A partição não recebe mais escritas, então o índice custa apenas uma vez
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_" + tabela + "_tipo_data ON " + tabela + "(Tipo, Data)");
+
+            int linhas;
+            try (PreparedStatement copia = conn.prepareStatement(
+                    "INSERT INTO " + tabela + " SELECT id, Tipo, PessoaID, ProdutoID, Quantidade, Data, Hora"
+                  + " FROM Logs WHERE Data >= ? AND Data <= ?")) {
+                copia.setString(1, dataInicial);
+                copia.setString(2, dataFinal);
+                linhas = copia.executeUpdate();
+            }
+
+            try (PreparedStatement remocao = conn.prepareStatement("DELETE FROM Logs WHERE Data >= ? AND Data <= ?")) {
+                remocao.setString(1, dataInicial);
+                remocao.setString(2, dataFinal);
+                remocao.executeUpdate();
+            }
+
+            try (PreparedStatement catalogo = conn.prepareStatement(
+                    "INSERT INTO LogsParticoes(tabela, periodo, dataInicial, dataFinal, linhas, arquivadoEm)"
+                  + " VALUES(?, ?, ?, ?, ?, ?)"
+                  + " ON CONFLICT(tabela) DO UPDATE SET linhas = linhas + excluded.linhas, arquivadoEm = excluded.arquivadoEm")) {
+                catalogo.setString(1, tabela);
+                catalogo.setString(2, mes.toString());
+                catalogo.setString(3, dataInicial);
+                catalogo.setString(4, dataFinal);
+                catalogo.setInt(5, linhas);
+                catalogo.setString(6, LocalDate.now().toString());
+                catalogo.executeUpdate();
+            }
+
+            conn.commit();
+            return linhas;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Prepares a query over the logs of a date range, reading the hot table plus
+     * only the archive partitions that overlap the range.
+     * <p>
+     * The same {@code SELECT} is issued on each source and the results are combined
+     * with {@code UNION ALL}; the date parameters are already bound.
+     *
+     * @param conn An open connection.
+     * @param colunas The column list (ex: "ProdutoID, Quantidade").
+     * @param filtro An extra constant condition (ex: "Tipo = 'VENDA'"), or {@code null}.
+     * @param dataInicial First day ('yyyy-MM-dd', inclusive), or {@code null} for no lower bound.
+     * @param dataFinal Last day ('yyyy-MM-dd', inclusive), or {@code null} for no upper bound.
+     * @param ordem An {@code ORDER BY} list over the selected columns, or {@code null}.
+     * @return The prepared statement, ready to execute.
+     * @throws SQLException if the statement cannot be prepared.
+     */
+    public static PreparedStatement prepararConsulta(Connection conn, String colunas, String filtro,
+                                                     String dataInicial, String dataFinal, String ordem) throws SQLException {
+        List<String> tabelas = new ArrayList<>();
+        tabelas.add("Logs");
+        for (Particao particao : getParticoes(conn).values()) {
+            if ((dataInicial == null || particao.dataFinal.compareTo(dataInicial) >= 0)
+                    && (dataFinal == null || particao.dataInicial.compareTo(dataFinal) <= 0)) {
+                tabelas.add(particao.tabela);
+            }
+        }
+
+        StringBuilder condicoes = new StringBuilder();
+        if (filtro != null) {
+            condicoes.append(" AND ").append(filtro);
+        }
+        if (dataInicial != null) {
+            condicoes.append(" AND Data >= ?");
+        }
+        if (dataFinal != null) {
+            condicoes.append(" AND Data <= ?");
+        }
+        String where = condicoes.length() == 0 ? "" : " WHERE" + condicoes.substring(4);
+
+        StringBuilder sql = new StringBuilder();
+        for (String tabela : tabelas) {
+            if (sql.length() > 0) {
+                sql.append(" UNION ALL ");
+            }
+            sql.append("SELECT ").append(colunas).append(" FROM ").append(tabela).append(where);
+        }
+        if (ordem != null) {
+            sql.append(" ORDER BY ").append(ordem);
+        }
+
+        PreparedStatement pstmt = conn.prepareStatement(sql.toString());
+        int indice = 1;
+        for (int i = 0; i < tabelas.size(); i++) {
+            if (dataInicial != null) {
+                pstmt.setString(indice++, dataInicial);
+            }
+            if (dataFinal != null) {
+                pstmt.setString(indice++, dataFinal);
+            }
+        }
+        return pstmt;
+    }
+
+    /**
+     * @return The hot {@code Logs} table followed by every archive partition.
+     * @throws SQLException if the catalog cannot be read.
+     */
+    public static List<String> tabelas(Connection conn) throws SQLException {
+        List<String> tabelas = new ArrayList<>();
+        tabelas.add("Logs");
+        for (Particao particao : getParticoes(conn).values()) {
+            tabelas.add(particao.tabela);
+        }
+        return tabelas;
+    }
+
+    /**
+     * Reads the partition catalog (period -> partition) on every call: it has one row per
+     * archived month, and another process may have archived a month since the last query.
+     * Inside a transaction (ex: the snapshot of an analysis) this is the catalog of that transaction.
+     */
+    private static NavigableMap<String, Particao> getParticoes(Connection conn) throws SQLException {
+        NavigableMap<String, Particao> atual = new TreeMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT tabela, periodo, dataInicial, dataFinal FROM LogsParticoes");
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                atual.put(rs.getString("periodo"),
+                    new Particao(rs.getString("tabela"), rs.getString("dataInicial"), rs.getString("dataFinal")));
+            }
+        }
+        return Collections.unmodifiableNavigableMap(atual);
+    }
+}
@@ -0,0 +1,212 @@
+package com.erp;
+
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import weka.classifiers.trees.J48;
+import weka.classifiers.trees.j48.C45Split;
+import weka.classifiers.trees.j48.ClassifierSplitModel;
+import weka.classifiers.trees.j48.ClassifierTree;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * A trained {@link J48} tree flattened into parallel arrays, which classifies from primitive
+ * feature values with no allocation and no Weka objects.
+ * <p>
+ * Every node has an index; the children of a node are stored contiguously, so the child taken
+ * for a value is {@code primeiroFilho[no] + subset}. Numeric tests go to subset 0 when the value
+ * is {@code <=} the split point and to subset 1 otherwise; nominal tests go to the subset of the
+ * value's index, exactly like {@link C45Split#whichSubset}. Each leaf stores the class Weka would
+ * return there, computed once at compile time with Weka's own probabilities and tie-breaking
+ * ({@link Utils#gr}); an empty child becomes a leaf with the class its parent predicts for that
+ * subset, as {@code ClassifierTree.getProbs} does.
+ * <p>
+ * Weka spreads an instance with a missing tested value over every child, weighted by the
+ * training distribution; the compiled tree does not, and {@link #classificar} returns {@code -1}
+ * instead so the caller can fall back to the original model. Only the default C4.5 splits are
+ * supported (not {@code -B} binary splits).
+ */
+public final class ArvoreCompilada {
+    private static final int FOLHA = -1;
+
+    // Atributo testado no nó, ou FOLHA
+    private final int[] atributo;
+    private final boolean[] nominal;
+    private final double[] pontoDeCorte;
+    private final int[] primeiroFilho;
+    private final int[] numeroFilhos;
+    // Classe prevista nas folhas
+    private final int[] classe;
+    private final String[] nomesDasClasses;
+    private final int numeroAtributos;
+
+    private ArvoreCompilada(int nos, String[] nomesDasClasses, int numeroAtributos) {
+        this.atributo = new int[nos];
+        this.nominal = new boolean[nos];
+        this.pontoDeCorte = new double[nos];
+        this.primeiroFilho = new int[nos];
+        this.numeroFilhos = new int[nos];
+        this.classe = new int[nos];
+        this.nomesDasClasses = nomesDasClasses;
+        this.numeroAtributos = numeroAtributos;
+    }
+
+    /**
+     * Flattens a trained tree.
+     *
+     * @param arvore The trained classifier.
+     * @param cabecalho The header of the data it was trained on (class index set).
+     * @return The compiled tree.
+     * @throws IllegalArgumentException if the tree uses splits other than {@link C45Split}.
+     * @throws Exception if Weka fails to compute a leaf's class probabilities.
+     */
+    public static ArvoreCompilada compilar(J48 arvore, Instances cabecalho) throws Exception {
+        // J48 não expõe a raiz: m_root é protegido
+        ClassifierTree raiz = (ClassifierTree) campo(J48.class, "m_root").get(arvore);
+        Field vazio = campo(ClassifierTree.class, "m_isEmpty");
+        int numeroClasses = cabecalho.numClasses();
+        String[] nomesDasClasses = new String[numeroClasses];
+        for (int c = 0; c < numeroClasses; c++) {
+            nomesDasClasses[c] = cabecalho.classAttribute().value(c);
+        }
+        // classProb só consulta a instância quando o subconjunto é desconhecido, o que não acontece aqui
+        Instance qualquer = new DenseInstance(cabecalho.numAttributes());
+        qualquer.setDataset(cabecalho);
+
+        // Percurso em largura: os filhos de cada nó ficam em posições consecutivas
+        List<ClassifierTree> arvores = new ArrayList<>();
+        List<ClassifierSplitModel> folhasVazias = new ArrayList<>();
+        List<Integer> subconjuntos = new ArrayList<>();
+        Deque<Integer> fila = new ArrayDeque<>();
+        arvores.add(raiz);
+        folhasVazias.add(null);
+        subconjuntos.add(-1);
+        fila.add(0);
+        List<int[]> filhos = new ArrayList<>();
+        while (!fila.isEmpty()) {
+            int no = fila.poll();
+            ClassifierTree atual = arvores.get(no);
+            if (atual == null || atual.isLeaf()) {
+                continue;
+            }
+            ClassifierTree[] sons = atual.getSons();
+            filhos.add(new int[] {no, arvores.size(), sons.length});
+            for (int s = 0; s < sons.length; s++) {
+                if (vazio.getBoolean(sons[s])) {
+                    // Folha vazia: a classe vem da distribuição do pai neste subconjunto
+                    arvores.add(null);
+                    folhasVazias.add(atual.getLocalModel());
+                    subconjuntos.add(s);
+                } else {
+                    arvores.add(sons[s]);
+                    folhasVazias.add(null);
+                    subconjuntos.add(-1);
+                    fila.add(arvores.size() - 1);
+                }
+            }
+        }
+
+        ArvoreCompilada compilada = new ArvoreCompilada(arvores.size(), nomesDasClasses, cabecalho.numAttributes());
+        for (int[] f : filhos) {
+            compilada.primeiroFilho[f[0]] = f[1];
+            compilada.numeroFilhos[f[0]] = f[2];
+        }
+        for (int no = 0; no < arvores.size(); no++) {
+            ClassifierTree atual = arvores.get(no);
+            if (atual != null && !atual.isLeaf()) {
+                if (!(atual.getLocalModel() instanceof C45Split)) {
+                    throw new IllegalArgumentException("Unsupported split: " + atual.getLocalModel().getClass().getName());
+                }
+                C45Split corte = (C45Split) atual.getLocalModel();
+                compilada.atributo[no] = corte.attIndex();
+                compilada.nominal[no] = cabecalho.attribute(corte.attIndex()).isNominal();
+                compilada.pontoDeCorte[no] = corte.splitPoint();
+                continue;
+            }
+            compilada.atributo[no] = FOLHA;
+            ClassifierSplitModel modelo = atual != null ? atual.getLocalModel() : folhasVazias.get(no);
+            int subconjunto = subconjuntos.get(no);
+            // Mesmo critério de ClassifierTree.classifyInstance: a primeira classe que supera a maior por Utils.gr
+            double maior = -1;
+            int escolhida = 0;
+            for (int c = 0; c < numeroClasses; c++) {
+                double probabilidade = modelo.classProb(c, qualquer, subconjunto);
+                if (Utils.gr(probabilidade, maior)) {
+                    escolhida = c;
+                    maior = probabilidade;
+                }
+            }
+            compilada.classe[no] = escolhida;
+        }
+        return compilada;
+    }
+
+    /**
+     * Classifies one instance.
+     *
+     * @param valores The attribute values, indexed like the training header (nominal values as
+     *                their index); the class slot is ignored.
+     * @return The index of the predicted class, or {@code -1} if a tested value is missing (NaN)
+     *         or is a nominal index the tree has no branch for.
+     */
+    public int classificar(double[] valores) {
+        int no = 0;
+        while (atributo[no] != FOLHA) {
+            double valor = valores[atributo[no]];
+            if (Double.isNaN(valor)) {
+                return -1;
+            }
+            int subconjunto = nominal[no] ? (int) valor : valor <= pontoDeCorte[no] ? 0 : 1;
+            if (subconjunto >= numeroFilhos[no]) {
+                return -1;
+            }
+            no = primeiroFilho[no] + subconjunto;
+        }
+        return classe[no];
+    }
+
+    /**
+     * Classifies every row of {@code valores} into {@code classes}.
+     *
+     * @param valores One row of attribute values per instance, as in {@link #classificar}.
+     * @param classes Receives the predicted class index (or {@code -1}) of each row.
+     */
+    public void classificar(double[][] valores, int[] classes) {
+        for (int i = 0; i < valores.length; i++) {
+            classes[i] = classificar(valores[i]);
+        }
+    }
+
+    /**
+     * @return The label of a class index returned by {@link #classificar}.
+     */
+    public String getNomeDaClasse(int classe) {
+        return nomesDasClasses[classe];
+    }
+
+    /**
+     * @return The number of attributes (including the class) a row of values must have.
+     */
+    public int getNumeroAtributos() {
+        return numeroAtributos;
+    }
+
+    /**
+     * @return The number of nodes, leaves included.
+     */
+    public int getNumeroNos() {
+        return atributo.length;
+    }
+
+    private static Field campo(Class<?> classe, String nome) throws NoSuchFieldException {
+        Field campo = classe.getDeclaredField(nome);
+        campo.setAccessible(true);
+        return campo;
+    }
+}
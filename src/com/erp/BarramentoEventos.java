@@ -0,0 +1,277 @@
+package com.erp;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process bus of domain events ({@link EventoDominio}).
+ * <p>
+ * Events are written into a preallocated ring buffer of {@code erp.eventBus.capacity}
+ * slots (default 1024, rounded up to a power of two), so publishing allocates nothing
+ * and never waits for subscribers unless the ring is full. Each subscriber runs on
+ * its own daemon thread and drains every event available in one batch, being told
+ * which event closes the batch so it can flush its work once (ex: one database
+ * transaction per batch). An idle subscriber spins briefly, then blocks until a
+ * publisher wakes it, so an idle bus costs no CPU.
+ * <p>
+ * Subscribers should be registered before events are published; a subscriber only
+ * receives events published after it was registered. {@link #encerrar()} (also run
+ * by a shutdown hook) waits until every published event has been consumed.
+ */
+public class BarramentoEventos {
+    private static final int CAPACIDADE = Integer.highestOneBit(Math.max(2, Integer.getInteger("erp.eventBus.capacity", 1024) * 2 - 1));
+    private static final int MASCARA = CAPACIDADE - 1;
+
+    private static final long ESPERA_OCIOSA_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    private static final int GIROS_ANTES_DE_DORMIR = 100;
+
+    private static final MetricsService.Counter PUBLICADOS = MetricsService.counter("eventos.publicados");
+    private static final MetricsService.Counter ESPERAS_BUFFER_CHEIO = MetricsService.counter("eventos.esperas.bufferCheio");
+    private static final MetricsService.Counter LOTES = MetricsService.counter("eventos.lotes");
+    private static final MetricsService.Counter ERROS_ASSINANTES = MetricsService.counter("eventos.erros");
+
+    /**
+     * Receives the events of the bus, in publication order, on the subscriber thread.
+     */
+    public interface Assinante {
+        /**
+         * @param evento The event; only valid until this call returns with {@code fimDoLote} true.
+         * @param fimDoLote Whether this is the last event currently available.
+         */
+        void aoReceber(EventoDominio evento, boolean fimDoLote);
+    }
+
+    private static final EventoDominio[] slots = new EventoDominio[CAPACIDADE];
+    static {
+        for (int i = 0; i < CAPACIDADE; i++) {
+            slots[i] = new EventoDominio();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(BarramentoEventos::encerrar, "erp-eventos-encerramento"));
+    }
+
+    // Próxima sequência a ser reservada por um publicador
+    private static final AtomicLong proximaSequencia = new AtomicLong();
+    private static final List<Consumidor> consumidores = new CopyOnWriteArrayList<>();
+    private static volatile boolean ativo = true;
+
+    /**
+     * A subscriber thread and how far it has consumed the ring.
+     */
+    private static final class Consumidor implements Runnable {
+        final String nome;
+        final Assinante assinante;
+        final Thread thread;
+        volatile long consumido;
+        // Indica aos publicadores que a thread está (ou vai ficar) bloqueada à espera de eventos
+        volatile boolean esperando;
+
+        Consumidor(String nome, Assinante assinante, long consumido) {
+            this.nome = nome;
+            this.assinante = assinante;
+            this.consumido = consumido;
+            this.thread = new Thread(this, "erp-eventos-" + nome);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int ociosidade = 0;
+            while (true) {
+                long proxima = consumido + 1;
+                long ultima = proxima - 1;
+                // Descobre até onde há eventos publicados em sequência
+                while (ultima - consumido < CAPACIDADE && slots[(int) ((ultima + 1) & MASCARA)].sequencia == ultima + 1) {
+                    ultima++;
+                }
+
+                if (ultima < proxima) {
+                    if (!ativo) {
+                        return;
+                    }
+                    if (ociosidade++ < GIROS_ANTES_DE_DORMIR) {
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    esperando = true;
+                    // Confere de novo depois de anunciar a espera: quem publicou antes do anúncio não acorda ninguém
+                    if (ativo && slots[(int) (proxima & MASCARA)].sequencia != proxima) {
+                        LockSupport.park(this);
+                    }
+                    esperando = false;
+                    continue;
+                }
+
+                ociosidade = 0;
+                LOTES.increment();
+                for (long seq = proxima; seq <= ultima; seq++) {
+                    try {
+                        assinante.aoReceber(slots[(int) (seq & MASCARA)], seq == ultima);
+                    } catch (RuntimeException e) {
+                        ERROS_ASSINANTES.increment();
+                        System.err.println(LanguageService.getFormattedString("error.event.subscriber", nome, e.getMessage()));
+                    }
+                }
+                // Libera os slots do lote para reuso pelos publicadores
+                consumido = ultima;
+            }
+        }
+    }
+
+    /**
+     * Registers a subscriber, starting its thread.
+     *
+     * @param nome A short name, used for the thread and in error messages.
+     * @param assinante The subscriber.
+     */
+    public static synchronized void assinar(String nome, Assinante assinante) {
+        Consumidor consumidor = new Consumidor(nome, assinante, proximaSequencia.get() - 1);
+        consumidores.add(consumidor);
+        consumidor.thread.start();
+    }
+
+    /**
+     * Publishes a change of the stock of a product in a location.
+     *
+     * @param produtoId The product.
+     * @param localId The location (see {@link EstoqueLocais}).
+     * @param variacao The signed change in units.
+     * @param estoqueResultante The stock of the location after the change.
+     */
+    public static void publicarEstoqueAlterado(String produtoId, String localId, int variacao, int estoqueResultante) {
+        long seq = reservar();
+        EventoDominio evento = slots[(int) (seq & MASCARA)];
+        evento.limpar();
+        evento.tipo = EventoDominio.Tipo.ESTOQUE_ALTERADO;
+        evento.produtoId = produtoId;
+        evento.localId = localId;
+        evento.quantidade = variacao;
+        evento.estoqueResultante = estoqueResultante;
+        publicar(evento, seq);
+    }
+
+    /**
+     * Publishes a committed sale.
+     *
+     * @param logGravado Whether its {@code Logs} row is written with the operation (see {@link EventoDominio#isLogGravado}).
+     */
+    public static void publicarVenda(String produtoId, String pessoaId, String tituloId, int quantidade, double valorTotal,
+                                     boolean logGravado) {
+        publicarMovimento(EventoDominio.Tipo.VENDA_REGISTRADA, produtoId, pessoaId, tituloId, quantidade, valorTotal, logGravado);
+    }
+
+    /**
+     * Publishes a committed purchase.
+     *
+     * @param logGravado Whether its {@code Logs} row is written with the operation (see {@link EventoDominio#isLogGravado}).
+     */
+    public static void publicarCompra(String produtoId, String pessoaId, String tituloId, int quantidade, double valorTotal,
+                                      boolean logGravado) {
+        publicarMovimento(EventoDominio.Tipo.COMPRA_REGISTRADA, produtoId, pessoaId, tituloId, quantidade, valorTotal, logGravado);
+    }
+
+    /**
+     * Publishes the settlement of a title.
+     *
+     * @param titulo The title, already marked as paid.
+     */
+    public static void publicarTituloPago(Titulo titulo) {
+        long seq = reservar();
+        EventoDominio evento = slots[(int) (seq & MASCARA)];
+        evento.limpar();
+        evento.tipo = EventoDominio.Tipo.TITULO_PAGO;
+        evento.pessoaId = titulo.getPessoaId();
+        evento.tituloId = titulo.getId();
+        evento.tipoTitulo = titulo.getTipoTitulo();
+        evento.quantidade = titulo.getQuantidade();
+        evento.valor = titulo.getValorTotal();
+        publicar(evento, seq);
+    }
+
+    /**
+     * Waits until every subscriber has consumed every event published so far (ex: so
+     * the log rows of the operations already made are in the database).
+     */
+    public static void aguardarConsumo() {
+        long ultimaPublicada = proximaSequencia.get() - 1;
+        for (Consumidor consumidor : consumidores) {
+            while (consumidor.consumido < ultimaPublicada && consumidor.thread.isAlive()) {
+                LockSupport.parkNanos(ESPERA_OCIOSA_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Waits until every subscriber has consumed every published event, then stops
+     * the subscriber threads. Safe to call more than once.
+     */
+    public static void encerrar() {
+        aguardarConsumo();
+        ativo = false;
+        for (Consumidor consumidor : consumidores) {
+            LockSupport.unpark(consumidor.thread);
+        }
+        for (Consumidor consumidor : consumidores) {
+            try {
+                consumidor.thread.join(TimeUnit.SECONDS.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static void publicarMovimento(EventoDominio.Tipo tipo, String produtoId, String pessoaId, String tituloId,
+                                          int quantidade, double valorTotal, boolean logGravado) {
+        long seq = reservar();
+        EventoDominio evento = slots[(int) (seq & MASCARA)];
+        evento.limpar();
+        evento.tipo = tipo;
+        evento.produtoId = produtoId;
+        evento.pessoaId = pessoaId;
+        evento.tituloId = tituloId;
+        evento.quantidade = quantidade;
+        evento.valor = valorTotal;
+        evento.logGravado = logGravado;
+        publicar(evento, seq);
+    }
+
+    /**
+     * Claims the next sequence, waiting while its slot is still being read by a subscriber.
+     */
+    private static long reservar() {
+        long seq = proximaSequencia.getAndIncrement();
+        long ocupado = seq - CAPACIDADE;
+        if (ocupado >= menorConsumido()) {
+            ESPERAS_BUFFER_CHEIO.increment();
+            while (ocupado >= menorConsumido()) {
+                LockSupport.parkNanos(ESPERA_OCIOSA_NANOS);
+            }
+        }
+        return seq;
+    }
+
+    private static void publicar(EventoDominio evento, long seq) {
+        evento.instante = System.currentTimeMillis();
+        // Escrita volátil: torna todos os campos acima visíveis aos assinantes
+        evento.sequencia = seq;
+        PUBLICADOS.increment();
+        for (Consumidor consumidor : consumidores) {
+            if (consumidor.esperando) {
+                LockSupport.unpark(consumidor.thread);
+            }
+        }
+    }
+
+    private static long menorConsumido() {
+        long menor = Long.MAX_VALUE;
+        for (Consumidor consumidor : consumidores) {
+            if (consumidor.thread.isAlive()) {
+                menor = Math.min(menor, consumidor.consumido);
+            }
+        }
+        return menor;
+    }
+}
@@ -0,0 +1,362 @@
+package com.erp;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory full-text index of the products, over {@code nome} and {@code categoria}.
+ * <p>
+ * Text is normalized (lower case, no accents) and split into words. Each distinct
+ * word keeps the list of products that contain it, in a sorted map, so a query word
+ * matches every indexed word it is a prefix of with a single range scan. For typos,
+ * the vocabulary is also indexed by trigrams: words sharing enough trigrams with the
+ * query word (Dice coefficient of at least {@code erp.search.fuzzy}, default 0.5)
+ * also match, with a lower score. Only the vocabulary is scanned by trigram, never the
+ * products, so a query costs about the same on a thousand or a million products.
+ * <p>
+ * Results are ranked by the number of query words matched, then by score (exact word
+ * over prefix over fuzzy; name over category). The index is updated whenever a
+ * product is loaded, added or changed.
+ */
+public class BuscaProdutos {
+    private static final double LIMIAR_APROXIMADO = Double.parseDouble(System.getProperty("erp.search.fuzzy", "0.5"));
+
+    private static final double PESO_EXATO = 3.0;
+    private static final double PESO_PREFIXO = 2.0;
+    // Palavras da categoria valem menos do que as do nome
+    private static final double PESO_CATEGORIA = 0.5;
+
+    private static final Pattern ACENTOS = Pattern.compile("\\p{M}+");
+
+    private static final MetricsService.Timer TEMPO_BUSCA = MetricsService.timer("busca.produtos");
+
+    /**
+     * Growable list of ints, to keep postings compact on large catalogs.
+     */
+    private static final class ListaInt {
+        int[] valores = new int[2];
+        int tamanho;
+
+        void add(int valor) {
+            if (tamanho == valores.length) {
+                valores = Arrays.copyOf(valores, tamanho * 2);
+            }
+            valores[tamanho++] = valor;
+        }
+    }
+
+    /**
+     * A distinct word of the catalog and the products that contain it.
+     */
+    private static final class Palavra {
+        final int id;
+        final String texto;
+        final int trigramas;
+        final ListaInt noNome = new ListaInt();
+        final ListaInt naCategoria = new ListaInt();
+
+        Palavra(int id, String texto, int trigramas) {
+            this.id = id;
+            this.texto = texto;
+            this.trigramas = trigramas;
+        }
+    }
+
+    /**
+     * A search hit.
+     */
+    public static final class Resultado {
+        private final Produto produto;
+        private final int palavrasEncontradas;
+        private final double pontuacao;
+
+        Resultado(Produto produto, int palavrasEncontradas, double pontuacao) {
+            this.produto = produto;
+            this.palavrasEncontradas = palavrasEncontradas;
+            this.pontuacao = pontuacao;
+        }
+
+        public Produto getProduto() {
+            return produto;
+        }
+
+        public int getPalavrasEncontradas() {
+            return palavrasEncontradas;
+        }
+
+        public double getPontuacao() {
+            return pontuacao;
+        }
+    }
+
+    // Produtos indexados, pela posição; null quando a versão foi substituída
+    private final List<Produto> documentos = new ArrayList<>();
+    private final Map<String, Integer> documentoPorId = new HashMap<>();
+    // Mesmas palavras em dois mapas: o ordenado atende os prefixos, o hash a indexação
+    private final NavigableMap<String, Palavra> palavras = new TreeMap<>();
+    private final Map<String, Palavra> palavrasPorTexto = new HashMap<>();
+    private final List<Palavra> vocabulario = new ArrayList<>();
+    private final Map<String, ListaInt> palavrasPorTrigrama = new HashMap<>();
+
+    // Acumuladores por produto reaproveitados entre buscas; só as posições tocadas são zeradas
+    private int[] encontradas = new int[0];
+    private double[] pontuacoes = new double[0];
+    private double[] melhorNoTermo = new double[0];
+
+    /**
+     * Rebuilds the index from the given products.
+     */
+    public synchronized void recarregar(Collection<Produto> produtos) {
+        documentos.clear();
+        documentoPorId.clear();
+        palavras.clear();
+        palavrasPorTexto.clear();
+        vocabulario.clear();
+        palavrasPorTrigrama.clear();
+        for (Produto produto : produtos) {
+            indexar(produto);
+        }
+    }
+
+    /**
+     * Adds a product to the index, replacing the previous version of a product with
+     * the same ID. Must be called after every insert or update of a product.
+     */
+    public synchronized void indexar(Produto produto) {
+        Integer anterior = documentoPorId.get(produto.getId());
+        if (anterior != null) {
+            // A versão anterior continua nas listas, mas é descartada nas buscas
+            documentos.set(anterior, null);
+        }
+        int documento = documentos.size();
+        documentos.add(produto);
+        documentoPorId.put(produto.getId(), documento);
+
+        for (String texto : palavrasDe(produto.getNome())) {
+            adicionarUnico(palavra(texto).noNome, documento);
+        }
+        for (String texto : palavrasDe(produto.getCategoria())) {
+            adicionarUnico(palavra(texto).naCategoria, documento);
+        }
+    }
+
+    /**
+     * @return The product with exactly this ID, or {@code null}.
+     */
+    public synchronized Produto porId(String id) {
+        Integer documento = documentoPorId.get(id);
+        return documento == null ? null : documentos.get(documento);
+    }
+
+    /**
+     * Searches the products by name and category.
+     *
+     * @param consulta The text typed by the user.
+     * @param limite Maximum number of results.
+     * @return The best matches, best first.
+     */
+    public synchronized List<Resultado> buscar(String consulta, int limite) {
+        long inicio = System.nanoTime();
+        try {
+            List<String> termos = palavrasDe(consulta);
+            if (termos.isEmpty() || documentos.isEmpty()) {
+                return new ArrayList<>();
+            }
+
+            int total = documentos.size();
+            if (encontradas.length < total) {
+                encontradas = new int[total];
+                pontuacoes = new double[total];
+                melhorNoTermo = new double[total];
+            }
+            int[] encontradas = this.encontradas;
+            double[] pontuacoes = this.pontuacoes;
+            ListaInt candidatos = new ListaInt();
+
+            for (String termo : termos) {
+                // Melhor pontuação de cada produto para este termo
+                ListaInt tocados = new ListaInt();
+                for (Map.Entry<Palavra, Double> casamento : casarPalavras(termo).entrySet()) {
+                    Palavra palavra = casamento.getKey();
+                    double peso = casamento.getValue();
+                    pontuar(melhorNoTermo, tocados, palavra.noNome, peso);
+                    pontuar(melhorNoTermo, tocados, palavra.naCategoria, peso * PESO_CATEGORIA);
+                }
+                for (int i = 0; i < tocados.tamanho; i++) {
+                    int documento = tocados.valores[i];
+                    if (encontradas[documento] == 0) {
+                        candidatos.add(documento);
+                    }
+                    encontradas[documento]++;
+                    pontuacoes[documento] += melhorNoTermo[documento];
+                    melhorNoTermo[documento] = 0.0;
+                }
+            }
+
+            Comparator<Integer> ordem = (a, b) -> encontradas[a] != encontradas[b]
+                ? Integer.compare(encontradas[a], encontradas[b])
+                : Double.compare(pontuacoes[a], pontuacoes[b]);
+            // Seleção dos melhores sem ordenar todos os candidatos: o pior dos escolhidos fica no topo
+            PriorityQueue<Integer> melhores = new PriorityQueue<>(limite + 1, ordem);
+            for (int i = 0; i < candidatos.tamanho; i++) {
+                int documento = candidatos.valores[i];
+                if (melhores.size() == limite && ordem.compare(documento, melhores.peek()) <= 0) {
+                    continue;
+                }
+                melhores.add(documento);
+                if (melhores.size() > limite) {
+                    melhores.poll();
+                }
+            }
+
+            List<Resultado> resultados = new ArrayList<>(melhores.size());
+            while (!melhores.isEmpty()) {
+                int documento = melhores.poll();
+                resultados.add(new Resultado(documentos.get(documento), encontradas[documento], pontuacoes[documento]));
+            }
+            Collections.reverse(resultados);
+
+            for (int i = 0; i < candidatos.tamanho; i++) {
+                encontradas[candidatos.valores[i]] = 0;
+                pontuacoes[candidatos.valores[i]] = 0.0;
+            }
+            return resultados;
+        } finally {
+            TEMPO_BUSCA.recordSince(inicio);
+        }
+    }
+
+    /**
+     * Finds the indexed words matching a query word and their weights: exact,
+     * prefix (range scan of the sorted vocabulary) or approximate (shared trigrams).
+     */
+    private Map<Palavra, Double> casarPalavras(String termo) {
+        Map<Palavra, Double> casamentos = new HashMap<>();
+        for (Palavra palavra : palavras.subMap(termo, true, termo + Character.MAX_VALUE, false).values()) {
+            casamentos.put(palavra, palavra.texto.equals(termo) ? PESO_EXATO : PESO_PREFIXO);
+        }
+
+        List<String> trigramasTermo = trigramas(termo);
+        int[] compartilhados = new int[vocabulario.size()];
+        List<Integer> tocadas = new ArrayList<>();
+        for (String trigrama : trigramasTermo) {
+            ListaInt lista = palavrasPorTrigrama.get(trigrama);
+            if (lista == null) {
+                continue;
+            }
+            for (int i = 0; i < lista.tamanho; i++) {
+                int id = lista.valores[i];
+                if (compartilhados[id]++ == 0) {
+                    tocadas.add(id);
+                }
+            }
+        }
+        for (int id : tocadas) {
+            Palavra palavra = vocabulario.get(id);
+            double dice = 2.0 * compartilhados[id] / (trigramasTermo.size() + palavra.trigramas);
+            if (dice >= LIMIAR_APROXIMADO) {
+                // Abaixo do prefixo: no máximo PESO_PREFIXO quando as palavras quase coincidem
+                casamentos.merge(palavra, PESO_PREFIXO * dice * 0.9, Math::max);
+            }
+        }
+        return casamentos;
+    }
+
+    private void pontuar(double[] melhorNoTermo, ListaInt tocados, ListaInt lista, double peso) {
+        for (int i = 0; i < lista.tamanho; i++) {
+            int documento = lista.valores[i];
+            if (documentos.get(documento) == null) {
+                continue;
+            }
+            if (melhorNoTermo[documento] == 0.0) {
+                tocados.add(documento);
+            }
+            melhorNoTermo[documento] = Math.max(melhorNoTermo[documento], peso);
+        }
+    }
+
+    private Palavra palavra(String texto) {
+        Palavra palavra = palavrasPorTexto.get(texto);
+        if (palavra == null) {
+            List<String> trigramasPalavra = trigramas(texto);
+            palavra = new Palavra(vocabulario.size(), texto, trigramasPalavra.size());
+            palavras.put(texto, palavra);
+            palavrasPorTexto.put(texto, palavra);
+            vocabulario.add(palavra);
+            for (String trigrama : trigramasPalavra) {
+                palavrasPorTrigrama.computeIfAbsent(trigrama, _ -> new ListaInt()).add(palavra.id);
+            }
+        }
+        return palavra;
+    }
+
+    private static void adicionarUnico(ListaInt lista, int documento) {
+        // Os documentos são indexados em ordem crescente: basta olhar o último
+        if (lista.tamanho == 0 || lista.valores[lista.tamanho - 1] != documento) {
+            lista.add(documento);
+        }
+    }
+
+    /**
+     * @return The text in lower case and without accents.
+     */
+    static String normalizar(String texto) {
+        String normalizado = texto.toLowerCase();
+        for (int i = 0; i < normalizado.length(); i++) {
+            if (normalizado.charAt(i) > 0x7F) {
+                // Só textos com acentos pagam pela decomposição Unicode
+                return ACENTOS.matcher(Normalizer.normalize(normalizado, Normalizer.Form.NFD)).replaceAll("");
+            }
+        }
+        return normalizado;
+    }
+
+    /**
+     * Lower case, accent-free words of a text.
+     */
+    static List<String> palavrasDe(String texto) {
+        List<String> resultado = new ArrayList<>();
+        if (texto == null) {
+            return resultado;
+        }
+        String normalizado = normalizar(texto);
+
+        int inicio = -1;
+        for (int i = 0; i <= normalizado.length(); i++) {
+            boolean letra = i < normalizado.length() && Character.isLetterOrDigit(normalizado.charAt(i));
+            if (letra && inicio < 0) {
+                inicio = i;
+            } else if (!letra && inicio >= 0) {
+                resultado.add(normalizado.substring(inicio, i));
+                inicio = -1;
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Distinct trigrams of a word, padded so that short words and word starts count.
+     */
+    private static List<String> trigramas(String palavra) {
+        String texto = "  " + palavra + " ";
+        List<String> resultado = new ArrayList<>(texto.length());
+        for (int i = 0; i + 3 <= texto.length(); i++) {
+            String trigrama = texto.substring(i, i + 3);
+            if (!resultado.contains(trigrama)) {
+                resultado.add(trigrama);
+            }
+        }
+        return resultado;
+    }
+}
@@ -0,0 +1,295 @@
+package com.erp;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.classifiers.bayes.NaiveBayesUpdateable;
+import weka.classifiers.trees.HoeffdingTree;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.core.Utils;
+
+/**
+ * Online product category classifier, updated with every product saved with a category.
+ * <p>
+ * Enabled with {@code -Derp.category.online=true}. While enabled, {@link Estoque#addProduto}
+ * takes its category suggestion from this model (falling back to the J48 model while it is not
+ * ready) and, once the product is saved, feeds the confirmed category back with
+ * {@link #aprender}. The learner is an updateable Weka classifier chosen by
+ * {@code erp.category.online.algorithm}: {@code NaiveBayesUpdateable} (default) or
+ * {@code HoeffdingTree}. It uses the same features as the J48 model: the sale price and the
+ * keywords of the name.
+ * <p>
+ * Updates run on a background thread, so saving a product never waits for the model. The model
+ * is checkpointed to {@code model/categoria_online.model} every
+ * {@code erp.category.online.checkpointEvery} examples (default 50) and on shutdown, writing a
+ * temporary file and renaming it over the previous checkpoint. On startup the checkpoint is
+ * loaded; without one (or if it was written by another algorithm) the model is built once from
+ * the products table. A category the model has never seen cannot be added to a Weka class
+ * attribute, so it also rebuilds the model from the products table; that is the only time the
+ * whole catalog is read again.
+ */
+public class ClassificadorOnline {
+    private static final boolean ATIVO = Boolean.getBoolean("erp.category.online");
+    private static final String ALGORITMO = System.getProperty("erp.category.online.algorithm", "NaiveBayesUpdateable");
+    private static final int INTERVALO_CHECKPOINT = Integer.getInteger("erp.category.online.checkpointEvery", 50);
+
+    private static final String ARQUIVO = "model/categoria_online.model";
+
+    private static final MetricsService.Timer TEMPO_APRENDER = MetricsService.timer("categoriaOnline.aprender");
+    private static final MetricsService.Timer TEMPO_SUGERIR = MetricsService.timer("categoriaOnline.sugerir");
+    private static final MetricsService.Timer TEMPO_CHECKPOINT = MetricsService.timer("categoriaOnline.checkpoint");
+    private static final MetricsService.Counter EXEMPLOS = MetricsService.counter("categoriaOnline.exemplos");
+
+    // Uma única thread: as atualizações são aplicadas na ordem em que os produtos foram gravados
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(tarefa -> {
+        Thread thread = new Thread(tarefa, "erp-categoria-online");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Modelo e cabeçalho só são trocados ou atualizados com a trava
+    private static final Object trava = new Object();
+    private static Classifier modelo;
+    private static Instances cabecalho;
+    private static int exemplosDesdeCheckpoint;
+    private static boolean iniciado;
+
+    private ClassificadorOnline() {
+    }
+
+    /**
+     * Loads the checkpoint, or builds the model from the products table, in the background.
+     * Does nothing when disabled or already started.
+     */
+    public static synchronized void iniciar() {
+        if (!ATIVO || iniciado) {
+            return;
+        }
+        iniciado = true;
+        executor.submit(() -> {
+            if (!carregarCheckpoint()) {
+                reconstruir();
+            }
+        });
+    }
+
+    /**
+     * Suggests a category for a new product.
+     *
+     * @param nome The product name.
+     * @param precoVenda The sale price.
+     * @return The suggested category, or {@code null} if disabled or the model is not ready yet.
+     */
+    public static String sugerir(String nome, double precoVenda) {
+        if (!ATIVO) {
+            return null;
+        }
+        long inicio = System.nanoTime();
+        synchronized (trava) {
+            if (modelo == null || cabecalho.numClasses() == 0) {
+                return null;
+            }
+            try {
+                double classe = modelo.classifyInstance(criarInstancia(cabecalho, nome, precoVenda, null));
+                return cabecalho.classAttribute().value((int) classe);
+            } catch (Exception e) {
+                System.err.println(LanguageService.getFormattedString("error.category.online.predict", e.getMessage()));
+                return null;
+            } finally {
+                TEMPO_SUGERIR.recordSince(inicio);
+            }
+        }
+    }
+
+    /**
+     * Queues a saved product as a new labeled example.
+     *
+     * @param produto The product, with the category that was confirmed when it was saved.
+     */
+    public static void aprender(Produto produto) {
+        if (!ATIVO || produto.getCategoria() == null || produto.getCategoria().isBlank()) {
+            return;
+        }
+        executor.submit(() -> atualizar(produto));
+    }
+
+    /**
+     * Applies the pending updates and writes a final checkpoint. Safe to call more than once.
+     */
+    public static void encerrar() {
+        if (!ATIVO) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (trava) {
+            if (exemplosDesdeCheckpoint > 0) {
+                gravarCheckpoint();
+            }
+        }
+    }
+
+    private static void atualizar(Produto produto) {
+        long inicio = System.nanoTime();
+        boolean categoriaNova;
+        synchronized (trava) {
+            categoriaNova = modelo == null || cabecalho.classAttribute().indexOfValue(produto.getCategoria()) < 0;
+        }
+        if (categoriaNova) {
+            // O atributo de classe do Weka é fixo: o modelo é refeito com a categoria, já gravada no banco
+            reconstruir();
+            return;
+        }
+        synchronized (trava) {
+            try {
+                ((UpdateableClassifier) modelo).updateClassifier(
+                    criarInstancia(cabecalho, produto.getNome(), produto.getPrecoVenda(), produto.getCategoria()));
+            } catch (Exception e) {
+                System.err.println(LanguageService.getFormattedString("error.category.online.train", e.getMessage()));
+                return;
+            } finally {
+                TEMPO_APRENDER.recordSince(inicio);
+            }
+            EXEMPLOS.increment();
+            if (++exemplosDesdeCheckpoint >= INTERVALO_CHECKPOINT) {
+                gravarCheckpoint();
+            }
+        }
+    }
+
+    /**
+     * Builds the model from every product in the database, with one pass of updates.
+     */
+    private static void reconstruir() {
+        List<Produto> produtos = new ArrayList<>();
+        try (Connection conn = DbManager.connect();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT id, nome, precoCompra, precoVenda, quantidade, categoria FROM Produtos");
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                produtos.add(new Produto(rs.getString(1), rs.getString(2), rs.getDouble(3), rs.getDouble(4), rs.getInt(5), rs.getString(6)));
+            }
+        } catch (SQLException e) {
+            System.err.println(LanguageService.getFormattedString("error.category.online.train", e.getMessage()));
+            return;
+        }
+
+        TreeSet<String> categorias = new TreeSet<>();
+        for (Produto produto : produtos) {
+            if (produto.getCategoria() != null && !produto.getCategoria().isBlank()) {
+                categorias.add(produto.getCategoria());
+            }
+        }
+        Instances novoCabecalho = criarCabecalho(new ArrayList<>(categorias));
+        Classifier novoModelo = criarModelo();
+        try {
+            novoModelo.buildClassifier(novoCabecalho);
+            for (Produto produto : produtos) {
+                if (categorias.contains(produto.getCategoria())) {
+                    ((UpdateableClassifier) novoModelo).updateClassifier(
+                        criarInstancia(novoCabecalho, produto.getNome(), produto.getPrecoVenda(), produto.getCategoria()));
+                }
+            }
+        } catch (Exception e) {
+            System.err.println(LanguageService.getFormattedString("error.category.online.train", e.getMessage()));
+            return;
+        }
+        synchronized (trava) {
+            modelo = novoModelo;
+            cabecalho = novoCabecalho;
+            gravarCheckpoint();
+        }
+    }
+
+    private static boolean carregarCheckpoint() {
+        if (!new File(ARQUIVO).isFile()) {
+            return false;
+        }
+        try {
+            Object[] lidos = SerializationHelper.readAll(ARQUIVO);
+            Classifier lido = (Classifier) lidos[0];
+            // Trocar de algoritmo descarta o checkpoint anterior
+            if (lido.getClass() != criarModelo().getClass()) {
+                return false;
+            }
+            synchronized (trava) {
+                modelo = lido;
+                cabecalho = (Instances) lidos[1];
+            }
+            return true;
+        } catch (Exception e) {
+            System.err.println(LanguageService.getFormattedString("error.category.online.load", e.getMessage()));
+            return false;
+        }
+    }
+
+    /**
+     * Writes the model next to the checkpoint and renames it over the previous one, so a crash
+     * in the middle of the write leaves the previous checkpoint intact. Called with the lock held.
+     */
+    private static void gravarCheckpoint() {
+        long inicio = System.nanoTime();
+        try {
+            new File(ARQUIVO).getParentFile().mkdirs();
+            String temporario = ARQUIVO + ".tmp";
+            SerializationHelper.writeAll(temporario, new Object[] {modelo, cabecalho});
+            Files.move(Path.of(temporario), Path.of(ARQUIVO), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            exemplosDesdeCheckpoint = 0;
+        } catch (Exception e) {
+            System.err.println(LanguageService.getFormattedString("error.category.online.checkpoint", e.getMessage()));
+        } finally {
+            TEMPO_CHECKPOINT.recordSince(inicio);
+        }
+    }
+
+    private static Classifier criarModelo() {
+        return ALGORITMO.toLowerCase(Locale.ROOT).equals("hoeffdingtree") ? new HoeffdingTree() : new NaiveBayesUpdateable();
+    }
+
+    private static Instances criarCabecalho(List<String> categorias) {
+        ArrayList<Attribute> atributos = new ArrayList<>();
+        atributos.add(new Attribute("precoVenda"));
+        for (String palavra : AnalisePreditiva.PALAVRAS_CHAVE_CATEGORIA) {
+            atributos.add(new Attribute("tem_palavra_" + palavra));
+        }
+        atributos.add(new Attribute("categoria", categorias));
+        Instances dados = new Instances("produtos_erp_online", atributos, 0);
+        dados.setClassIndex(atributos.size() - 1);
+        return dados;
+    }
+
+    private static Instance criarInstancia(Instances dados, String nome, double precoVenda, String categoria) {
+        String nomeLower = nome.toLowerCase();
+        double[] valores = new double[dados.numAttributes()];
+        valores[0] = precoVenda;
+        for (int i = 0; i < AnalisePreditiva.PALAVRAS_CHAVE_CATEGORIA.length; i++) {
+            valores[i + 1] = nomeLower.contains(AnalisePreditiva.PALAVRAS_CHAVE_CATEGORIA[i]) ? 1.0 : 0.0;
+        }
+        valores[dados.classIndex()] = categoria == null ? Utils.missingValue() : dados.classAttribute().indexOfValue(categoria);
+        Instance instancia = new DenseInstance(1.0, valores);
+        instancia.setDataset(dados);
+        return instancia;
+    }
+}
@@ -0,0 +1,412 @@
+package com.erp;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Reconciliation of the stock with the {@code Logs} history.
+ * <p>
+ * Every purchase and sale is also written to {@code Logs}, so the stock of a product
+ * can be rebuilt as its initial stock plus purchases minus sales. This class folds the
+ * history per product and compares the result with the stock in the database
+ * ({@code Produtos} plus {@code EstoqueLocal}: transfers between locations do not
+ * change the total) and with the in-memory model, then reports the drift and
+ * optionally repairs it.
+ * <p>
+ * The fold is incremental: the per-product totals and the last log ID folded are kept
+ * in {@code ConciliacaoEstoque} and {@code ConciliacaoCheckpoint}, so a run only reads
+ * the rows written since the previous one. The hot table and every archive partition
+ * ({@link ArquivoLogs}) are folded in parallel, each on its own connection, and the
+ * partial totals are merged.
+ * <p>
+ * The initial stock of a product is recorded when it is added. Products that already
+ * existed get, on their first run, the baseline that makes the database agree with
+ * their history; they are counted apart in the report.
+ */
+public class Conciliacao {
+    private static final MetricsService.Timer TEMPO_CONCILIACAO = MetricsService.timer("conciliacao.executar");
+    private static final MetricsService.Counter DIVERGENCIAS = MetricsService.counter("conciliacao.divergencias");
+
+    /**
+     * Log rows folded from one or more tables, per product.
+     */
+    private static final class Parcial {
+        final Map<String, Long> saldos = new HashMap<>();
+        long linhas;
+
+        void juntar(Parcial outra) {
+            outra.saldos.forEach((produtoId, saldo) -> saldos.merge(produtoId, saldo, Long::sum));
+            linhas += outra.linhas;
+        }
+    }
+
+    /**
+     * The stock of one product as seen by each source.
+     */
+    private static final class Linha {
+        final String produtoId;
+        long saldoInicial;
+        final long saldoLogs;
+        final Integer banco;
+        final Integer memoria;
+        final boolean novaBase;
+        boolean alterada;
+
+        Linha(String produtoId, long saldoInicial, long saldoLogs, Integer banco, Integer memoria,
+              boolean novaBase, boolean alterada) {
+            this.produtoId = produtoId;
+            this.saldoInicial = saldoInicial;
+            this.saldoLogs = saldoLogs;
+            this.banco = banco;
+            this.memoria = memoria;
+            this.novaBase = novaBase;
+            this.alterada = alterada;
+        }
+
+        long esperado() {
+            return saldoInicial + saldoLogs;
+        }
+
+        boolean divergeDoBanco() {
+            return banco == null || banco != esperado();
+        }
+
+        boolean divergente() {
+            return divergeDoBanco() || (memoria != null && !memoria.equals(banco));
+        }
+    }
+
+    /**
+     * Creates the reconciliation tables. Called once by {@link DbManager#initializeDatabase()}.
+     *
+     * @param stmt An open statement on the database.
+     * @throws SQLException if the tables cannot be created.
+     */
+    static void inicializar(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS ConciliacaoEstoque ("
+                   + " produtoId TEXT PRIMARY KEY,"
+                   + " saldoInicial INTEGER NOT NULL,"
+                   + " saldoLogs INTEGER NOT NULL"
+                   + ");");
+        stmt.execute("CREATE TABLE IF NOT EXISTS ConciliacaoCheckpoint ("
+                   + " id INTEGER PRIMARY KEY CHECK (id = 1),"
+                   + " ultimoLogId INTEGER NOT NULL,"
+                   + " executadoEm TEXT NOT NULL"
+                   + ");");
+    }
+
+    /**
+     * Records the initial stock of a new product, which has no log row.
+     *
+     * @param conn An open connection.
+     * @throws SQLException if the row cannot be written.
+     */
+    static void registrarSaldoInicial(Connection conn, String produtoId, int quantidade) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT OR IGNORE INTO ConciliacaoEstoque(produtoId, saldoInicial, saldoLogs) VALUES(?, ?, 0)")) {
+            pstmt.setString(1, produtoId);
+            pstmt.setInt(2, quantidade);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Folds the new log rows, prints the products whose stock drifted and asks how to
+     * repair them.
+     *
+     * @param scanner The Scanner instance to read user input.
+     * @param produtos Every product currently loaded in memory.
+     * @param locais The in-memory stock per location.
+     */
+    public static void executar(Scanner scanner, List<Produto> produtos, EstoqueLocais locais) {
+        // Os logs das operações já feitas precisam estar no banco antes da leitura
+        DiarioEscrita.aguardarAplicacao();
+        BarramentoEventos.aguardarConsumo();
+
+        long inicio = System.nanoTime();
+        Map<String, Produto> emMemoria = produtos.stream().collect(Collectors.toMap(Produto::getId, p -> p, (a, _) -> a));
+        List<Linha> linhas;
+        Parcial novas;
+        long checkpoint;
+        long limite;
+        int quantidadeTabelas;
+        // Limite e estoque vêm do mesmo snapshot: o estoque lido corresponde exatamente aos logs até o limite
+        try (Connection conn = DbManager.abrirSnapshot()) {
+            checkpoint = lerCheckpoint(conn);
+            limite = ultimoLogId(conn);
+            List<String> tabelas = ArquivoLogs.tabelas(conn);
+            quantidadeTabelas = tabelas.size();
+
+            // Cada tabela é somada na própria conexão; os parciais são juntados no fim
+            novas = tabelas.parallelStream()
+                .map(tabela -> dobrar(tabela, checkpoint, limite))
+                .collect(Parcial::new, Parcial::juntar, Parcial::juntar);
+
+            Map<String, long[]> salvos = lerSalvos(conn);
+            Map<String, Integer> bancos = lerEstoqueDoBanco(conn);
+
+            Set<String> ids = new HashSet<>(bancos.keySet());
+            ids.addAll(novas.saldos.keySet());
+            ids.addAll(salvos.keySet());
+            linhas = ids.parallelStream()
+                .map(id -> comparar(id, salvos.get(id), novas.saldos.getOrDefault(id, 0L), bancos.get(id),
+                                    emMemoria.get(id), locais))
+                .sorted(Comparator.comparing(linha -> linha.produtoId))
+                .collect(Collectors.toList());
+        } catch (SQLException | RuntimeException e) {
+            System.err.println(LanguageService.getFormattedString("error.reconcile", e.getMessage()));
+            return;
+        } finally {
+            TEMPO_CONCILIACAO.recordSince(inicio);
+        }
+
+        List<Linha> divergentes = linhas.stream().filter(Linha::divergente).collect(Collectors.toList());
+        long novasBases = linhas.stream().filter(linha -> linha.novaBase).count();
+        DIVERGENCIAS.add(divergentes.size());
+        imprimir(novas.linhas, quantidadeTabelas, (System.nanoTime() - inicio) / 1_000_000, linhas.size(),
+                 divergentes, novasBases, emMemoria);
+
+        String modo = "";
+        if (!divergentes.isEmpty()) {
+            System.out.println(LanguageService.getString("reconcile.repair.title"));
+            System.out.println(LanguageService.getString("reconcile.repair.option1"));
+            System.out.println(LanguageService.getString("reconcile.repair.option2"));
+            System.out.print(LanguageService.getString("reconcile.repair.prompt"));
+            modo = scanner.nextLine().trim();
+        }
+        gravar(linhas, divergentes, modo, limite, emMemoria, locais);
+    }
+
+    private static Linha comparar(String produtoId, long[] salvo, long novas, Integer banco, Produto produto, EstoqueLocais locais) {
+        Integer memoria = produto == null ? null : locais.getQuantidadeTotal(produto);
+        long saldoLogs = (salvo == null ? 0 : salvo[1]) + novas;
+        if (salvo != null) {
+            return new Linha(produtoId, salvo[0], saldoLogs, banco, memoria, false, novas != 0);
+        }
+        // Sem base registrada: assume que o estoque atual do banco concorda com o histórico
+        long saldoInicial = banco == null ? 0 : banco - saldoLogs;
+        return new Linha(produtoId, saldoInicial, saldoLogs, banco, memoria, true, true);
+    }
+
+    /**
+     * Persists the fold and the checkpoint and applies the chosen repair, in one
+     * transaction; the in-memory stock is resynchronized after the commit.
+     * <p>
+     * Products with log rows above {@code limite} moved after the stock was read, so
+     * the drift computed for them is stale: they are not repaired, and are checked
+     * again by the next run.
+     */
+    private static void gravar(List<Linha> linhas, List<Linha> divergentes, String modo, long limite,
+                               Map<String, Produto> emMemoria, EstoqueLocais locais) {
+        boolean reparar = modo.equals("1") || modo.equals("2");
+        int reparados = 0;
+        int ignorados = 0;
+        int adiados = 0;
+        List<Linha> ressincronizar = new ArrayList<>();
+        try (Connection conn = DbManager.connect()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmtRecentes = conn.prepareStatement(
+                    "SELECT 1 FROM Logs WHERE id > ? AND ProdutoID = ? LIMIT 1")) {
+                for (Linha linha : divergentes) {
+                    if (!reparar || linha.banco == null) {
+                        continue;
+                    }
+                    if (movimentadoDepois(pstmtRecentes, linha.produtoId, limite)) {
+                        adiados++;
+                        continue;
+                    }
+                    if (!linha.divergeDoBanco()) {
+                        // Só a memória está diferente do banco
+                        ressincronizar.add(linha);
+                        continue;
+                    }
+                    if (modo.equals("1")) {
+                        // Leva o estoque do local padrão ao valor do histórico, sem deixá-lo negativo
+                        long diferenca = linha.esperado() - linha.banco;
+                        if (EstoqueLocais.movimentar(conn, linha.produtoId, EstoqueLocais.LOCAL_PADRAO, (int) diferenca)) {
+                            reparados++;
+                            ressincronizar.add(linha);
+                        } else {
+                            ignorados++;
+                        }
+                    } else if (modo.equals("2")) {
+                        // Aceita o estoque atual: a diferença passa a fazer parte da base
+                        linha.saldoInicial += linha.banco - linha.esperado();
+                        linha.alterada = true;
+                        reparados++;
+                        ressincronizar.add(linha);
+                    }
+                }
+
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "INSERT INTO ConciliacaoEstoque(produtoId, saldoInicial, saldoLogs) VALUES(?, ?, ?)"
+                      + " ON CONFLICT(produtoId) DO UPDATE SET saldoInicial = excluded.saldoInicial, saldoLogs = excluded.saldoLogs")) {
+                    for (Linha linha : linhas) {
+                        if (linha.alterada) {
+                            pstmt.setString(1, linha.produtoId);
+                            pstmt.setLong(2, linha.saldoInicial);
+                            pstmt.setLong(3, linha.saldoLogs);
+                            pstmt.addBatch();
+                        }
+                    }
+                    pstmt.executeBatch();
+                }
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "INSERT INTO ConciliacaoCheckpoint(id, ultimoLogId, executadoEm) VALUES(1, ?, ?)"
+                      + " ON CONFLICT(id) DO UPDATE SET ultimoLogId = excluded.ultimoLogId, executadoEm = excluded.executadoEm")) {
+                    pstmt.setLong(1, limite);
+                    pstmt.setString(2, LocalDate.now().toString());
+                    pstmt.executeUpdate();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+            int ressincronizados = 0;
+            for (Linha linha : ressincronizar) {
+                Produto produto = emMemoria.get(linha.produtoId);
+                if (produto != null && ressincronizar(conn, produto, locais)) {
+                    ressincronizados++;
+                }
+            }
+
+            if (reparar) {
+                System.out.println(LanguageService.getFormattedString("reconcile.repaired", reparados, ignorados));
+            }
+            if (adiados > 0) {
+                System.out.println(LanguageService.getFormattedString("reconcile.postponed", adiados));
+            }
+            if (ressincronizados > 0) {
+                System.out.println(LanguageService.getFormattedString("reconcile.memory", ressincronizados));
+            }
+        } catch (SQLException e) {
+            System.err.println(LanguageService.getFormattedString("error.reconcile", e.getMessage()));
+        }
+    }
+
+    /**
+     * Replaces the in-memory stock of a product, in every location, with the database
+     * values; {@link EstoqueLocais#sincronizar} publishes each change.
+     *
+     * @return Whether the in-memory total changed.
+     */
+    private static boolean ressincronizar(Connection conn, Produto produto, EstoqueLocais locais) throws SQLException {
+        int antes = locais.getQuantidadeTotal(produto);
+        for (String localId : locais.getIds()) {
+            int quantidade = EstoqueLocais.lerEstoque(conn, produto.getId(), localId);
+            locais.sincronizar(produto, localId, Math.max(quantidade, 0));
+        }
+        return locais.getQuantidadeTotal(produto) != antes;
+    }
+
+    private static Parcial dobrar(String tabela, long desde, long ate) {
+        String sql = "SELECT ProdutoID,"
+                   + " SUM(CASE Tipo WHEN 'COMPRA' THEN Quantidade WHEN 'VENDA' THEN -Quantidade ELSE 0 END) AS saldo,"
+                   + " COUNT(*) AS linhas"
+                   + " FROM " + tabela + " WHERE id > ? AND id <= ? GROUP BY ProdutoID";
+        Parcial parcial = new Parcial();
+        try (Connection conn = DbManager.connect();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setLong(1, desde);
+            pstmt.setLong(2, ate);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    parcial.saldos.put(rs.getString("ProdutoID"), rs.getLong("saldo"));
+                    parcial.linhas += rs.getLong("linhas");
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(tabela + ": " + e.getMessage(), e);
+        }
+        return parcial;
+    }
+
+    /**
+     * @return Whether the product has log rows written after {@code limite}.
+     */
+    private static boolean movimentadoDepois(PreparedStatement pstmt, String produtoId, long limite) throws SQLException {
+        pstmt.setLong(1, limite);
+        pstmt.setString(2, produtoId);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            return rs.next();
+        }
+    }
+
+    private static long lerCheckpoint(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT ultimoLogId FROM ConciliacaoCheckpoint WHERE id = 1");
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getLong("ultimoLogId") : 0;
+        }
+    }
+
+    /**
+     * @return The highest log ID ever assigned; rows above it are left to the next run.
+     */
+    private static long ultimoLogId(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT seq FROM sqlite_sequence WHERE name = 'Logs'");
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getLong("seq") : 0;
+        }
+    }
+
+    private static Map<String, long[]> lerSalvos(Connection conn) throws SQLException {
+        Map<String, long[]> salvos = new HashMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT produtoId, saldoInicial, saldoLogs FROM ConciliacaoEstoque");
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                salvos.put(rs.getString("produtoId"), new long[] { rs.getLong("saldoInicial"), rs.getLong("saldoLogs") });
+            }
+        }
+        return salvos;
+    }
+
+    /**
+     * @return The stock of every product in the database, summed over every location.
+     */
+    private static Map<String, Integer> lerEstoqueDoBanco(Connection conn) throws SQLException {
+        Map<String, Integer> bancos = new HashMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT p.id, p.quantidade + COALESCE(SUM(e.quantidade), 0) AS total"
+              + " FROM Produtos p LEFT JOIN EstoqueLocal e ON e.produtoId = p.id GROUP BY p.id");
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                bancos.put(rs.getString("id"), rs.getInt("total"));
+            }
+        }
+        return bancos;
+    }
+
+    private static void imprimir(long linhasLidas, int tabelas, long milissegundos, int verificados,
+                                 List<Linha> divergentes, long novasBases, Map<String, Produto> emMemoria) {
+        System.out.println(LanguageService.getFormattedString("reconcile.title", linhasLidas, tabelas, milissegundos));
+        if (divergentes.isEmpty()) {
+            System.out.println(LanguageService.getString("reconcile.none"));
+        } else {
+            System.out.println(LanguageService.getString("reconcile.header"));
+            for (Linha linha : divergentes) {
+                Produto produto = emMemoria.get(linha.produtoId);
+                System.out.println(String.format("%-8s | %-25.25s | %8d | %8d | %8d | %8s | %8s",
+                    linha.produtoId, produto == null ? "?" : produto.getNome(), linha.saldoInicial, linha.saldoLogs,
+                    linha.esperado(), linha.banco == null ? "-" : linha.banco, linha.memoria == null ? "-" : linha.memoria));
+            }
+        }
+        System.out.println(LanguageService.getFormattedString("reconcile.summary", verificados, divergentes.size(), novasBases));
+    }
+}
@@ -2,33 +2,143 @@ package com.erp;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Deque;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DbManager {
 
     // Caminho para o arquivo do banco de dados
     private static final String DATABASE_URL = "jdbc:sqlite:database/erp.db";
 
+    // Tempo que uma escrita espera pelo bloqueio de outro processo antes de falhar
+    private static final int ESPERA_BLOQUEIO_MS = Integer.getInteger("erp.db.busyTimeoutMs", 5000);
+
+    // Conexões físicas ociosas, reaproveitadas com seus comandos já compilados
+    private static final int MAXIMO_OCIOSAS = 4;
+    private static final Deque<StatementCache> conexoesOciosas = new ConcurrentLinkedDeque<>();
+    private static final AtomicInteger geracao = new AtomicInteger();
+
+    private static final MetricsService.Timer TEMPO_CONEXAO = MetricsService.timer("db.connect");
+
     /**
-     *  Attempt to load the SQLite JDBC driver and establish a connection
-     *  using the static {@code DATABASE_URL} defined.
+     *  Hands out a connection to the database.
+     *  <p>
+     *  Physical connections are long-lived: they are opened on demand using the
+     *  static {@code DATABASE_URL}, kept in a small pool and reused together with
+     *  their {@link StatementCache}. Closing the returned {@code Connection}
+     *  gives it back to the pool, so callers keep using try-with-resources as before.
      *  
-     *  @return A new {@code Connection} object linked to the database file.
+     *  @return A logical {@code Connection} linked to the database file, whose
+     *  statements are cached and timed by {@link SqlMonitor}.
      *  @throws RuntimeException if the SQLite JDBC driver cannot be found 
      *  or if a connection to the database cannot be established.
      */
     public static Connection connect() throws RuntimeException {
         Connection conn = null;
+        long inicio = System.nanoTime();
+        JfrEvents.ConexaoEvent evento = new JfrEvents.ConexaoEvent();
+        evento.begin();
+        try {
+            StatementCache fisica = conexoesOciosas.pollFirst();
+            while (fisica != null && !fisica.isValida()) {
+                fisica.fechar();
+                fisica = conexoesOciosas.pollFirst();
+            }
+            if (fisica == null) {
+                fisica = new StatementCache(abrirConexaoFisica(), geracao.get());
+            }
+            conn = fisica.abrir();
+        } finally {
+            TEMPO_CONEXAO.recordSince(inicio);
+            evento.end();
+            if (evento.shouldCommit()) {
+                evento.sucesso = conn != null;
+                evento.commit();
+            }
+        }
+        return conn;
+    }
+
+    /**
+     * Closes every idle pooled connection, finalizing their cached statements.
+     * <p>
+     * Should be called on shutdown, or after changes that require fresh
+     * connections. Connections currently in use are closed when given back.
+     */
+    public static void fecharConexoes() {
+        geracao.incrementAndGet();
+        StatementCache fisica;
+        while ((fisica = conexoesOciosas.pollFirst()) != null) {
+            fisica.fechar();
+        }
+    }
+
+    /**
+     * Gives a physical connection back to the pool once its logical connection is closed.
+     *
+     * @param fisica The physical connection being released.
+     */
+    static void devolver(StatementCache fisica) {
+        if (fisica.isValida() && fisica.getGeracao() == geracao.get() && conexoesOciosas.size() < MAXIMO_OCIOSAS) {
+            conexoesOciosas.offerFirst(fisica);
+        } else {
+            fisica.fechar();
+        }
+    }
+
+    /**
+     * Opens a dedicated read-only connection holding a consistent snapshot of the database.
+     * <p>
+     * The database runs in WAL mode, so the read transaction started here keeps seeing
+     * the data as of the moment it was opened, while other connections keep writing
+     * without waiting for it. The connection is not pooled; closing it ends the read
+     * transaction and releases the snapshot.
+     *
+     * @return A read-only {@code Connection}, timed by {@link SqlMonitor}.
+     * @throws RuntimeException if the connection or the read transaction cannot be opened.
+     */
+    public static Connection abrirSnapshot() throws RuntimeException {
+        Properties propriedades = new Properties();
+        propriedades.setProperty("open_mode", "1"); // SQLITE_OPEN_READONLY
+        Connection conn = abrirConexaoFisica(propriedades);
+        try {
+            conn.setAutoCommit(false);
+            // No WAL, o snapshot é fixado pela primeira leitura da transação
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM sqlite_master")) {
+                rs.next();
+            }
+            return conn;
+        } catch (SQLException e) {
+            try {
+                conn.close();
+            } catch (SQLException ignorada) {
+                // A conexão está sendo descartada
+            }
+            throw new RuntimeException(LanguageService.getString("error.db.fatal_connect") + e.getMessage(), e);
+        }
+    }
+
+    private static Connection abrirConexaoFisica() throws RuntimeException {
+        return abrirConexaoFisica(new Properties());
+    }
+
+    private static Connection abrirConexaoFisica(Properties propriedades) throws RuntimeException {
         try {
             // Carrega o driver JDBC do SQLite
             Class.forName("org.sqlite.JDBC");
-            // Cria a conexão com o banco
-            conn = DriverManager.getConnection(DATABASE_URL);
+            // Outros processos podem estar escrevendo no mesmo arquivo: espera em vez de falhar com SQLITE_BUSY
+            propriedades.putIfAbsent("busy_timeout", String.valueOf(ESPERA_BLOQUEIO_MS));
+            // Cria a conexão com o banco, instrumentada para medir cada comando
+            return SqlMonitor.instrumentar(DriverManager.getConnection(DATABASE_URL, propriedades));
         } catch (SQLException | ClassNotFoundException e) {
             throw new RuntimeException(LanguageService.getString("error.db.fatal_connect") + e.getMessage(), e);
         }
-        return conn;
     }
 
     /**
@@ -61,6 +171,8 @@ public class DbManager {
                           + " paga BOOLEAN NOT NULL,"
                           + " pessoaId TEXT NOT NULL,"
                           + " tipoTitulo TEXT NOT NULL,"
+                          + " dataEmissao TEXT," // 'yyyy-MM-dd', nulo para títulos anteriores à coluna
+                          + " dataVencimento TEXT," // 'yyyy-MM-dd', nulo para títulos anteriores à coluna
                           + " FOREIGN KEY (pessoaId) REFERENCES Pessoas(id)"
                           + ");";
 
@@ -77,14 +189,51 @@ public class DbManager {
         try (Connection conn = connect();
              Statement stmt = conn.createStatement()) {
             
+            // WAL: leitores (análises) não bloqueiam escritores e vice-versa. A configuração fica gravada no arquivo
+            try (ResultSet rs = stmt.executeQuery("PRAGMA journal_mode=WAL")) {
+                rs.next();
+            }
+
             // Executa os comandos SQL
             stmt.execute(sqlPessoas);
             stmt.execute(sqlProdutos);
             stmt.execute(sqlTitulos);
             stmt.execute(sqlLogs);
+            ArquivoLogs.inicializar(stmt);
+            DiarioEscrita.inicializar(stmt);
+            EstoqueLocais.inicializar(stmt);
+            Conciliacao.inicializar(stmt);
+            AnalisePreditiva.inicializar(stmt);
+
+            // Migrações de bancos criados por versões anteriores
+            adicionarColunaSeAusente(stmt, "Titulos", "dataEmissao", "TEXT");
+            adicionarColunaSeAusente(stmt, "Titulos", "dataVencimento", "TEXT");
             
         } catch (SQLException e) {
             throw new RuntimeException(LanguageService.getString("error.db.fatal_initialize") + e.getMessage(), e);
         }
     }
+
+    /**
+     * Adds a column to an existing table when it is not there yet.
+     * <p>
+     * SQLite has no {@code ADD COLUMN IF NOT EXISTS}, so the current columns
+     * are read from {@code PRAGMA table_info} first.
+     *
+     * @param stmt An open statement on the database.
+     * @param tabela The table name.
+     * @param coluna The column to add.
+     * @param definicao The column type and constraints (ex: "TEXT NOT NULL DEFAULT ''").
+     * @throws SQLException if the table cannot be inspected or altered.
+     */
+    private static void adicionarColunaSeAusente(Statement stmt, String tabela, String coluna, String definicao) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + tabela + ")")) {
+            while (rs.next()) {
+                if (rs.getString("name").equalsIgnoreCase(coluna)) {
+                    return;
+                }
+            }
+        }
+        stmt.execute("ALTER TABLE " + tabela + " ADD COLUMN " + coluna + " " + definicao);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,600 @@
+package com.erp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Write-behind persistence for purchases, sales and payments.
+ * <p>
+ * Enabled with {@code -Derp.writeBehind=true}. Instead of committing each operation
+ * to SQLite, {@link Estoque} appends a record to the journal file
+ * ({@code database/erp.journal}) and updates its in-memory model right away. A
+ * background thread calls {@code fsync} every {@code erp.writeBehind.fsyncMs}
+ * (default 5 ms) for all appends since the previous one, and each operation waits
+ * for that group {@code fsync} before it is acknowledged, so an acknowledged
+ * operation survives a power loss. With {@code erp.writeBehind.durable=false} the
+ * operation is acknowledged as soon as the append reaches the OS buffers: it still
+ * survives a crash of the process, but the last few milliseconds of operations can
+ * be lost on a power loss.
+ * <p>
+ * A second background thread applies the journal to SQLite every
+ * {@code erp.writeBehind.flushMs} (default 200 ms), up to {@code erp.writeBehind.batch}
+ * records (default 500) per transaction. The last applied record is stored in the
+ * {@code DiarioCheckpoint} table within the same transaction, so on startup the
+ * records after the checkpoint are replayed exactly once, whether or not
+ * write-behind is still enabled. Once everything is applied the journal is truncated.
+ * <p>
+ * Each record is {@code [length][CRC32][sequence][payload]}; a torn record at the end
+ * of the file (crash in the middle of an append) fails the checksum and is discarded.
+ * An append that fails while the process is running is cut back off the file; if that
+ * also fails, the journal refuses further appends, since replay stops at the first
+ * torn record and would skip everything written after it.
+ */
+public class DiarioEscrita {
+    private static final boolean ATIVO = Boolean.getBoolean("erp.writeBehind");
+    // Confirmação só após o fsync, salvo opção explícita por durable=false
+    private static final boolean DURAVEL = Boolean.parseBoolean(System.getProperty("erp.writeBehind.durable", "true"));
+    private static final long INTERVALO_FSYNC_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("erp.writeBehind.fsyncMs", 5));
+    private static final long INTERVALO_APLICACAO_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("erp.writeBehind.flushMs", 200));
+    private static final int TAMANHO_LOTE = Integer.getInteger("erp.writeBehind.batch", 500);
+
+    private static final Path ARQUIVO = new File("database/erp.journal").toPath();
+    private static final int TAMANHO_CABECALHO = Integer.BYTES + Integer.BYTES + Long.BYTES;
+
+    private static final byte TIPO_MOVIMENTO = 1;
+    private static final byte TIPO_PAGAMENTO = 2;
+
+    private static final DateTimeFormatter FORMATO_HORA = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private static final MetricsService.Timer TEMPO_ESCRITA = MetricsService.timer("diario.append");
+    private static final MetricsService.Timer TEMPO_FSYNC = MetricsService.timer("diario.fsync");
+    private static final MetricsService.Timer TEMPO_APLICACAO = MetricsService.timer("diario.aplicar");
+    private static final MetricsService.Counter REGISTROS_APLICADOS = MetricsService.counter("diario.registros.aplicados");
+
+    /**
+     * A decoded journal record.
+     */
+    private static final class Registro {
+        long sequencia;
+        byte tipo;
+        // Movimento (compra ou venda)
+        String operacao;
+        String tituloId;
+        double valor;
+        int quantidade;
+        String pessoaId;
+        String tipoTitulo;
+        String dataEmissao;
+        // Nulo em registros gravados antes da coluna: o vencimento é derivado na carga
+        String dataVencimento;
+        String produtoId;
+        String data;
+        String hora;
+        // Pagamento
+        List<String> titulosPagos;
+    }
+
+    private static final Object travaEscrita = new Object();
+    private static final Object travaFsync = new Object();
+    private static final Queue<Registro> pendentes = new ConcurrentLinkedQueue<>();
+
+    private static FileChannel canal;
+    private static long ultimaSequencia;
+    private static volatile long escrita;
+    private static volatile long sincronizada;
+    private static volatile long aplicada;
+    private static volatile boolean executando;
+    // Um append que falhou e não pôde ser desfeito deixa o diário inutilizável para novos registros
+    private static boolean falhou;
+    private static Thread threadFsync;
+    private static Thread threadAplicacao;
+
+    /**
+     * Creates the checkpoint table. Called once by {@link DbManager#initializeDatabase()}.
+     *
+     * @param stmt An open statement on the database.
+     * @throws SQLException if the table cannot be created.
+     */
+    static void inicializar(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS DiarioCheckpoint ("
+                   + " id INTEGER PRIMARY KEY CHECK (id = 1),"
+                   + " sequencia INTEGER NOT NULL"
+                   + ");");
+        stmt.execute("INSERT OR IGNORE INTO DiarioCheckpoint(id, sequencia) VALUES(1, 0)");
+    }
+
+    /**
+     * @return Whether write-behind mode is enabled.
+     */
+    public static boolean isAtivo() {
+        return ATIVO;
+    }
+
+    /**
+     * Replays any record left in the journal after the last checkpoint and, in
+     * write-behind mode, opens the journal and starts the background threads.
+     * Must run before the in-memory model is loaded from the database.
+     *
+     * @throws RuntimeException if the journal cannot be read or applied.
+     */
+    public static synchronized void iniciar() throws RuntimeException {
+        try (Connection conn = DbManager.connect()) {
+            long checkpoint = lerCheckpoint(conn);
+            List<Registro> registros = lerDiario();
+
+            List<Registro> aReaplicar = new ArrayList<>();
+            long maior = checkpoint;
+            for (Registro registro : registros) {
+                maior = Math.max(maior, registro.sequencia);
+                if (registro.sequencia > checkpoint) {
+                    aReaplicar.add(registro);
+                }
+            }
+            if (!aReaplicar.isEmpty()) {
+                for (int i = 0; i < aReaplicar.size(); i += TAMANHO_LOTE) {
+                    aplicar(conn, aReaplicar.subList(i, Math.min(aReaplicar.size(), i + TAMANHO_LOTE)));
+                }
+                System.out.println(LanguageService.getFormattedString("journal.replayed", aReaplicar.size()));
+            }
+
+            ultimaSequencia = maior;
+            escrita = maior;
+            sincronizada = maior;
+            aplicada = maior;
+
+            // Tudo já está no banco: o diário recomeça vazio
+            if (!ATIVO) {
+                Files.deleteIfExists(ARQUIVO);
+                return;
+            }
+            canal = FileChannel.open(ARQUIVO, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            canal.truncate(0);
+        } catch (IOException | SQLException e) {
+            throw new RuntimeException(LanguageService.getFormattedString("error.journal.replay", e.getMessage()), e);
+        }
+
+        executando = true;
+        threadFsync = new Thread(DiarioEscrita::executarFsync, "erp-diario-fsync");
+        threadFsync.setDaemon(true);
+        threadFsync.start();
+        threadAplicacao = new Thread(DiarioEscrita::executarAplicacao, "erp-diario-aplicacao");
+        threadAplicacao.setDaemon(true);
+        threadAplicacao.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(DiarioEscrita::encerrar, "erp-diario-encerramento"));
+    }
+
+    /**
+     * Journals a purchase or sale: the new title, the stock change of the product and its log entry.
+     * <p>
+     * The stock is applied as a relative change, so it composes with changes made by
+     * other processes, but it is not checked against the database stock: write-behind
+     * assumes this process is the only one selling from the database.
+     *
+     * @param operacao "COMPRA" or "VENDA".
+     * @param titulo The title generated by the operation.
+     * @param produtoId The product.
+     * @param quantidade The units bought or sold.
+     * @param pessoaId The supplier or customer.
+     * @throws IOException if the record cannot be appended; the operation must then be discarded.
+     */
+    public static void registrarMovimento(String operacao, Titulo titulo, String produtoId, int quantidade,
+                                          String pessoaId) throws IOException {
+        Registro registro = new Registro();
+        registro.tipo = TIPO_MOVIMENTO;
+        registro.operacao = operacao;
+        registro.tituloId = titulo.getId();
+        registro.valor = titulo.getValor();
+        registro.quantidade = quantidade;
+        registro.pessoaId = pessoaId;
+        registro.tipoTitulo = titulo.getTipoTitulo();
+        registro.dataEmissao = titulo.getDataEmissao().toString();
+        registro.dataVencimento = titulo.getDataVencimento().toString();
+        registro.produtoId = produtoId;
+        registro.data = LocalDate.now().toString();
+        registro.hora = LocalTime.now().format(FORMATO_HORA);
+        escrever(registro);
+    }
+
+    /**
+     * Journals the settlement of one or more titles.
+     *
+     * @param titulos The titles being paid.
+     * @throws IOException if the record cannot be appended; the payment must then be discarded.
+     */
+    public static void registrarPagamento(Collection<Titulo> titulos) throws IOException {
+        Registro registro = new Registro();
+        registro.tipo = TIPO_PAGAMENTO;
+        registro.titulosPagos = new ArrayList<>(titulos.size());
+        for (Titulo titulo : titulos) {
+            registro.titulosPagos.add(titulo.getId());
+        }
+        escrever(registro);
+    }
+
+    /**
+     * Blocks until every record journaled so far has been applied to the database.
+     * Returns immediately when write-behind is disabled.
+     */
+    public static void aguardarAplicacao() {
+        if (!executando) {
+            return;
+        }
+        long alvo = escrita;
+        while (aplicada < alvo && threadAplicacao.isAlive()) {
+            LockSupport.unpark(threadAplicacao);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Stops the background threads after applying every pending record, then
+     * truncates the journal. If the database cannot be written, the remaining records
+     * stay in the journal and are replayed on the next startup. Safe to call more than once.
+     */
+    public static synchronized void encerrar() {
+        if (!executando) {
+            return;
+        }
+        executando = false;
+        LockSupport.unpark(threadFsync);
+        LockSupport.unpark(threadAplicacao);
+        try {
+            threadAplicacao.join();
+            threadFsync.join();
+            synchronized (travaEscrita) {
+                if (aplicada == ultimaSequencia) {
+                    canal.truncate(0);
+                }
+                canal.force(true);
+                canal.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println(LanguageService.getFormattedString("error.journal.write", e.getMessage()));
+        }
+    }
+
+    private static void escrever(Registro registro) throws IOException {
+        long inicio = System.nanoTime();
+        long sequencia;
+        try {
+            synchronized (travaEscrita) {
+                if (!executando || falhou) {
+                    throw new IOException(LanguageService.getString("error.journal.closed"));
+                }
+                sequencia = ++ultimaSequencia;
+                registro.sequencia = sequencia;
+                ByteBuffer buffer = codificar(registro);
+                long posicao = canal.position();
+                try {
+                    while (buffer.hasRemaining()) {
+                        canal.write(buffer);
+                    }
+                } catch (IOException e) {
+                    ultimaSequencia--;
+                    // Remove o trecho gravado: registros depois de um quadro rasgado seriam ignorados na releitura
+                    try {
+                        canal.truncate(posicao);
+                        canal.position(posicao);
+                    } catch (IOException erroAoDesfazer) {
+                        falhou = true;
+                        e.addSuppressed(erroAoDesfazer);
+                    }
+                    throw e;
+                }
+                pendentes.add(registro);
+                escrita = sequencia;
+            }
+        } finally {
+            TEMPO_ESCRITA.recordSince(inicio);
+        }
+
+        if (DURAVEL) {
+            synchronized (travaFsync) {
+                while (sincronizada < sequencia) {
+                    LockSupport.unpark(threadFsync);
+                    try {
+                        travaFsync.wait(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException(e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Group fsync: one {@code force} covers every append made before it.
+     */
+    private static void executarFsync() {
+        while (executando || sincronizada < escrita) {
+            long alvo = escrita;
+            if (alvo > sincronizada) {
+                long inicio = System.nanoTime();
+                try {
+                    canal.force(false);
+                    synchronized (travaFsync) {
+                        sincronizada = alvo;
+                        travaFsync.notifyAll();
+                    }
+                } catch (IOException e) {
+                    System.err.println(LanguageService.getFormattedString("error.journal.write", e.getMessage()));
+                    if (!executando) {
+                        return;
+                    }
+                } finally {
+                    TEMPO_FSYNC.recordSince(inicio);
+                }
+            }
+            if (executando) {
+                LockSupport.parkNanos(INTERVALO_FSYNC_NANOS);
+            }
+        }
+    }
+
+    private static void executarAplicacao() {
+        // Um lote que falhou fica aqui e é tentado de novo antes de qualquer registro posterior
+        List<Registro> lote = new ArrayList<>();
+        while (true) {
+            boolean continuar = executando;
+            Registro registro;
+            while (lote.size() < TAMANHO_LOTE && (registro = pendentes.poll()) != null) {
+                lote.add(registro);
+            }
+
+            if (!lote.isEmpty()) {
+                try (Connection conn = DbManager.connect()) {
+                    aplicar(conn, lote);
+                    aplicada = lote.get(lote.size() - 1).sequencia;
+                    truncarSeAplicado();
+                    boolean cheio = lote.size() == TAMANHO_LOTE;
+                    lote = new ArrayList<>();
+                    if (!continuar || cheio) {
+                        continue;
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    // O lote é mantido e tentado de novo no próximo ciclo; a fila não é mexida fora da trava de escrita
+                    System.err.println(LanguageService.getFormattedString("error.journal.apply", e.getMessage()));
+                    if (!continuar) {
+                        // Os registros continuam no diário e serão reaplicados na próxima inicialização
+                        return;
+                    }
+                }
+            } else if (!continuar) {
+                return;
+            }
+            LockSupport.parkNanos(INTERVALO_APLICACAO_NANOS);
+        }
+    }
+
+    /**
+     * Truncates the journal when every appended record is already in the database.
+     */
+    private static void truncarSeAplicado() {
+        synchronized (travaEscrita) {
+            if (aplicada == ultimaSequencia && sincronizada == ultimaSequencia) {
+                try {
+                    canal.truncate(0);
+                } catch (IOException e) {
+                    System.err.println(LanguageService.getFormattedString("error.journal.write", e.getMessage()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies a batch of records and advances the checkpoint in a single transaction.
+     */
+    private static void aplicar(Connection conn, List<Registro> lote) throws SQLException {
+        String sqlTitulo = "INSERT OR IGNORE INTO Titulos(id, valor, quantidade, paga, pessoaId, tipoTitulo, dataEmissao, dataVencimento) VALUES(?, ?, ?, ?, ?, ?, ?, ?)";
+        String sqlProduto = "UPDATE Produtos SET quantidade = quantidade + ? WHERE id = ?";
+        String sqlLog = "INSERT INTO Logs(Tipo, PessoaID, ProdutoID, Quantidade, Data, Hora) VALUES(?, ?, ?, ?, ?, ?)";
+        String sqlPagamento = "UPDATE Titulos SET paga = ? WHERE id = ?";
+        String sqlCheckpoint = "UPDATE DiarioCheckpoint SET sequencia = ? WHERE id = 1";
+
+        long inicio = System.nanoTime();
+        conn.setAutoCommit(false);
+        try (PreparedStatement pstmtTitulo = conn.prepareStatement(sqlTitulo);
+             PreparedStatement pstmtProduto = conn.prepareStatement(sqlProduto);
+             PreparedStatement pstmtLog = conn.prepareStatement(sqlLog);
+             PreparedStatement pstmtPagamento = conn.prepareStatement(sqlPagamento);
+             PreparedStatement pstmtCheckpoint = conn.prepareStatement(sqlCheckpoint)) {
+
+            for (Registro r : lote) {
+                if (r.tipo == TIPO_MOVIMENTO) {
+                    pstmtTitulo.setString(1, r.tituloId);
+                    pstmtTitulo.setDouble(2, r.valor);
+                    pstmtTitulo.setInt(3, r.quantidade);
+                    pstmtTitulo.setBoolean(4, false);
+                    pstmtTitulo.setString(5, r.pessoaId);
+                    pstmtTitulo.setString(6, r.tipoTitulo);
+                    pstmtTitulo.setString(7, r.dataEmissao);
+                    pstmtTitulo.setString(8, r.dataVencimento);
+                    pstmtTitulo.addBatch();
+
+                    pstmtProduto.setInt(1, r.operacao.equals("VENDA") ? -r.quantidade : r.quantidade);
+                    pstmtProduto.setString(2, r.produtoId);
+                    pstmtProduto.addBatch();
+
+                    pstmtLog.setString(1, r.operacao);
+                    pstmtLog.setString(2, r.pessoaId);
+                    pstmtLog.setString(3, r.produtoId);
+                    pstmtLog.setInt(4, r.quantidade);
+                    pstmtLog.setString(5, r.data);
+                    pstmtLog.setString(6, r.hora);
+                    pstmtLog.addBatch();
+                } else {
+                    // O título precisa existir antes de ser baixado
+                    pstmtTitulo.executeBatch();
+                    for (String tituloId : r.titulosPagos) {
+                        pstmtPagamento.setBoolean(1, true);
+                        pstmtPagamento.setString(2, tituloId);
+                        pstmtPagamento.addBatch();
+                    }
+                }
+            }
+            // Cada comando mantém a ordem do diário; títulos entram antes dos pagamentos que os baixam
+            pstmtTitulo.executeBatch();
+            pstmtPagamento.executeBatch();
+            pstmtProduto.executeBatch();
+            pstmtLog.executeBatch();
+
+            pstmtCheckpoint.setLong(1, lote.get(lote.size() - 1).sequencia);
+            pstmtCheckpoint.executeUpdate();
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+            TEMPO_APLICACAO.recordSince(inicio);
+        }
+
+        REGISTROS_APLICADOS.add(lote.size());
+    }
+
+    private static long lerCheckpoint(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT sequencia FROM DiarioCheckpoint WHERE id = 1");
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getLong("sequencia") : 0;
+        }
+    }
+
+    /**
+     * Reads every valid record of the journal, stopping at the first torn or corrupted one.
+     */
+    private static List<Registro> lerDiario() throws IOException {
+        List<Registro> registros = new ArrayList<>();
+        if (!ARQUIVO.toFile().exists()) {
+            return registros;
+        }
+
+        try (FileChannel leitura = FileChannel.open(ARQUIVO, StandardOpenOption.READ)) {
+            ByteBuffer conteudo = ByteBuffer.allocate((int) leitura.size());
+            while (conteudo.hasRemaining() && leitura.read(conteudo) >= 0) {
+                // Lê o arquivo inteiro
+            }
+            conteudo.flip();
+
+            CRC32 crc = new CRC32();
+            while (conteudo.remaining() >= TAMANHO_CABECALHO) {
+                int tamanho = conteudo.getInt();
+                int soma = conteudo.getInt();
+                long sequencia = conteudo.getLong();
+                if (tamanho < 0 || tamanho > conteudo.remaining()) {
+                    break;
+                }
+                byte[] dados = new byte[tamanho];
+                conteudo.get(dados);
+
+                crc.reset();
+                crc.update(ByteBuffer.allocate(Long.BYTES).putLong(0, sequencia));
+                crc.update(dados);
+                if ((int) crc.getValue() != soma) {
+                    break;
+                }
+                Registro registro = decodificar(dados);
+                registro.sequencia = sequencia;
+                registros.add(registro);
+            }
+        }
+        return registros;
+    }
+
+    private static ByteBuffer codificar(Registro registro) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(registro.tipo);
+            if (registro.tipo == TIPO_MOVIMENTO) {
+                out.writeUTF(registro.operacao);
+                out.writeUTF(registro.tituloId);
+                out.writeDouble(registro.valor);
+                out.writeInt(registro.quantidade);
+                out.writeUTF(registro.pessoaId);
+                out.writeUTF(registro.tipoTitulo);
+                out.writeUTF(registro.dataEmissao);
+                out.writeUTF(registro.produtoId);
+                out.writeUTF(registro.data);
+                out.writeUTF(registro.hora);
+                // Acrescentado ao fim para que registros antigos continuem legíveis
+                out.writeUTF(registro.dataVencimento);
+            } else {
+                out.writeInt(registro.titulosPagos.size());
+                for (String tituloId : registro.titulosPagos) {
+                    out.writeUTF(tituloId);
+                }
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream não lança IOException
+            throw new UncheckedIOException(e);
+        }
+        byte[] dados = bytes.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(Long.BYTES).putLong(0, registro.sequencia));
+        crc.update(dados);
+
+        ByteBuffer buffer = ByteBuffer.allocate(TAMANHO_CABECALHO + dados.length);
+        buffer.putInt(dados.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.putLong(registro.sequencia);
+        buffer.put(dados);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static Registro decodificar(byte[] dados) throws IOException {
+        Registro registro = new Registro();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(dados))) {
+            registro.tipo = in.readByte();
+            if (registro.tipo == TIPO_MOVIMENTO) {
+                registro.operacao = in.readUTF();
+                registro.tituloId = in.readUTF();
+                registro.valor = in.readDouble();
+                registro.quantidade = in.readInt();
+                registro.pessoaId = in.readUTF();
+                registro.tipoTitulo = in.readUTF();
+                registro.dataEmissao = in.readUTF();
+                registro.produtoId = in.readUTF();
+                registro.data = in.readUTF();
+                registro.hora = in.readUTF();
+                registro.dataVencimento = in.available() > 0 ? in.readUTF() : null;
+            } else {
+                int quantidade = in.readInt();
+                registro.titulosPagos = new ArrayList<>(quantidade);
+                for (int i = 0; i < quantidade; i++) {
+                    registro.titulosPagos.add(in.readUTF());
+                }
+            }
+        }
+        return registro;
+    }
+}
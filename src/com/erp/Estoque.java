@@ -7,15 +7,72 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 
 /**
  * Manages in-memory database,
  * and handles all persistence logic for these entities.
  */
 public class Estoque {
+    /**
+     * Totals of a bulk settlement.
+     */
+    public static class ResumoPagamento {
+        private int titulosPagos;
+        private int titulosIgnorados;
+        private double totalAPagar;
+        private double totalAReceber;
+
+        public int getTitulosPagos() {
+            return titulosPagos;
+        }
+
+        public int getTitulosIgnorados() {
+            return titulosIgnorados;
+        }
+
+        public double getTotalAPagar() {
+            return totalAPagar;
+        }
+
+        public double getTotalAReceber() {
+            return totalAReceber;
+        }
+    }
+
+    private static final MetricsService.Timer TEMPO_ADD_PESSOA = MetricsService.timer("estoque.addPessoa");
+    private static final MetricsService.Timer TEMPO_ADD_PRODUTO = MetricsService.timer("estoque.addProduto");
+    private static final MetricsService.Timer TEMPO_COMPRA = MetricsService.timer("estoque.compraProduto");
+    private static final MetricsService.Timer TEMPO_VENDA = MetricsService.timer("estoque.vendaProduto");
+    private static final MetricsService.Counter CONFLITOS_ESTOQUE = MetricsService.counter("estoque.conflitos");
+    private static final MetricsService.Counter RELEITURAS_ESTOQUE = MetricsService.counter("estoque.releituras");
+    private static final MetricsService.Timer TEMPO_PAGAMENTO = MetricsService.timer("estoque.fazPagamento");
+    private static final MetricsService.Timer TEMPO_PAGAMENTO_LOTE = MetricsService.timer("estoque.pagamentoEmLote");
+    private static final MetricsService.Timer TEMPO_TRANSFERENCIA = MetricsService.timer("estoque.transferencia");
+    private static final int LIMITE_BUSCA = Integer.getInteger("erp.search.limit", 10);
+    private static final MetricsService.Timer TEMPO_EDITA_PESSOA = MetricsService.timer("estoque.editaPessoa");
+    private static final MetricsService.Timer TEMPO_REMOVE_PESSOA = MetricsService.timer("estoque.removePessoa");
+    private static final MetricsService.Timer TEMPO_LISTAGEM = MetricsService.timer("estoque.listagem");
+    private static final MetricsService.Timer TEMPO_CARGA = MetricsService.timer("estoque.carga");
+    private static final MetricsService.Counter UNIDADES_VENDIDAS = MetricsService.counter("estoque.unidades.vendidas");
+    private static final MetricsService.Counter UNIDADES_COMPRADAS = MetricsService.counter("estoque.unidades.compradas");
+
+    private static final int PERIODOS_FLUXO_CAIXA = Integer.getInteger("erp.cashflow.periods", 6);
+
+    private static final String SQL_INSERIR_TITULO =
+        "INSERT INTO Titulos(id, valor, quantidade, paga, pessoaId, tipoTitulo, dataEmissao, dataVencimento) VALUES(?, ?, ?, ?, ?, ?, ?, ?)";
+
     private List<Produto> produtos;
     private List<Titulo> titulos;
     private List<Pessoa> pessoas;
+    private final SaldosPessoa saldos = new SaldosPessoa();
+    private final FluxoCaixa fluxoCaixa = new FluxoCaixa();
+    private final EstoqueLocais locais = new EstoqueLocais();
+    private final BuscaProdutos busca = new BuscaProdutos();
+    private final IndicePessoas indicePessoas = new IndicePessoas();
+    private final Reposicao reposicao = new Reposicao();
 
     /**
      * Initializes persistence layer.
@@ -27,14 +84,22 @@ public class Estoque {
      */
     public Estoque() throws RuntimeException {
         DbManager.initializeDatabase();
+        DiarioEscrita.iniciar();
+        ArquivoLogs.arquivarSeHabilitado();
+        LogService.assinarEventos();
         
         produtos = new ArrayList<>();
         titulos = new ArrayList<>();
         pessoas = new ArrayList<>();
         
+        long inicio = System.nanoTime();
         carregaPessoas();
         carregaProduto();
+        locais.carregar();
         carregaTitulos();
+        reposicao.inicializar(produtos, locais::getQuantidadeTotal);
+        ClassificadorOnline.iniciar();
+        TEMPO_CARGA.recordSince(inicio);
     }
 
     /**
@@ -57,6 +122,7 @@ public class Estoque {
 
         Pessoa pessoa = new Pessoa(id, tipo, nome);
         String sql = "INSERT INTO Pessoas(id, nome, tipo) VALUES(?, ?, ?)";
+        long inicio = System.nanoTime();
         try (Connection conn = DbManager.connect();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             
@@ -67,10 +133,13 @@ public class Estoque {
 
             // Adiciona à memória APÓS sucesso no banco de dados
             pessoas.add(pessoa);
+            indicePessoas.adicionar(pessoa);
             System.out.println(LanguageService.getString("stock.person.add.success"));
 
         } catch (SQLException e) {
             throw new RuntimeException(LanguageService.getFormattedString("error.person.add", e.getMessage()));
+        } finally {
+            TEMPO_ADD_PESSOA.recordSince(inicio);
         }
     }
 
@@ -97,13 +166,15 @@ public class Estoque {
 
         // --- INÍCIO DA INTEGRAÇÃO WEKA (FASE 2) ---
         String categoriaSugerida = "Outros"; // Default em caso de falha
+        // Com o classificador online ativo e pronto, a sugestão vem dele; senão, do J48
+        String sugestaoOnline = ClassificadorOnline.sugerir(nome, precoVenda);
         try {
             // Chama o método de predição
-            categoriaSugerida = AnalisePreditiva.preverCategoria(nome, precoVenda);
+            categoriaSugerida = sugestaoOnline != null ? sugestaoOnline : AnalisePreditiva.preverCategoria(nome, precoVenda);
         } catch (Exception e) {
             System.err.println("\nAVISO: Não foi possível sugerir a categoria.");
             //System.err.println("Detalhe: " + e.getMessage()); // Descomente para debug
-            System.err.println("Certifique-se de que o modelo foi treinado (Menu Análise -> Opção 3).");
+            System.err.println("Certifique-se de que o modelo foi treinado (Menu Análise Preditiva -> Opção 10).");
         }
 
         // Mostra a sugestão e permite ao usuário aceitar (dando Enter) ou sobrescrever
@@ -122,22 +193,39 @@ public class Estoque {
         Produto produto = new Produto(id, nome, precoCompra, precoVenda, quantidade, categoria);
 
         String sql = "INSERT INTO Produtos(id, nome, precoCompra, precoVenda, quantidade, categoria) VALUES(?, ?, ?, ?, ?, ?)";
-        try (Connection conn = DbManager.connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setString(1, id);
-            pstmt.setString(2, nome);
-            pstmt.setDouble(3, precoCompra);
-            pstmt.setDouble(4, precoVenda);
-            pstmt.setInt(5, quantidade);
-            pstmt.setString(6, categoria);
-            pstmt.executeUpdate();
+        long inicio = System.nanoTime();
+        try (Connection conn = DbManager.connect()) {
+            // O produto e o seu saldo inicial entram juntos, ou nenhum dos dois
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, id);
+                pstmt.setString(2, nome);
+                pstmt.setDouble(3, precoCompra);
+                pstmt.setDouble(4, precoVenda);
+                pstmt.setInt(5, quantidade);
+                pstmt.setString(6, categoria);
+                pstmt.executeUpdate();
+                // O estoque inicial não gera log: fica registrado como base da conciliação
+                Conciliacao.registrarSaldoInicial(conn, id, quantidade);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
 
             produtos.add(produto);
+            busca.indexar(produto);
+            reposicao.adicionarProduto(produto, quantidade);
+            // A categoria confirmada vira um exemplo novo para o classificador online
+            ClassificadorOnline.aprender(produto);
             System.out.println(LanguageService.getString("stock.product.add.success"));
 
         } catch (SQLException e) {
             throw new RuntimeException(LanguageService.getFormattedString("error.product.add", e.getMessage()));
+        } finally {
+            TEMPO_ADD_PRODUTO.recordSince(inicio);
         }
     }
 
@@ -145,6 +233,7 @@ public class Estoque {
      * Prints a formatted list of all products currently loaded in memory.
      */
     public void listaProdutos() {
+        long inicio = System.nanoTime();
         System.out.println(LanguageService.getString("stock.product.list.title"));
         for (Produto produto : produtos) {
             System.out.println(LanguageService.getFormattedString("stock.product.list.details",
@@ -155,6 +244,7 @@ public class Estoque {
                 produto.getQuantidade())
             );
         }
+        TEMPO_LISTAGEM.recordSince(inicio);
     }
 
     /**
@@ -166,7 +256,7 @@ public class Estoque {
      * <p>
      * 2. Update stock.
      * <p>
-     * It also updates in-memory lists and logs the purchase.
+     * It also updates in-memory lists and publishes the purchase on the {@link BarramentoEventos}, from which it is logged.
      *
      * @param scanner The Scanner instance to read user input.
      * @throws RuntimeException if database connection fails.
@@ -175,13 +265,7 @@ public class Estoque {
         System.out.print(LanguageService.getString("stock.product.prompt.buy"));
         String produtoId = scanner.nextLine();
 
-        Produto produto = null;
-        for (Produto p : produtos) {
-            if (p.getId().equals(produtoId)) {
-                produto = p;
-                break;
-            }
-        }
+        Produto produto = localizarProduto(scanner, produtoId);
 
         if (produto != null) {
             int quantidade = 0;
@@ -190,6 +274,11 @@ public class Estoque {
                 quantidade = scanner.nextInt();
                 scanner.nextLine();
             } while (quantidade <= 0);
+
+            String localId = locais.escolherLocal(scanner, "stock.location.prompt.purchase");
+            if (localId == null) {
+                return;
+            }
             
             Pessoa fornecedor = buscarPessoaPorTipo(scanner, 2); // 2 = Fornecedor
             if (fornecedor == null) {
@@ -197,43 +286,59 @@ public class Estoque {
                 return;
             }
 
-            Titulo titulo = new Titulo(UUID.randomUUID().toString(), produto.getPrecoCompra(), quantidade, false, fornecedor.getId(), "a pagar");
-            
-            String sqlTitulo = "INSERT INTO Titulos(id, valor, quantidade, paga, pessoaId, tipoTitulo) VALUES(?, ?, ?, ?, ?, ?)";
-            String sqlProduto = "UPDATE Produtos SET quantidade = ? WHERE id = ?";
+            Titulo titulo = new Titulo(UUID.randomUUID().toString(), produto.getPrecoCompra(), quantidade, false, fornecedor.getId(), "a pagar", LocalDate.now());
 
+            if (DiarioEscrita.isAtivo() && EstoqueLocais.LOCAL_PADRAO.equals(localId)) {
+                // Write-behind: o diário garante a persistência, o banco é atualizado em segundo plano
+                long inicio = System.nanoTime();
+                try {
+                    DiarioEscrita.registrarMovimento("COMPRA", titulo, produto.getId(), quantidade, fornecedor.getId());
+                    concluirCompra(titulo, produto, fornecedor, quantidade, localId, true);
+                } catch (IOException e) {
+                    System.err.println(LanguageService.getFormattedString("error.journal.write", e.getMessage()));
+                } finally {
+                    TEMPO_COMPRA.recordSince(inicio);
+                }
+                return;
+            }
+            
+            long inicio = System.nanoTime();
+            JfrEvents.TransacaoEvent evento = new JfrEvents.TransacaoEvent();
+            evento.begin();
+            long marca = inicio;
             try (Connection conn = DbManager.connect()) {
+                evento.conexao = System.nanoTime() - marca;
                 // Desabilita temporariamente o auto-commit
                 conn.setAutoCommit(false); 
 
-                try (PreparedStatement pstmtTitulo = conn.prepareStatement(sqlTitulo);
-                     PreparedStatement pstmtProduto = conn.prepareStatement(sqlProduto)) {
-
-                    // 1. Insere o Título
-                    pstmtTitulo.setString(1, titulo.getId());
-                    pstmtTitulo.setDouble(2, titulo.getValor());
-                    pstmtTitulo.setInt(3, titulo.getQuantidade());
-                    pstmtTitulo.setBoolean(4, titulo.isPago());
-                    pstmtTitulo.setString(5, titulo.getPessoaId());
-                    pstmtTitulo.setString(6, titulo.getTipoTitulo());
-                    pstmtTitulo.executeUpdate();
-
-                    // 2. Atualiza o Produto
-                    int novoEstoque = produto.getQuantidade() + quantidade;
-                    pstmtProduto.setInt(1, novoEstoque);
-                    pstmtProduto.setString(2, produto.getId());
-                    pstmtProduto.executeUpdate();
+                try (PreparedStatement pstmtTitulo = conn.prepareStatement(SQL_INSERIR_TITULO)) {
+
+                    // 1. Atualiza o estoque do local (primeiro comando: já reserva a escrita no banco).
+                    // Atualização relativa: não sobrescreve o que outros processos gravaram no estoque
+                    marca = System.nanoTime();
+                    if (!EstoqueLocais.movimentar(conn, produto.getId(), localId, quantidade)) {
+                        conn.rollback();
+                        System.out.println(LanguageService.getString("stock.product.notfound"));
+                        return;
+                    }
+                    evento.linhas++;
+                    int estoqueAtual = EstoqueLocais.lerEstoque(conn, produto.getId(), localId);
+
+                    // 2. Insere o Título
+                    evento.linhas += inserirTitulo(pstmtTitulo, titulo);
+                    evento.comandos = System.nanoTime() - marca;
                     
                     // 3. Confirma a transação
+                    marca = System.nanoTime();
                     conn.commit(); 
+                    evento.commit = System.nanoTime() - marca;
 
-                    // 4. Atualiza listas em memória
-                    titulos.add(titulo);
-                    produto.adicionarEstoque(quantidade);
-                    
-                    // 5. Log (o LogService será modificado também)
-                    LogService.logCompra(produto, quantidade, fornecedor.getId());
-                    System.out.println(LanguageService.getFormattedString("stock.product.buy.success", titulo.getId()));
+                    // 4. Atualiza listas em memória e publica os eventos (o LogService grava o log a partir deles)
+                    marca = System.nanoTime();
+                    locais.sincronizar(produto, localId, estoqueAtual - quantidade);
+                    concluirCompra(titulo, produto, fornecedor, quantidade, localId, false);
+                    evento.publicacao = System.nanoTime() - marca;
+                    evento.sucesso = true;
 
                 } catch (SQLException e) {
                     conn.rollback(); // Desfaz a transação em caso de erro
@@ -243,6 +348,16 @@ public class Estoque {
                 }
             } catch (SQLException e) {
                 System.err.println(LanguageService.getFormattedString("error.purchase.connection", e.getMessage()));
+            } finally {
+                TEMPO_COMPRA.recordSince(inicio);
+                evento.end();
+                if (evento.shouldCommit()) {
+                    evento.operacao = "COMPRA";
+                    evento.produtoId = produto.getId();
+                    evento.pessoaId = fornecedor.getId();
+                    evento.quantidade = quantidade;
+                    evento.commit();
+                }
             }
         } else {
             System.out.println(LanguageService.getString("stock.product.notfound"));
@@ -258,7 +373,7 @@ public class Estoque {
      * <p>
      * 2. Update stock.
      * <p>
-     * It also updates in-memory lists and logs the sale.
+     * It also updates in-memory lists and publishes the sale on the {@link BarramentoEventos}, from which it is logged.
      *
      * @param scanner The Scanner instance to read user input.
      * @throws RuntimeException if database connection fails.
@@ -267,13 +382,7 @@ public class Estoque {
         System.out.print(LanguageService.getString("stock.product.prompt.sell"));
         String produtoId = scanner.nextLine();
 
-        Produto produto = null;
-        for (Produto p : produtos) {
-            if (p.getId().equals(produtoId)) {
-                produto = p;
-                break;
-            }
-        }
+        Produto produto = localizarProduto(scanner, produtoId);
 
         if (produto != null) {
             int quantidade = 0;
@@ -283,8 +392,14 @@ public class Estoque {
                 scanner.nextLine();
             } while (quantidade <= 0);
 
-            if ((produto.getQuantidade() - quantidade) < 0) {
-                System.out.println(LanguageService.getFormattedString("stock.product.insufficient_stock", produto.getQuantidade()));
+            String localId = locais.escolherLocal(scanner, "stock.location.prompt.sale");
+            if (localId == null) {
+                return;
+            }
+
+            int disponivel = estoqueDisponivel(produto, localId, quantidade);
+            if ((disponivel - quantidade) < 0) {
+                System.out.println(LanguageService.getFormattedString("stock.product.insufficient_stock", disponivel));
                 return;
             }
 
@@ -294,40 +409,62 @@ public class Estoque {
                 return;
             }
 
-            Titulo titulo = new Titulo(UUID.randomUUID().toString(), produto.getPrecoVenda(), quantidade, false, cliente.getId(), "a receber");
-            
-            String sqlTitulo = "INSERT INTO Titulos(id, valor, quantidade, paga, pessoaId, tipoTitulo) VALUES(?, ?, ?, ?, ?, ?)";
-            String sqlProduto = "UPDATE Produtos SET quantidade = ? WHERE id = ?";
+            Titulo titulo = new Titulo(UUID.randomUUID().toString(), produto.getPrecoVenda(), quantidade, false, cliente.getId(), "a receber", LocalDate.now());
 
+            if (DiarioEscrita.isAtivo() && EstoqueLocais.LOCAL_PADRAO.equals(localId)) {
+                // Write-behind: o diário garante a persistência, o banco é atualizado em segundo plano
+                long inicio = System.nanoTime();
+                try {
+                    DiarioEscrita.registrarMovimento("VENDA", titulo, produto.getId(), quantidade, cliente.getId());
+                    concluirVenda(titulo, produto, cliente, quantidade, localId, true);
+                } catch (IOException e) {
+                    System.err.println(LanguageService.getFormattedString("error.journal.write", e.getMessage()));
+                } finally {
+                    TEMPO_VENDA.recordSince(inicio);
+                }
+                return;
+            }
+            
+            long inicio = System.nanoTime();
+            JfrEvents.TransacaoEvent evento = new JfrEvents.TransacaoEvent();
+            evento.begin();
+            long marca = inicio;
             try (Connection conn = DbManager.connect()) {
+                evento.conexao = System.nanoTime() - marca;
                 conn.setAutoCommit(false); 
 
-                try (PreparedStatement pstmtTitulo = conn.prepareStatement(sqlTitulo);
-                     PreparedStatement pstmtProduto = conn.prepareStatement(sqlProduto)) {
-
-                    // 1. Insere o Título
-                    pstmtTitulo.setString(1, titulo.getId());
-                    pstmtTitulo.setDouble(2, titulo.getValor());
-                    pstmtTitulo.setInt(3, titulo.getQuantidade());
-                    pstmtTitulo.setBoolean(4, titulo.isPago());
-                    pstmtTitulo.setString(5, titulo.getPessoaId());
-                    pstmtTitulo.setString(6, titulo.getTipoTitulo());
-                    pstmtTitulo.executeUpdate();
-
-                    // 2. Atualiza o Produto
-                    int novoEstoque = produto.getQuantidade() - quantidade;
-                    pstmtProduto.setInt(1, novoEstoque);
-                    pstmtProduto.setString(2, produto.getId());
-                    pstmtProduto.executeUpdate();
+                try (PreparedStatement pstmtTitulo = conn.prepareStatement(SQL_INSERIR_TITULO)) {
+
+                    // 1. Baixa o estoque do local (primeiro comando: já reserva a escrita no banco).
+                    // Baixa condicional: só acontece se o estoque no banco ainda for suficiente,
+                    // mesmo que outro processo tenha vendido o produto depois da nossa leitura
+                    marca = System.nanoTime();
+                    if (!EstoqueLocais.movimentar(conn, produto.getId(), localId, -quantidade)) {
+                        // Outro processo vendeu antes: descarta a venda e atualiza a visão local
+                        conn.rollback();
+                        CONFLITOS_ESTOQUE.increment();
+                        int estoqueAtual = Math.max(EstoqueLocais.lerEstoque(conn, produto.getId(), localId), 0);
+                        locais.sincronizar(produto, localId, estoqueAtual);
+                        System.out.println(LanguageService.getFormattedString("stock.product.insufficient_stock", estoqueAtual));
+                        return;
+                    }
+                    evento.linhas++;
+                    int estoqueAtual = EstoqueLocais.lerEstoque(conn, produto.getId(), localId);
+
+                    // 2. Insere o Título
+                    evento.linhas += inserirTitulo(pstmtTitulo, titulo);
+                    evento.comandos = System.nanoTime() - marca;
                     
+                    marca = System.nanoTime();
                     conn.commit(); 
+                    evento.commit = System.nanoTime() - marca;
 
-                    // 3. Atualiza listas em memória
-                    titulos.add(titulo);
-                    produto.removerEstoque(quantidade);
-                    
-                    LogService.logVenda(produto, quantidade, cliente.getId());
-                    System.out.println(LanguageService.getFormattedString("stock.product.sell.success", titulo.getId()));
+                    // 3. Atualiza listas em memória e publica os eventos
+                    marca = System.nanoTime();
+                    locais.sincronizar(produto, localId, estoqueAtual + quantidade);
+                    concluirVenda(titulo, produto, cliente, quantidade, localId, false);
+                    evento.publicacao = System.nanoTime() - marca;
+                    evento.sucesso = true;
 
                 } catch (SQLException e) {
                     conn.rollback(); 
@@ -337,12 +474,357 @@ public class Estoque {
                 }
             } catch (SQLException e) {
                 System.err.println(LanguageService.getFormattedString("error.sale.connection", e.getMessage()));
+            } finally {
+                TEMPO_VENDA.recordSince(inicio);
+                evento.end();
+                if (evento.shouldCommit()) {
+                    evento.operacao = "VENDA";
+                    evento.produtoId = produto.getId();
+                    evento.pessoaId = cliente.getId();
+                    evento.quantidade = quantidade;
+                    evento.commit();
+                }
             }
         } else {
             System.out.println(LanguageService.getString("stock.product.notfound"));
         }
     }
 
+    /**
+     * Compares the stock with the log history and repairs the drift on request.
+     *
+     * @param scanner The Scanner instance to read user input.
+     */
+    public void conciliarEstoque(Scanner scanner) {
+        Conciliacao.executar(scanner, produtos, locais);
+    }
+
+    /**
+     * Prints the purchase suggestions of the replenishment engine, most urgent first.
+     */
+    public void sugestaoDeCompras() {
+        reposicao.exibirSugestoes();
+    }
+
+    /**
+     * Searches products by name or category and prints the best matches.
+     *
+     * @param scanner The Scanner instance to read user input.
+     */
+    public void buscaProdutos(Scanner scanner) {
+        System.out.print(LanguageService.getString("stock.search.prompt"));
+        String consulta = scanner.nextLine();
+
+        long inicio = System.nanoTime();
+        List<BuscaProdutos.Resultado> resultados = busca.buscar(consulta, LIMITE_BUSCA);
+        double milissegundos = (System.nanoTime() - inicio) / 1_000_000.0;
+
+        if (resultados.isEmpty()) {
+            System.out.println(LanguageService.getString("stock.search.none"));
+            return;
+        }
+        imprimirResultadosBusca(resultados);
+        System.out.println(LanguageService.getFormattedString("stock.search.time", resultados.size(), milissegundos));
+    }
+
+    /**
+     * Resolves what the operator typed into a product: an exact ID or, failing that,
+     * a search by name from whose best matches the operator picks one.
+     *
+     * @param scanner The Scanner instance to read user input.
+     * @param entrada The typed product ID or search text.
+     * @return The product, or {@code null} if nothing was found or chosen.
+     */
+    private Produto localizarProduto(Scanner scanner, String entrada) {
+        Produto produto = busca.porId(entrada);
+        if (produto != null) {
+            return produto;
+        }
+
+        List<BuscaProdutos.Resultado> resultados = busca.buscar(entrada, LIMITE_BUSCA);
+        if (resultados.isEmpty()) {
+            return null;
+        }
+        imprimirResultadosBusca(resultados);
+        System.out.print(LanguageService.getFormattedString("stock.search.prompt.choose", resultados.size()));
+        String escolha = scanner.nextLine().trim();
+        try {
+            int indice = Integer.parseInt(escolha);
+            if (indice >= 1 && indice <= resultados.size()) {
+                return resultados.get(indice - 1).getProduto();
+            }
+        } catch (NumberFormatException e) {
+            // Enter ou texto: a busca foi cancelada
+        }
+        return null;
+    }
+
+    private void imprimirResultadosBusca(List<BuscaProdutos.Resultado> resultados) {
+        System.out.println(LanguageService.getString("stock.search.title"));
+        for (int i = 0; i < resultados.size(); i++) {
+            Produto produto = resultados.get(i).getProduto();
+            System.out.println(LanguageService.getFormattedString("stock.search.row",
+                i + 1, produto.getId(), produto.getNome(), produto.getCategoria(), produto.getQuantidade()));
+        }
+    }
+
+    /**
+     * Moves stock of a product between two locations.
+     * <p>
+     * The decrease at the origin is guarded like a sale and both changes are made in
+     * one transaction, so the total stock of the product never changes. If the origin
+     * no longer has enough stock (ex: another process sold it), the local view of the
+     * origin is refreshed and nothing is moved.
+     *
+     * @param scanner The Scanner instance to read user input.
+     */
+    public void transferenciaEntreLocais(Scanner scanner) {
+        if (!locais.temLocaisAdicionais()) {
+            System.out.println(LanguageService.getString("stock.location.none"));
+            return;
+        }
+
+        System.out.print(LanguageService.getString("stock.transfer.prompt.product"));
+        String produtoId = scanner.nextLine();
+        Produto produto = localizarProduto(scanner, produtoId);
+        if (produto == null) {
+            System.out.println(LanguageService.getString("stock.product.notfound"));
+            return;
+        }
+
+        String origem = locais.escolherLocal(scanner, "stock.location.prompt.origin");
+        if (origem == null) {
+            return;
+        }
+        String destino = locais.escolherLocal(scanner, "stock.location.prompt.destination");
+        if (destino == null) {
+            return;
+        }
+        if (origem.equals(destino)) {
+            System.out.println(LanguageService.getString("stock.transfer.same"));
+            return;
+        }
+
+        int quantidade = 0;
+        do {
+            System.out.print(LanguageService.getString("stock.product.prompt.quantity"));
+            quantidade = scanner.nextInt();
+            scanner.nextLine();
+        } while (quantidade <= 0);
+
+        int disponivel = estoqueDisponivel(produto, origem, quantidade);
+        if (disponivel < quantidade) {
+            System.out.println(LanguageService.getFormattedString("stock.product.insufficient_stock", disponivel));
+            return;
+        }
+
+        // O estoque padrão pode ter movimentos ainda só no diário: aplica antes de ler o banco
+        DiarioEscrita.aguardarAplicacao();
+
+        long inicio = System.nanoTime();
+        try (Connection conn = DbManager.connect()) {
+            conn.setAutoCommit(false);
+            try {
+                if (!EstoqueLocais.movimentar(conn, produto.getId(), origem, -quantidade)) {
+                    conn.rollback();
+                    CONFLITOS_ESTOQUE.increment();
+                    int estoqueAtual = Math.max(EstoqueLocais.lerEstoque(conn, produto.getId(), origem), 0);
+                    locais.sincronizar(produto, origem, estoqueAtual);
+                    System.out.println(LanguageService.getFormattedString("stock.product.insufficient_stock", estoqueAtual));
+                    return;
+                }
+                if (!EstoqueLocais.movimentar(conn, produto.getId(), destino, quantidade)) {
+                    // O destino não aceitou a entrada (ex.: o produto saiu do cadastro): desfaz a saída da origem
+                    conn.rollback();
+                    System.err.println(LanguageService.getFormattedString("stock.transfer.destination_failed", destino));
+                    return;
+                }
+                int estoqueOrigem = EstoqueLocais.lerEstoque(conn, produto.getId(), origem);
+                int estoqueDestino = EstoqueLocais.lerEstoque(conn, produto.getId(), destino);
+                conn.commit();
+
+                // Parte dos valores anteriores à transferência: só o que outro processo mudou é publicado aqui
+                locais.sincronizar(produto, origem, estoqueOrigem + quantidade);
+                locais.sincronizar(produto, destino, estoqueDestino - quantidade);
+                // Entrada antes da saída: quem soma todos os locais nunca vê o estoque cair no meio da transferência
+                locais.ajustar(produto, destino, quantidade);
+                BarramentoEventos.publicarEstoqueAlterado(produto.getId(), destino, quantidade, estoqueDestino);
+                locais.ajustar(produto, origem, -quantidade);
+                BarramentoEventos.publicarEstoqueAlterado(produto.getId(), origem, -quantidade, estoqueOrigem);
+                System.out.println(LanguageService.getFormattedString("stock.transfer.success", quantidade, origem, destino));
+            } catch (SQLException e) {
+                conn.rollback();
+                System.err.println(LanguageService.getFormattedString("error.transfer", e.getMessage()));
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println(LanguageService.getFormattedString("error.transfer", e.getMessage()));
+        } finally {
+            TEMPO_TRANSFERENCIA.recordSince(inicio);
+        }
+    }
+
+    /**
+     * Registers a new stock location.
+     *
+     * @param scanner The Scanner instance to read user input.
+     */
+    public void addLocal(Scanner scanner) {
+        locais.addLocal(scanner);
+    }
+
+    /**
+     * Prints the stock consolidated across locations, its valuation and the products
+     * with low stock.
+     *
+     * @param scanner The Scanner instance to read user input.
+     */
+    public void relatorioEstoqueConsolidado(Scanner scanner) {
+        locais.relatorioConsolidado(scanner, produtos);
+    }
+
+    /**
+     * Registers a purchase or a sale inside the caller's transaction, with no prompts
+     * and no output. Used by {@link ModoLote} to group many operations in one commit.
+     * <p>
+     * The in-memory model is not touched here: the changes to apply after the commit
+     * are appended to {@code aoConfirmar}, and discarded by the caller on rollback.
+     * The {@code Logs} row is written in the same transaction.
+     *
+     * @param conn An open connection inside a transaction.
+     * @param venda {@code true} for a sale, {@code false} for a purchase.
+     * @param produtoId The exact product ID.
+     * @param quantidade Units bought or sold; must be positive.
+     * @param pessoaId The exact ID of the customer (sale) or supplier (purchase).
+     * @param localId The stock location, or {@code null} for the default one.
+     * @param aoConfirmar Receives the in-memory updates to run after the commit.
+     * @return The outcome; anything but {@code OK} leaves the database unchanged.
+     * @throws SQLException if a statement fails; the caller must undo this operation.
+     */
+    ModoLote.Resultado movimentarNaTransacao(Connection conn, boolean venda, String produtoId, int quantidade,
+                                             String pessoaId, String localId, List<Runnable> aoConfirmar) throws SQLException {
+        Produto produto = busca.porId(produtoId);
+        if (produto == null) {
+            return ModoLote.Resultado.PRODUTO_NAO_ENCONTRADO;
+        }
+        if (quantidade <= 0) {
+            return ModoLote.Resultado.QUANTIDADE_INVALIDA;
+        }
+        Pessoa pessoa = indicePessoas.porId(pessoaId);
+        if (pessoa == null || pessoa.getTipo() != (venda ? 1 : 2)) {
+            return ModoLote.Resultado.PESSOA_NAO_ENCONTRADA;
+        }
+        String local = localId == null ? EstoqueLocais.LOCAL_PADRAO : localId;
+        if (!locais.existe(local)) {
+            return ModoLote.Resultado.LOCAL_NAO_ENCONTRADO;
+        }
+
+        // Mesma ordem do fluxo interativo: estoque (condicional na venda) primeiro, depois o título
+        int variacao = venda ? -quantidade : quantidade;
+        if (!EstoqueLocais.movimentar(conn, produto.getId(), local, variacao)) {
+            return venda ? ModoLote.Resultado.ESTOQUE_INSUFICIENTE : ModoLote.Resultado.PRODUTO_NAO_ENCONTRADO;
+        }
+        int estoqueAtual = EstoqueLocais.lerEstoque(conn, produto.getId(), local);
+
+        Titulo titulo = venda
+            ? new Titulo(UUID.randomUUID().toString(), produto.getPrecoVenda(), quantidade, false, pessoa.getId(), "a receber", LocalDate.now())
+            : new Titulo(UUID.randomUUID().toString(), produto.getPrecoCompra(), quantidade, false, pessoa.getId(), "a pagar", LocalDate.now());
+        try (PreparedStatement pstmtTitulo = conn.prepareStatement(SQL_INSERIR_TITULO)) {
+            inserirTitulo(pstmtTitulo, titulo);
+        }
+        // O log entra no mesmo commit do grupo, inclusive com o diário ativo
+        LogService.inserirNaTransacao(conn, venda ? "VENDA" : "COMPRA", pessoa.getId(), produto.getId(), quantidade);
+
+        aoConfirmar.add(() -> {
+            // O estoque lido na transação já inclui este movimento: parte do valor anterior a ele
+            locais.sincronizar(produto, local, estoqueAtual - variacao);
+            if (venda) {
+                aplicarVenda(titulo, produto, pessoa, quantidade, local, true);
+            } else {
+                aplicarCompra(titulo, produto, pessoa, quantidade, local, true);
+            }
+        });
+        return ModoLote.Resultado.OK;
+    }
+
+    /**
+     * Returns the stock of a product in a location for an operation that needs
+     * {@code necessaria} units. The in-memory value is enough when it covers the
+     * operation; otherwise it may be stale (ex: another process bought the product),
+     * so the stock is read again from the database and the in-memory view is
+     * synchronized with it before the caller decides.
+     *
+     * @return The stock to check the operation against.
+     */
+    private int estoqueDisponivel(Produto produto, String localId, int necessaria) {
+        int disponivel = locais.getQuantidade(produto, localId);
+        if (disponivel >= necessaria) {
+            return disponivel;
+        }
+        RELEITURAS_ESTOQUE.increment();
+        // Movimentos ainda só no diário não estão no banco: aplica antes de ler
+        DiarioEscrita.aguardarAplicacao();
+        try (Connection conn = DbManager.connect()) {
+            int noBanco = Math.max(EstoqueLocais.lerEstoque(conn, produto.getId(), localId), 0);
+            locais.sincronizar(produto, localId, noBanco);
+            return noBanco;
+        } catch (SQLException e) {
+            // Sem o banco, a visão local decide; a baixa condicional continua protegendo o estoque
+            return disponivel;
+        }
+    }
+
+    private static int inserirTitulo(PreparedStatement pstmtTitulo, Titulo titulo) throws SQLException {
+        pstmtTitulo.setString(1, titulo.getId());
+        pstmtTitulo.setDouble(2, titulo.getValor());
+        pstmtTitulo.setInt(3, titulo.getQuantidade());
+        pstmtTitulo.setBoolean(4, titulo.isPago());
+        pstmtTitulo.setString(5, titulo.getPessoaId());
+        pstmtTitulo.setString(6, titulo.getTipoTitulo());
+        pstmtTitulo.setString(7, titulo.getDataEmissao().toString());
+        pstmtTitulo.setString(8, titulo.getDataVencimento().toString());
+        return pstmtTitulo.executeUpdate();
+    }
+
+    /**
+     * Applies a persisted purchase to the in-memory model and publishes its events.
+     */
+    private void concluirCompra(Titulo titulo, Produto produto, Pessoa fornecedor, int quantidade, String localId, boolean logGravado) {
+        aplicarCompra(titulo, produto, fornecedor, quantidade, localId, logGravado);
+        System.out.println(LanguageService.getFormattedString("stock.product.buy.success", titulo.getId()));
+    }
+
+    private void aplicarCompra(Titulo titulo, Produto produto, Pessoa fornecedor, int quantidade, String localId, boolean logGravado) {
+        titulos.add(titulo);
+        saldos.registrar(titulo);
+        fluxoCaixa.registrar(titulo);
+        int estoqueResultante = locais.ajustar(produto, localId, quantidade);
+
+        BarramentoEventos.publicarCompra(produto.getId(), fornecedor.getId(), titulo.getId(), quantidade, titulo.getValorTotal(), logGravado);
+        BarramentoEventos.publicarEstoqueAlterado(produto.getId(), localId, quantidade, estoqueResultante);
+        UNIDADES_COMPRADAS.add(quantidade);
+    }
+
+    /**
+     * Applies a persisted sale to the in-memory model and publishes its events.
+     */
+    private void concluirVenda(Titulo titulo, Produto produto, Pessoa cliente, int quantidade, String localId, boolean logGravado) {
+        aplicarVenda(titulo, produto, cliente, quantidade, localId, logGravado);
+        System.out.println(LanguageService.getFormattedString("stock.product.sell.success", titulo.getId()));
+    }
+
+    private void aplicarVenda(Titulo titulo, Produto produto, Pessoa cliente, int quantidade, String localId, boolean logGravado) {
+        titulos.add(titulo);
+        saldos.registrar(titulo);
+        fluxoCaixa.registrar(titulo);
+        int estoqueResultante = locais.ajustar(produto, localId, -quantidade);
+
+        BarramentoEventos.publicarVenda(produto.getId(), cliente.getId(), titulo.getId(), quantidade, titulo.getValorTotal(), logGravado);
+        BarramentoEventos.publicarEstoqueAlterado(produto.getId(), localId, -quantidade, estoqueResultante);
+        UNIDADES_VENDIDAS.add(quantidade);
+    }
+
     /**
      * Marks a title as paid in the database.
      * <p>
@@ -365,9 +847,24 @@ public class Estoque {
         }
 
         if (titulo != null) {
-            if (!titulo.isPago()) {
+            if (!titulo.isPago() && DiarioEscrita.isAtivo()) {
+                long inicio = System.nanoTime();
+                try {
+                    DiarioEscrita.registrarPagamento(List.of(titulo));
+                    titulo.setPaga(true);
+                    saldos.baixar(titulo);
+                    fluxoCaixa.baixar(titulo);
+                    BarramentoEventos.publicarTituloPago(titulo);
+                    System.out.println(LanguageService.getString("stock.title.pay.success"));
+                } catch (IOException e) {
+                    System.err.println(LanguageService.getFormattedString("error.journal.write", e.getMessage()));
+                } finally {
+                    TEMPO_PAGAMENTO.recordSince(inicio);
+                }
+            } else if (!titulo.isPago()) {
                 String sql = "UPDATE Titulos SET paga = ? WHERE id = ?";
                 
+                long inicio = System.nanoTime();
                 try (Connection conn = DbManager.connect();
                      PreparedStatement pstmt = conn.prepareStatement(sql)) {
                     
@@ -377,6 +874,9 @@ public class Estoque {
 
                     if (affectedRows > 0) {
                         titulo.setPaga(true); // Atualiza objeto em memória
+                        saldos.baixar(titulo);
+                        fluxoCaixa.baixar(titulo);
+                        BarramentoEventos.publicarTituloPago(titulo);
                         System.out.println(LanguageService.getString("stock.title.pay.success"));
                     } else {
                         System.out.println(LanguageService.getString("error.title.notfound.db"));
@@ -384,6 +884,8 @@ public class Estoque {
 
                 } catch (SQLException e) {
                     System.err.println(LanguageService.getFormattedString("error.payment.generic", e.getMessage()));
+                } finally {
+                    TEMPO_PAGAMENTO.recordSince(inicio);
                 }
             } else {
                 System.out.println(LanguageService.getString("stock.title.already_paid"));
@@ -393,10 +895,262 @@ public class Estoque {
         }
     }
 
+    /**
+     * Settles many titles at once.
+     * <p>
+     * Prompts for how titles are selected: by filters (person, type and issue period,
+     * blank meaning any), by a list of IDs typed by the user, or by a file with one ID
+     * per line. The selected open titles are then paid by {@link #pagarTitulos(Collection)}.
+     *
+     * @param scanner The Scanner instance to read user input.
+     */
+    public void pagamentoEmLote(Scanner scanner) {
+        System.out.println(LanguageService.getString("stock.title.batch.mode1"));
+        System.out.println(LanguageService.getString("stock.title.batch.mode2"));
+        System.out.println(LanguageService.getString("stock.title.batch.mode3"));
+        System.out.print(LanguageService.getString("prompt.choice"));
+        String modo = scanner.nextLine().trim();
+
+        List<Titulo> selecionados;
+        switch (modo) {
+            case "1":
+                selecionados = selecionarPorFiltros(scanner);
+                break;
+            case "2":
+                System.out.print(LanguageService.getString("stock.title.batch.prompt.ids"));
+                selecionados = selecionarPorIds(Arrays.asList(scanner.nextLine().split("[,;\\s]+")));
+                break;
+            case "3":
+                System.out.print(LanguageService.getString("stock.title.batch.prompt.file"));
+                String caminho = scanner.nextLine().trim();
+                try (BufferedReader br = new BufferedReader(new FileReader(caminho))) {
+                    List<String> ids = new ArrayList<>();
+                    String linha;
+                    while ((linha = br.readLine()) != null) {
+                        ids.add(linha);
+                    }
+                    selecionados = selecionarPorIds(ids);
+                } catch (IOException e) {
+                    System.err.println(LanguageService.getFormattedString("error.title.batch.file", e.getMessage()));
+                    return;
+                }
+                break;
+            default:
+                System.out.println(LanguageService.getString("option.invalid"));
+                return;
+        }
+
+        if (selecionados == null) {
+            return;
+        }
+        if (selecionados.isEmpty()) {
+            System.out.println(LanguageService.getString("stock.title.batch.none"));
+            return;
+        }
+
+        System.out.print(LanguageService.getFormattedString("stock.title.batch.confirm", selecionados.size()));
+        if (!scanner.nextLine().trim().equalsIgnoreCase(LanguageService.getString("prompt.yes"))) {
+            return;
+        }
+
+        ResumoPagamento resumo = pagarTitulos(selecionados);
+        if (resumo != null) {
+            System.out.println(LanguageService.getFormattedString("stock.title.batch.summary",
+                resumo.getTitulosPagos(), resumo.getTotalAPagar(), resumo.getTotalAReceber(), resumo.getTitulosIgnorados()));
+        }
+    }
+
+    /**
+     * Marks the given titles as paid in a single database transaction.
+     * <p>
+     * The updates are sent as one JDBC batch. Titles that are already paid, in memory
+     * or in the database, are skipped. In-memory state and balances are only updated
+     * after the commit, in a single pass.
+     *
+     * @param selecionados The titles to settle.
+     * @return The totals settled, or {@code null} if the transaction failed and was rolled back.
+     */
+    public ResumoPagamento pagarTitulos(Collection<Titulo> selecionados) {
+        ResumoPagamento resumo = new ResumoPagamento();
+        List<Titulo> abertos = new ArrayList<>(selecionados.size());
+        for (Titulo titulo : selecionados) {
+            if (titulo.isPago()) {
+                resumo.titulosIgnorados++;
+            } else {
+                abertos.add(titulo);
+            }
+        }
+        if (abertos.isEmpty()) {
+            return resumo;
+        }
+
+        if (DiarioEscrita.isAtivo()) {
+            long inicio = System.nanoTime();
+            try {
+                DiarioEscrita.registrarPagamento(abertos);
+            } catch (IOException e) {
+                System.err.println(LanguageService.getFormattedString("error.journal.write", e.getMessage()));
+                return null;
+            } finally {
+                TEMPO_PAGAMENTO_LOTE.recordSince(inicio);
+            }
+            int[] todos = new int[abertos.size()];
+            Arrays.fill(todos, 1);
+            baixarEmMemoria(abertos, todos, resumo);
+            return resumo;
+        }
+
+        // A condição "paga = 0" evita baixar de novo um título já pago por outro processo
+        String sql = "UPDATE Titulos SET paga = ? WHERE id = ? AND paga = ?";
+        long inicio = System.nanoTime();
+        try (Connection conn = DbManager.connect()) {
+            conn.setAutoCommit(false);
+
+            int[] resultados;
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (Titulo titulo : abertos) {
+                    pstmt.setBoolean(1, true);
+                    pstmt.setString(2, titulo.getId());
+                    pstmt.setBoolean(3, false);
+                    pstmt.addBatch();
+                }
+                resultados = pstmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                System.err.println(LanguageService.getFormattedString("error.payment.generic", e.getMessage()));
+                return null;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+            baixarEmMemoria(abertos, resultados, resumo);
+        } catch (SQLException e) {
+            System.err.println(LanguageService.getFormattedString("error.payment.generic", e.getMessage()));
+            return null;
+        } finally {
+            TEMPO_PAGAMENTO_LOTE.recordSince(inicio);
+        }
+        return resumo;
+    }
+
+    /**
+     * Marks the settled titles as paid in memory, in a single pass, and accumulates the totals.
+     *
+     * @param abertos The titles that were sent to be paid.
+     * @param resultados Rows updated for each title; 0 means it was already paid elsewhere.
+     * @param resumo The summary being filled.
+     */
+    private void baixarEmMemoria(List<Titulo> abertos, int[] resultados, ResumoPagamento resumo) {
+        for (int i = 0; i < abertos.size(); i++) {
+            Titulo titulo = abertos.get(i);
+            if (resultados[i] > 0) {
+                titulo.setPaga(true);
+                saldos.baixar(titulo);
+                fluxoCaixa.baixar(titulo);
+                BarramentoEventos.publicarTituloPago(titulo);
+                resumo.titulosPagos++;
+                if (titulo.isAReceber()) {
+                    resumo.totalAReceber += titulo.getValorTotal();
+                } else {
+                    resumo.totalAPagar += titulo.getValorTotal();
+                }
+            } else {
+                resumo.titulosIgnorados++;
+            }
+        }
+    }
+
+    /**
+     * Prompts for person, type and issue period and returns the matching open titles.
+     *
+     * @return The selected titles, or {@code null} if a date could not be parsed.
+     */
+    private List<Titulo> selecionarPorFiltros(Scanner scanner) {
+        DateTimeFormatter formato = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+        System.out.print(LanguageService.getString("stock.title.batch.prompt.person"));
+        String pessoaId = scanner.nextLine().trim();
+        System.out.print(LanguageService.getString("stock.title.batch.prompt.type"));
+        String tipo = scanner.nextLine().trim();
+        String tipoTitulo = tipo.equals("1") ? "a pagar" : tipo.equals("2") ? "a receber" : null;
+
+        LocalDate dataInicial = null;
+        LocalDate dataFinal = null;
+        try {
+            System.out.print(LanguageService.getString("stock.title.batch.prompt.start_date"));
+            String linha = scanner.nextLine().trim();
+            if (!linha.isEmpty()) {
+                dataInicial = LocalDate.parse(linha, formato);
+            }
+            System.out.print(LanguageService.getString("stock.title.batch.prompt.end_date"));
+            linha = scanner.nextLine().trim();
+            if (!linha.isEmpty()) {
+                dataFinal = LocalDate.parse(linha, formato);
+            }
+        } catch (DateTimeParseException e) {
+            System.err.println(LanguageService.getString("log.date.invalid_format"));
+            return null;
+        }
+
+        List<Titulo> selecionados = new ArrayList<>();
+        for (Titulo t : titulos) {
+            if (t.isPago()) {
+                continue;
+            }
+            if (!pessoaId.isEmpty() && !t.getPessoaId().equals(pessoaId)) {
+                continue;
+            }
+            if (tipoTitulo != null && !t.getTipoTitulo().equals(tipoTitulo)) {
+                continue;
+            }
+            // Títulos sem data de emissão só entram quando nenhum período é informado
+            if ((dataInicial != null || dataFinal != null) && t.getDataEmissao() == null) {
+                continue;
+            }
+            if (dataInicial != null && t.getDataEmissao().isBefore(dataInicial)) {
+                continue;
+            }
+            if (dataFinal != null && t.getDataEmissao().isAfter(dataFinal)) {
+                continue;
+            }
+            selecionados.add(t);
+        }
+        return selecionados;
+    }
+
+    /**
+     * Resolves title IDs against the in-memory list using a single index built once.
+     * Unknown IDs are reported and skipped.
+     */
+    List<Titulo> selecionarPorIds(Collection<String> ids) {
+        Map<String, Titulo> indice = new HashMap<>(titulos.size() * 2);
+        for (Titulo t : titulos) {
+            indice.put(t.getId(), t);
+        }
+
+        List<Titulo> selecionados = new ArrayList<>();
+        Set<String> vistos = new HashSet<>();
+        for (String bruto : ids) {
+            String id = bruto.trim();
+            if (id.isEmpty() || id.startsWith("#") || !vistos.add(id)) {
+                continue;
+            }
+            Titulo titulo = indice.get(id);
+            if (titulo == null) {
+                System.out.println(LanguageService.getFormattedString("stock.title.batch.unknown", id));
+            } else {
+                selecionados.add(titulo);
+            }
+        }
+        return selecionados;
+    }
+
     /**
      * Prints a formatted list of all open titles from the in-memory list.
      */
     public void listarTitulosDeDestaque() {
+        long inicio = System.nanoTime();
         System.out.println(LanguageService.getString("stock.title.list.open"));
         for (Titulo title : titulos) {
             if (!title.isPago()) {
@@ -405,10 +1159,71 @@ public class Estoque {
                     title.getValor() * title.getQuantidade(), title.getPessoaId(), title.getTipoTitulo()));
             }
         }
+        TEMPO_LISTAGEM.recordSince(inicio);
     }
 
     /**
-     * Searches in-memory list for a person by ID and type.
+     * Prints the open receivable/payable balances and their aging.
+     * <p>
+     * Prompts for a person ID; a blank answer shows everyone with open titles.
+     * Balances come from {@link SaldosPessoa}, so no title is scanned.
+     *
+     * @param scanner The Scanner instance to read user input.
+     */
+    public void exibirSaldos(Scanner scanner) {
+        System.out.print(LanguageService.getString("balance.prompt.person"));
+        String id = scanner.nextLine().trim();
+        saldos.exibirRelatorio(id.isEmpty() ? null : id, pessoas);
+    }
+
+    /**
+     * Prints the cash-flow projection of the open titles by due date.
+     * <p>
+     * Prompts for the period length (weekly or monthly) and the number of periods
+     * ({@code erp.cashflow.periods} by default). The projection comes from
+     * {@link FluxoCaixa}, so no title is scanned.
+     *
+     * @param scanner The Scanner instance to read user input.
+     */
+    public void exibirFluxoDeCaixa(Scanner scanner) {
+        System.out.print(LanguageService.getString("cashflow.prompt.period"));
+        String linha = scanner.nextLine().trim();
+        FluxoCaixa.Periodo periodo = linha.equals("1") ? FluxoCaixa.Periodo.SEMANA : FluxoCaixa.Periodo.MES;
+        if (!linha.isEmpty() && !linha.equals("1") && !linha.equals("2")) {
+            System.out.println(LanguageService.getString("option.invalid"));
+            return;
+        }
+
+        int periodos = PERIODOS_FLUXO_CAIXA;
+        System.out.print(LanguageService.getFormattedString("cashflow.prompt.count", PERIODOS_FLUXO_CAIXA));
+        linha = scanner.nextLine().trim();
+        if (!linha.isEmpty()) {
+            try {
+                periodos = Integer.parseInt(linha);
+            } catch (NumberFormatException e) {
+                periodos = 0;
+            }
+            if (periodos < 1 || periodos > 52) {
+                System.out.println(LanguageService.getString("option.invalid"));
+                return;
+            }
+        }
+
+        FluxoCaixa.exibirRelatorio(fluxoCaixa.projetar(LocalDate.now(), periodo, periodos), periodo, pessoas);
+    }
+
+    /**
+     * @return The incrementally maintained open balances per person.
+     */
+    public SaldosPessoa getSaldos() {
+        return saldos;
+    }
+
+    /**
+     * Searches the in-memory index for a person by ID and type.
+     * <p>
+     * If the input is not the ID of a person of that type, it is taken as the start
+     * of a name and the operator picks one of the first matches of that type.
      *
      * @param scanner The Scanner instance to read user input.
      * @param tipo The required type (1-Cliente, 2-Fornecedor, 3-Funcionário).
@@ -416,28 +1231,50 @@ public class Estoque {
      */
     private Pessoa buscarPessoaPorTipo(Scanner scanner, int tipo) {
         System.out.print(LanguageService.getFormattedString("stock.person.prompt.by_type", tipo));
-        String id = scanner.nextLine();
-        for (Pessoa p : pessoas) {
-            if (p.getId().equals(id) && p.getTipo() == tipo) {
-                return p;
+        String entrada = scanner.nextLine();
+        Pessoa pessoa = indicePessoas.porId(entrada);
+        if (pessoa != null && pessoa.getTipo() == tipo) {
+            return pessoa;
+        }
+        if (entrada.trim().isEmpty()) {
+            return null;
+        }
+
+        List<Pessoa> sugestoes = indicePessoas.buscarPorPrefixo(tipo, entrada, LIMITE_BUSCA);
+        if (sugestoes.isEmpty()) {
+            return null;
+        }
+        imprimirPessoas(sugestoes, true);
+        System.out.print(LanguageService.getFormattedString("stock.person.prompt.choose", sugestoes.size()));
+        String escolha = scanner.nextLine().trim();
+        try {
+            int indice = Integer.parseInt(escolha);
+            if (indice >= 1 && indice <= sugestoes.size()) {
+                return sugestoes.get(indice - 1);
             }
+        } catch (NumberFormatException e) {
+            // Enter ou texto: a busca foi cancelada
         }
         return null;
     }
 
     /**
-     * Searches in-memory list for a person by their ID.
+     * Searches the in-memory index for a person by their ID.
      *
      * @param id The ID to search for.
      * @return The matching {@code Pessoa} object, or {@code null} if not found.
      */
     private Pessoa buscarPessoaPorId(String id) {
-        for (Pessoa p : pessoas) {
-            if (p.getId().equals(id)) {
-                return p;
-            }
+        return indicePessoas.porId(id);
+    }
+
+    private void imprimirPessoas(List<Pessoa> lista, boolean numerada) {
+        for (int i = 0; i < lista.size(); i++) {
+            Pessoa pessoa = lista.get(i);
+            String linha = LanguageService.getFormattedString("stock.person.list.details",
+                pessoa.getId(), pessoa.getNome(), pessoa.getTipo());
+            System.out.println(numerada ? String.format("%2d. %s", i + 1, linha) : linha);
         }
-        return null;
     }
 
     /**
@@ -464,6 +1301,7 @@ public class Estoque {
                 );
                 produtos.add(produto);
             }
+            busca.recarregar(produtos);
         } catch (SQLException e) {
             throw new RuntimeException(LanguageService.getString("error.db.load_products") + e.getMessage(), e);
         }
@@ -483,16 +1321,22 @@ public class Estoque {
 
             titulos.clear();
             while (rs.next()) {
+                String dataEmissao = rs.getString("dataEmissao");
+                String dataVencimento = rs.getString("dataVencimento");
                 Titulo titulo = new Titulo(
                     rs.getString("id"),
                     rs.getDouble("valor"),
                     rs.getInt("quantidade"),
                     rs.getBoolean("paga"),
                     rs.getString("pessoaId"),
-                    rs.getString("tipoTitulo")
+                    rs.getString("tipoTitulo"),
+                    dataEmissao == null ? null : LocalDate.parse(dataEmissao),
+                    dataVencimento == null ? null : LocalDate.parse(dataVencimento)
                 );
                 titulos.add(titulo);
             }
+            saldos.recarregar(titulos);
+            fluxoCaixa.recarregar(titulos);
         } catch (SQLException e) {
             throw new RuntimeException(LanguageService.getString("error.db.load_titles") + e.getMessage(), e);
         }
@@ -519,20 +1363,32 @@ public class Estoque {
                 );
                 pessoas.add(pessoa);
             }
+            indicePessoas.recarregar(pessoas);
         } catch (SQLException e) {
             throw new RuntimeException(LanguageService.getString("error.db.load_people") + e.getMessage(), e);
         }
     }
 
     /**
-     * Prints a formatted list of all people from the in-memory list.
+     * Prints a formatted list of the people from the in-memory list.
+     * <p>
+     * The user may type the start of a name (of any word of it) to list only the
+     * matching people, in name order; a blank filter lists everyone.
+     *
+     * @param scanner The Scanner instance to read user input.
      */
-    public void listaPessoas() {
+    public void listaPessoas(Scanner scanner) {
+        System.out.print(LanguageService.getString("stock.person.prompt.filter"));
+        String filtro = scanner.nextLine();
+
+        long inicio = System.nanoTime();
         System.out.println(LanguageService.getString("stock.person.list.title"));
-        for (Pessoa pessoa : pessoas) {
-            System.out.println(LanguageService.getFormattedString("stock.person.list.details",
-                pessoa.getId(), pessoa.getNome(), pessoa.getTipo()));
+        if (filtro.trim().isEmpty()) {
+            imprimirPessoas(pessoas, false);
+        } else {
+            imprimirPessoas(indicePessoas.buscarPorPrefixo(IndicePessoas.TODOS_OS_TIPOS, filtro, Integer.MAX_VALUE), false);
         }
+        TEMPO_LISTAGEM.recordSince(inicio);
     }
 
     /**
@@ -597,6 +1453,7 @@ public class Estoque {
 
             // Atualiza no banco de dados
             String sql = "UPDATE Pessoas SET id = ?, nome = ?, tipo = ? WHERE id = ?";
+            long inicio = System.nanoTime();
             try (Connection conn = DbManager.connect();
                  PreparedStatement pstmt = conn.prepareStatement(sql)) {
                 
@@ -608,16 +1465,20 @@ public class Estoque {
                 int affectedRows = pstmt.executeUpdate();
 
                 if (affectedRows > 0) {
-                    // Atualiza o objeto na lista em memória
+                    // Atualiza o objeto na lista em memória, reindexando com os novos valores
+                    indicePessoas.remover(pessoa);
                     pessoa.setId(novoId);
                     pessoa.setNome(novoNome);
                     pessoa.setTipo(novoTipo);
+                    indicePessoas.adicionar(pessoa);
                     System.out.println(LanguageService.getString("stock.person.edit.success"));
                 } else {
                     System.out.println(LanguageService.getString("error.id.notfound.db"));
                 }
             } catch (SQLException e) {
                 System.err.println(LanguageService.getFormattedString("error.person.edit", e.getMessage()));
+            } finally {
+                TEMPO_EDITA_PESSOA.recordSince(inicio);
             }
         } else {
             System.out.println(LanguageService.getString("stock.person.id_notfound"));
@@ -647,6 +1508,7 @@ public class Estoque {
 
         if (pessoa != null) {
             String sql = "DELETE FROM Pessoas WHERE id = ?";
+            long inicio = System.nanoTime();
             try (Connection conn = DbManager.connect();
                  PreparedStatement pstmt = conn.prepareStatement(sql)) {
                 
@@ -655,7 +1517,8 @@ public class Estoque {
 
                 if (affectedRows > 0) {
                     // Remove da lista em memória
-                    Pessoa removida = pessoas.remove(pessoas.indexOf(pessoa));
+                    pessoas.remove(pessoa);
+                    indicePessoas.remover(pessoa);
                     System.out.println(LanguageService.getFormattedString("stock.person.remove.success", pessoa.getNome()));
                 } else {
                     System.out.println(LanguageService.getString("error.id.notfound.db"));
@@ -668,6 +1531,8 @@ public class Estoque {
                 } else {
                     System.err.println(LanguageService.getFormattedString("error.person.remove.generic", e.getMessage()));
                 }
+            } finally {
+                TEMPO_REMOVE_PESSOA.recordSince(inicio);
             }
         } else {
             System.out.println(LanguageService.getString("stock.person.id_notfound"));
@@ -0,0 +1,381 @@
+package com.erp;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+/**
+ * Stock per location (warehouses, stores).
+ * <p>
+ * The default location ({@link #LOCAL_PADRAO}) is the original single stock: it is
+ * still kept in {@code Produtos.quantidade} and in {@link Produto#getQuantidade()}, so
+ * while no other location is registered nothing changes. Additional locations are
+ * registered in {@code Locais} and their stock is kept in {@code EstoqueLocal}
+ * (product x location), mirrored in memory by this class.
+ * <p>
+ * Consolidated queries (stock, valuation, low stock) aggregate every location with
+ * parallel streams over the products.
+ */
+public class EstoqueLocais {
+    public static final String LOCAL_PADRAO = "PRINCIPAL";
+
+    private static final MetricsService.Timer TEMPO_CONSOLIDADO = MetricsService.timer("estoque.consolidado");
+
+    // Locais além do padrão, id -> nome, na ordem de cadastro
+    private final Map<String, String> locais = Collections.synchronizedMap(new LinkedHashMap<>());
+    // produtoId -> (localId -> quantidade), apenas locais além do padrão
+    private final ConcurrentMap<String, ConcurrentMap<String, Integer>> saldos = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the location tables. Called once by {@link DbManager#initializeDatabase()}.
+     *
+     * @param stmt An open statement on the database.
+     * @throws SQLException if the tables cannot be created.
+     */
+    static void inicializar(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS Locais ("
+                   + " id TEXT PRIMARY KEY,"
+                   + " nome TEXT NOT NULL"
+                   + ");");
+        stmt.execute("CREATE TABLE IF NOT EXISTS EstoqueLocal ("
+                   + " produtoId TEXT NOT NULL,"
+                   + " localId TEXT NOT NULL,"
+                   + " quantidade INTEGER NOT NULL,"
+                   + " PRIMARY KEY (produtoId, localId)"
+                   + ");");
+    }
+
+    /**
+     * Loads the registered locations and their stock.
+     *
+     * @throws RuntimeException if the database cannot be read.
+     */
+    public void carregar() throws RuntimeException {
+        try (Connection conn = DbManager.connect()) {
+            locais.clear();
+            saldos.clear();
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT id, nome FROM Locais ORDER BY rowid");
+                 ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    locais.put(rs.getString("id"), rs.getString("nome"));
+                }
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT produtoId, localId, quantidade FROM EstoqueLocal");
+                 ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    saldos.computeIfAbsent(rs.getString("produtoId"), _ -> new ConcurrentHashMap<>())
+                          .put(rs.getString("localId"), rs.getInt("quantidade"));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(LanguageService.getFormattedString("error.location.load", e.getMessage()), e);
+        }
+    }
+
+    /**
+     * @return Whether any location besides the default one is registered.
+     */
+    public boolean temLocaisAdicionais() {
+        return !locais.isEmpty();
+    }
+
+    public boolean existe(String localId) {
+        return LOCAL_PADRAO.equals(localId) || locais.containsKey(localId);
+    }
+
+    /**
+     * Prompts for a location. Without additional locations nothing is asked and the
+     * default location is returned, keeping the single-location flow unchanged.
+     *
+     * @param scanner The Scanner instance to read user input.
+     * @param chave The message key of the prompt.
+     * @return The chosen location, or {@code null} if it does not exist.
+     */
+    public String escolherLocal(Scanner scanner, String chave) {
+        if (!temLocaisAdicionais()) {
+            return LOCAL_PADRAO;
+        }
+        System.out.print(LanguageService.getFormattedString(chave, String.join(", ", getIds())));
+        String localId = scanner.nextLine().trim();
+        if (localId.isEmpty()) {
+            return LOCAL_PADRAO;
+        }
+        if (!existe(localId)) {
+            System.out.println(LanguageService.getString("stock.location.notfound"));
+            return null;
+        }
+        return localId;
+    }
+
+    /**
+     * @return The default location followed by the registered ones.
+     */
+    public List<String> getIds() {
+        List<String> ids = new ArrayList<>();
+        ids.add(LOCAL_PADRAO);
+        synchronized (locais) {
+            ids.addAll(locais.keySet());
+        }
+        return ids;
+    }
+
+    /**
+     * @return The in-memory stock of a product in a location.
+     */
+    public int getQuantidade(Produto produto, String localId) {
+        if (LOCAL_PADRAO.equals(localId)) {
+            return produto.getQuantidade();
+        }
+        Map<String, Integer> porLocal = saldos.get(produto.getId());
+        return porLocal == null ? 0 : porLocal.getOrDefault(localId, 0);
+    }
+
+    /**
+     * @return The in-memory stock of a product summed over every location.
+     */
+    public int getQuantidadeTotal(Produto produto) {
+        int total = produto.getQuantidade();
+        Map<String, Integer> porLocal = saldos.get(produto.getId());
+        if (porLocal != null) {
+            for (int quantidade : porLocal.values()) {
+                total += quantidade;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Replaces the in-memory stock of a product in a location with the value read
+     * from the database. A difference (ex: another process moved the product) is
+     * published as a stock change, so the subscribers following the stock see it.
+     */
+    public void sincronizar(Produto produto, String localId, int quantidade) {
+        int anterior;
+        if (LOCAL_PADRAO.equals(localId)) {
+            anterior = produto.getQuantidade();
+            produto.sincronizarEstoque(quantidade);
+        } else {
+            Integer lido = saldos.computeIfAbsent(produto.getId(), _ -> new ConcurrentHashMap<>()).put(localId, quantidade);
+            anterior = lido == null ? 0 : lido;
+        }
+        if (quantidade != anterior) {
+            BarramentoEventos.publicarEstoqueAlterado(produto.getId(), localId, quantidade - anterior, quantidade);
+        }
+    }
+
+    /**
+     * Applies a stock change to the in-memory stock of a product in a location.
+     *
+     * @return The resulting stock.
+     */
+    public int ajustar(Produto produto, String localId, int variacao) {
+        if (LOCAL_PADRAO.equals(localId)) {
+            if (variacao >= 0) {
+                produto.adicionarEstoque(variacao);
+            } else {
+                produto.removerEstoque(-variacao);
+            }
+            return produto.getQuantidade();
+        }
+        return saldos.computeIfAbsent(produto.getId(), _ -> new ConcurrentHashMap<>())
+                     .merge(localId, variacao, Integer::sum);
+    }
+
+    /**
+     * Changes the stock of a product in a location in the database, inside the
+     * caller's transaction. The update is relative, and a decrease only happens if
+     * the stock in the database is still sufficient.
+     *
+     * @param conn An open connection, usually inside a transaction.
+     * @param variacao The signed change in units.
+     * @return Whether the stock was changed; {@code false} if it was insufficient
+     *         (or, for the default location, if the product no longer exists).
+     * @throws SQLException if the update fails.
+     */
+    static boolean movimentar(Connection conn, String produtoId, String localId, int variacao) throws SQLException {
+        String sql;
+        if (LOCAL_PADRAO.equals(localId)) {
+            sql = "UPDATE Produtos SET quantidade = quantidade + ? WHERE id = ? AND quantidade + ? >= 0";
+        } else if (variacao >= 0) {
+            // Primeira entrada do produto no local cria a linha
+            sql = "INSERT INTO EstoqueLocal(quantidade, produtoId, localId) VALUES(?, ?, ?)"
+                + " ON CONFLICT(produtoId, localId) DO UPDATE SET quantidade = quantidade + excluded.quantidade";
+        } else {
+            sql = "UPDATE EstoqueLocal SET quantidade = quantidade + ? WHERE produtoId = ? AND localId = ? AND quantidade + ? >= 0";
+        }
+
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, variacao);
+            pstmt.setString(2, produtoId);
+            if (LOCAL_PADRAO.equals(localId)) {
+                pstmt.setInt(3, variacao);
+            } else {
+                pstmt.setString(3, localId);
+                if (variacao < 0) {
+                    pstmt.setInt(4, variacao);
+                }
+            }
+            return pstmt.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * Reads the current stock of a product in a location, including changes made by
+     * other processes.
+     *
+     * @return The stock, or -1 if the product no longer exists.
+     * @throws SQLException if the query fails.
+     */
+    static int lerEstoque(Connection conn, String produtoId, String localId) throws SQLException {
+        String sql = LOCAL_PADRAO.equals(localId)
+            ? "SELECT quantidade FROM Produtos WHERE id = ?"
+            : "SELECT quantidade FROM EstoqueLocal WHERE produtoId = ? AND localId = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, produtoId);
+            if (!LOCAL_PADRAO.equals(localId)) {
+                pstmt.setString(2, localId);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt("quantidade");
+                }
+                return LOCAL_PADRAO.equals(localId) ? -1 : 0;
+            }
+        }
+    }
+
+    /**
+     * Prompts for the details of a new location and registers it.
+     *
+     * @param scanner The Scanner instance to read user input.
+     */
+    public void addLocal(Scanner scanner) {
+        System.out.print(LanguageService.getString("stock.location.prompt.id"));
+        String id = scanner.nextLine().trim();
+        System.out.print(LanguageService.getString("stock.location.prompt.name"));
+        String nome = scanner.nextLine().trim();
+        if (id.isEmpty() || existe(id)) {
+            System.out.println(LanguageService.getString("stock.location.invalid"));
+            return;
+        }
+
+        try (Connection conn = DbManager.connect();
+             PreparedStatement pstmt = conn.prepareStatement("INSERT INTO Locais(id, nome) VALUES(?, ?)")) {
+            pstmt.setString(1, id);
+            pstmt.setString(2, nome);
+            pstmt.executeUpdate();
+            locais.put(id, nome);
+            System.out.println(LanguageService.getString("stock.location.add.success"));
+        } catch (SQLException e) {
+            System.err.println(LanguageService.getFormattedString("error.location.add", e.getMessage()));
+        }
+    }
+
+    /**
+     * Consolidated position of a single product.
+     */
+    private static final class Posicao {
+        final Produto produto;
+        final int[] porLocal;
+        final int total;
+
+        Posicao(Produto produto, int[] porLocal) {
+            this.produto = produto;
+            this.porLocal = porLocal;
+            int soma = 0;
+            for (int quantidade : porLocal) {
+                soma += quantidade;
+            }
+            this.total = soma;
+        }
+    }
+
+    /**
+     * Prints the stock of every product per location and in total, the stock
+     * valuation (at purchase price) per location, and the products whose
+     * consolidated stock is below a threshold asked to the user.
+     *
+     * @param scanner The Scanner instance to read user input.
+     * @param produtos Every product currently loaded in memory.
+     */
+    public void relatorioConsolidado(Scanner scanner, List<Produto> produtos) {
+        System.out.print(LanguageService.getString("stock.consolidated.prompt.minimum"));
+        int minimo = scanner.nextInt();
+        scanner.nextLine();
+
+        long inicio = System.nanoTime();
+        List<String> ids = getIds();
+
+        // Cada produto é consolidado de forma independente, então a varredura é paralela
+        List<Posicao> posicoes = produtos.parallelStream()
+            .map(produto -> {
+                int[] porLocal = new int[ids.size()];
+                for (int i = 0; i < porLocal.length; i++) {
+                    porLocal[i] = getQuantidade(produto, ids.get(i));
+                }
+                return new Posicao(produto, porLocal);
+            })
+            .sorted(Comparator.comparing(posicao -> posicao.produto.getId()))
+            .collect(Collectors.toList());
+
+        double[] valorPorLocal = posicoes.parallelStream()
+            .map(posicao -> {
+                double[] valores = new double[ids.size()];
+                for (int i = 0; i < valores.length; i++) {
+                    valores[i] = posicao.porLocal[i] * posicao.produto.getPrecoCompra();
+                }
+                return valores;
+            })
+            .reduce(new double[ids.size()], (a, b) -> {
+                double[] soma = new double[a.length];
+                for (int i = 0; i < soma.length; i++) {
+                    soma[i] = a[i] + b[i];
+                }
+                return soma;
+            });
+
+        List<Posicao> baixos = posicoes.parallelStream()
+            .filter(posicao -> posicao.total < minimo)
+            .collect(Collectors.toList());
+        TEMPO_CONSOLIDADO.recordSince(inicio);
+
+        System.out.println(LanguageService.getFormattedString("stock.consolidated.title", String.join(" | ", ids)));
+        for (Posicao posicao : posicoes) {
+            StringBuilder colunas = new StringBuilder();
+            for (int quantidade : posicao.porLocal) {
+                colunas.append(String.format("%8d", quantidade));
+            }
+            System.out.println(LanguageService.getFormattedString("stock.consolidated.row",
+                posicao.produto.getId(), posicao.produto.getNome(), colunas.toString(), posicao.total));
+        }
+
+        double valorTotal = 0.0;
+        System.out.println(LanguageService.getString("stock.consolidated.valuation.title"));
+        for (int i = 0; i < ids.size(); i++) {
+            valorTotal += valorPorLocal[i];
+            System.out.println(LanguageService.getFormattedString("stock.consolidated.valuation.row", ids.get(i), valorPorLocal[i]));
+        }
+        System.out.println(LanguageService.getFormattedString("stock.consolidated.valuation.total", valorTotal));
+
+        System.out.println(LanguageService.getFormattedString("stock.consolidated.low.title", minimo));
+        if (baixos.isEmpty()) {
+            System.out.println(LanguageService.getString("stock.consolidated.low.none"));
+        }
+        for (Posicao posicao : baixos) {
+            System.out.println(LanguageService.getFormattedString("stock.consolidated.low.row",
+                posicao.produto.getId(), posicao.produto.getNome(), posicao.total));
+        }
+    }
+}
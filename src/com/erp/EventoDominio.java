@@ -0,0 +1,111 @@
+package com.erp;
+
+/**
+ * A domain event published through {@link BarramentoEventos}.
+ * <p>
+ * Instances are preallocated slots of the bus ring buffer and are overwritten
+ * once every subscriber has consumed them, so subscribers must copy whatever they
+ * need to keep beyond the end of the batch in which they received the event.
+ * Fields that do not apply to an event type are left {@code null} or zero.
+ */
+public class EventoDominio {
+    public enum Tipo {
+        /** Stock of a product changed in a location. {@code quantidade} is the signed change. */
+        ESTOQUE_ALTERADO,
+        /** A sale was committed. */
+        VENDA_REGISTRADA,
+        /** A purchase was committed. */
+        COMPRA_REGISTRADA,
+        /** A title was settled. */
+        TITULO_PAGO
+    }
+
+    // Sequência publicada neste slot; -1 enquanto nunca foi usado
+    volatile long sequencia = -1;
+
+    Tipo tipo;
+    String produtoId;
+    String localId;
+    String pessoaId;
+    String tituloId;
+    String tipoTitulo;
+    int quantidade;
+    int estoqueResultante;
+    double valor;
+    boolean logGravado;
+    long instante;
+
+    void limpar() {
+        produtoId = null;
+        localId = null;
+        pessoaId = null;
+        tituloId = null;
+        tipoTitulo = null;
+        quantidade = 0;
+        estoqueResultante = 0;
+        valor = 0.0;
+        logGravado = false;
+    }
+
+    public Tipo getTipo() {
+        return tipo;
+    }
+
+    public String getProdutoId() {
+        return produtoId;
+    }
+
+    /**
+     * @return The location of a stock change (see {@link EstoqueLocais}).
+     */
+    public String getLocalId() {
+        return localId;
+    }
+
+    public String getPessoaId() {
+        return pessoaId;
+    }
+
+    public String getTituloId() {
+        return tituloId;
+    }
+
+    public String getTipoTitulo() {
+        return tipoTitulo;
+    }
+
+    public int getQuantidade() {
+        return quantidade;
+    }
+
+    public int getEstoqueResultante() {
+        return estoqueResultante;
+    }
+
+    /**
+     * @return The total amount of the sale, purchase or settled title.
+     */
+    public double getValor() {
+        return valor;
+    }
+
+    /**
+     * @return Whether the {@code Logs} row of this purchase or sale is written together
+     * with the operation itself (write-behind journal), so {@link LogService} must not
+     * write it again.
+     */
+    public boolean isLogGravado() {
+        return logGravado;
+    }
+
+    /**
+     * @return When the event was published, in epoch milliseconds.
+     */
+    public long getInstante() {
+        return instante;
+    }
+
+    public long getSequencia() {
+        return sequencia;
+    }
+}
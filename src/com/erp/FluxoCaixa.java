@@ -0,0 +1,263 @@
+package com.erp;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Incrementally maintained cash-flow projection of the open titles.
+ * <p>
+ * Like {@link SaldosPessoa}, each open title adds its total to the day it falls due
+ * when it is created, and removes it when it is paid, both in an overall timeline and
+ * in the timeline of its counterparty. A projection folds those per-day entries into
+ * periods (weeks, or calendar months) from today, so its cost depends on how many
+ * distinct due days there are, not on how many titles are open. Titles already past
+ * due, or with no due date at all, are projected as overdue.
+ */
+public class FluxoCaixa {
+    private static final int TOP_PESSOAS = Integer.getInteger("erp.cashflow.top", 20);
+
+    // Títulos sem data de vencimento (sem data de emissão) contam como vencidos
+    private static final long SEM_DATA = Long.MIN_VALUE;
+
+    private static final int RECEBER = 0;
+    private static final int PAGAR = 1;
+    private static final int QUANTIDADE = 2;
+
+    private static final MetricsService.Timer TEMPO_PROJECAO = MetricsService.timer("fluxoCaixa.projetar");
+
+    /**
+     * Length of each period of the projection.
+     */
+    public enum Periodo {
+        SEMANA,
+        MES
+    }
+
+    /**
+     * Result of one projection: receivable and payable totals per bucket, overall and
+     * per counterparty. Bucket 0 is overdue, buckets {@code 1..n} are the periods and
+     * the last bucket is everything due after the horizon.
+     */
+    public static final class Projecao {
+        private final LocalDate[] inicios;
+        private final double[][] geral;
+        private final Map<String, double[][]> porPessoa;
+
+        Projecao(LocalDate[] inicios, double[][] geral, Map<String, double[][]> porPessoa) {
+            this.inicios = inicios;
+            this.geral = geral;
+            this.porPessoa = porPessoa;
+        }
+
+        /**
+         * @return The first day of each period, plus the first day after the horizon.
+         */
+        public LocalDate[] getInicios() {
+            return inicios;
+        }
+
+        /**
+         * @return A matrix {@code [bucket][0 = a receber, 1 = a pagar]}.
+         */
+        public double[][] getGeral() {
+            return geral;
+        }
+
+        /**
+         * @return The same matrix for each counterparty with open titles.
+         */
+        public Map<String, double[][]> getPorPessoa() {
+            return porPessoa;
+        }
+    }
+
+    // epochDay do vencimento -> { a receber, a pagar, quantidade de títulos }
+    private final NavigableMap<Long, double[]> abertoPorDia = new TreeMap<>();
+    private final Map<String, NavigableMap<Long, double[]>> abertoPorPessoa = new HashMap<>();
+
+    /**
+     * Rebuilds the timeline from the given titles.
+     *
+     * @param titulos Every title currently loaded in memory.
+     */
+    public synchronized void recarregar(Collection<Titulo> titulos) {
+        abertoPorDia.clear();
+        abertoPorPessoa.clear();
+        for (Titulo titulo : titulos) {
+            if (!titulo.isPago()) {
+                aplicar(titulo, 1);
+            }
+        }
+    }
+
+    /**
+     * Adds a newly created open title to the timeline.
+     */
+    public synchronized void registrar(Titulo titulo) {
+        if (!titulo.isPago()) {
+            aplicar(titulo, 1);
+        }
+    }
+
+    /**
+     * Removes a title that has just been settled from the timeline.
+     * Must be called once, when the title goes from open to paid.
+     */
+    public synchronized void baixar(Titulo titulo) {
+        aplicar(titulo, -1);
+    }
+
+    /**
+     * Projects the open titles over {@code periodos} periods starting today.
+     * <p>
+     * Weekly periods are seven days long starting today; monthly periods follow the
+     * calendar, the first one running from today to the end of the current month.
+     *
+     * @param hoje The first day of the projection; anything due before it is overdue.
+     * @param periodo The length of each period.
+     * @param periodos The number of periods.
+     * @return The projection.
+     */
+    public synchronized Projecao projetar(LocalDate hoje, Periodo periodo, int periodos) {
+        long inicio = System.nanoTime();
+        LocalDate[] inicios = new LocalDate[periodos + 1];
+        inicios[0] = hoje;
+        for (int i = 1; i <= periodos; i++) {
+            inicios[i] = periodo == Periodo.SEMANA ? hoje.plusWeeks(i) : hoje.withDayOfMonth(1).plusMonths(i);
+        }
+
+        double[][] geral = dobrar(abertoPorDia, inicios);
+        Map<String, double[][]> porPessoa = new HashMap<>(abertoPorPessoa.size() * 2);
+        for (Map.Entry<String, NavigableMap<Long, double[]>> entrada : abertoPorPessoa.entrySet()) {
+            porPessoa.put(entrada.getKey(), dobrar(entrada.getValue(), inicios));
+        }
+        TEMPO_PROJECAO.recordSince(inicio);
+        return new Projecao(inicios, geral, porPessoa);
+    }
+
+    /**
+     * Sums the per-day entries of one timeline into the buckets of a projection,
+     * reading each range of the sorted map once.
+     */
+    private static double[][] dobrar(NavigableMap<Long, double[]> porDia, LocalDate[] inicios) {
+        double[][] faixas = new double[inicios.length + 1][2];
+        somar(porDia.headMap(inicios[0].toEpochDay(), false), faixas[0]);
+        for (int i = 1; i < inicios.length; i++) {
+            somar(porDia.subMap(inicios[i - 1].toEpochDay(), true, inicios[i].toEpochDay(), false), faixas[i]);
+        }
+        somar(porDia.tailMap(inicios[inicios.length - 1].toEpochDay(), true), faixas[inicios.length]);
+        return faixas;
+    }
+
+    private static void somar(Map<Long, double[]> dias, double[] faixa) {
+        for (double[] doDia : dias.values()) {
+            faixa[RECEBER] += doDia[RECEBER];
+            faixa[PAGAR] += doDia[PAGAR];
+        }
+    }
+
+    /**
+     * Prints the projection: the overall timeline with its running balance, then the net
+     * amount per period of the counterparties with the largest open amounts.
+     *
+     * @param projecao The projection to show.
+     * @param periodo The length of each period, used in the title.
+     * @param pessoas The registered people, used to show names.
+     */
+    public static void exibirRelatorio(Projecao projecao, Periodo periodo, List<Pessoa> pessoas) {
+        LocalDate[] inicios = projecao.getInicios();
+        double[][] geral = projecao.getGeral();
+        List<String> rotulos = new ArrayList<>();
+        rotulos.add(LanguageService.getString("cashflow.bucket.overdue"));
+        for (int i = 1; i < inicios.length; i++) {
+            rotulos.add(inicios[i - 1].toString());
+        }
+        rotulos.add(LanguageService.getFormattedString("cashflow.bucket.later", inicios[inicios.length - 1].toString()));
+
+        System.out.println("\n======================================================================");
+        System.out.println(LanguageService.getFormattedString("cashflow.report.title",
+            LanguageService.getString(periodo == Periodo.SEMANA ? "cashflow.period.week" : "cashflow.period.month"),
+            inicios.length - 1, inicios[0].toString()));
+        System.out.println("======================================================================");
+        System.out.println(LanguageService.getString("cashflow.table.header"));
+        double acumulado = 0.0;
+        for (int i = 0; i < geral.length; i++) {
+            double saldo = geral[i][RECEBER] - geral[i][PAGAR];
+            acumulado += saldo;
+            System.out.printf("%-22s | %14.2f | %14.2f | %14.2f | %14.2f%n",
+                rotulos.get(i), geral[i][RECEBER], geral[i][PAGAR], saldo, acumulado);
+        }
+
+        Map<String, double[][]> porPessoa = projecao.getPorPessoa();
+        if (porPessoa.isEmpty()) {
+            System.out.println(LanguageService.getString("balance.report.empty"));
+            System.out.println(LanguageService.getString("analysis.report.end"));
+            return;
+        }
+        Map<String, String> nomes = new HashMap<>();
+        for (Pessoa p : pessoas) {
+            nomes.put(p.getId(), p.getNome());
+        }
+        // Maior valor em aberto primeiro, somando a receber e a pagar
+        List<Map.Entry<String, double[][]>> ordenadas = new ArrayList<>(porPessoa.entrySet());
+        ordenadas.sort(Comparator.comparingDouble((Map.Entry<String, double[][]> e) -> totalEmAberto(e.getValue())).reversed());
+
+        System.out.println(LanguageService.getFormattedString("cashflow.by_person", Math.min(TOP_PESSOAS, ordenadas.size()), ordenadas.size()));
+        StringBuilder cabecalho = new StringBuilder(String.format("%-10s | %-20s", LanguageService.getString("analysis.table.header.id"),
+            LanguageService.getString("name")));
+        for (int i = 0; i < geral.length; i++) {
+            // Só mês e dia, para caber na coluna
+            String rotulo = i == 0 ? rotulos.get(0)
+                : i == geral.length - 1 ? ">= " + inicios[inicios.length - 1].toString().substring(5)
+                : inicios[i - 1].toString().substring(5);
+            cabecalho.append(String.format(" | %12.12s", rotulo));
+        }
+        System.out.println(cabecalho);
+        for (Map.Entry<String, double[][]> entrada : ordenadas.subList(0, Math.min(TOP_PESSOAS, ordenadas.size()))) {
+            StringBuilder linha = new StringBuilder(String.format("%-10.10s | %-20.20s", entrada.getKey(), nomes.getOrDefault(entrada.getKey(), "?")));
+            for (double[] faixa : entrada.getValue()) {
+                linha.append(String.format(" | %12.2f", faixa[RECEBER] - faixa[PAGAR]));
+            }
+            System.out.println(linha);
+        }
+        System.out.println(LanguageService.getString("analysis.report.end"));
+    }
+
+    private static double totalEmAberto(double[][] faixas) {
+        double total = 0.0;
+        for (double[] faixa : faixas) {
+            total += faixa[RECEBER] + faixa[PAGAR];
+        }
+        return total;
+    }
+
+    private void aplicar(Titulo titulo, int sinal) {
+        double valor = titulo.getValorTotal() * sinal;
+        int indice = titulo.isAReceber() ? RECEBER : PAGAR;
+        long dia = titulo.getDataVencimento() == null ? SEM_DATA : titulo.getDataVencimento().toEpochDay();
+
+        somarNoDia(abertoPorDia, dia, indice, valor, sinal);
+        NavigableMap<Long, double[]> daPessoa = abertoPorPessoa.computeIfAbsent(titulo.getPessoaId(), _ -> new TreeMap<>());
+        somarNoDia(daPessoa, dia, indice, valor, sinal);
+        if (daPessoa.isEmpty()) {
+            abertoPorPessoa.remove(titulo.getPessoaId());
+        }
+    }
+
+    private static void somarNoDia(NavigableMap<Long, double[]> porDia, long dia, int indice, double valor, int sinal) {
+        double[] doDia = porDia.computeIfAbsent(dia, _ -> new double[3]);
+        doDia[indice] += valor;
+        doDia[QUANTIDADE] += sinal;
+        // Sem títulos em aberto no dia, descarta a entrada (evita resíduos de arredondamento)
+        if (doDia[QUANTIDADE] <= 0) {
+            porDia.remove(dia);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.erp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory index of the people, by ID and by name prefix.
+ * <p>
+ * Names are normalized (lower case, no accents) and kept in one sorted map per
+ * type (1-Cliente, 2-Fornecedor, 3-Funcionário) under one key per word start, so
+ * "sil" finds both "Silva Ltda" and "Ana Silva". A lookup is a range scan that stops
+ * after {@code k} distinct people, so its cost depends on {@code k}, not on how many
+ * people are registered.
+ * <p>
+ * The index must be told about every change: {@link #remover(Pessoa)} has to be
+ * called with the old values before a person is edited, and
+ * {@link #adicionar(Pessoa)} with the new ones afterwards.
+ */
+public class IndicePessoas {
+    public static final int TODOS_OS_TIPOS = 0;
+
+    // Separa o texto da chave do ID, para nomes iguais não colidirem
+    private static final char SEPARADOR = '\u0000';
+
+    private final Map<String, Pessoa> porId = new HashMap<>();
+    // tipo -> (nome normalizado a partir de uma palavra + separador + id -> pessoa)
+    private final Map<Integer, NavigableMap<String, Pessoa>> porNome = new HashMap<>();
+
+    /**
+     * Rebuilds the index from the given people.
+     */
+    public synchronized void recarregar(Collection<Pessoa> pessoas) {
+        porId.clear();
+        porNome.clear();
+        for (Pessoa pessoa : pessoas) {
+            adicionar(pessoa);
+        }
+    }
+
+    /**
+     * Indexes a person that was added, or that was edited (with its new values).
+     */
+    public synchronized void adicionar(Pessoa pessoa) {
+        porId.put(pessoa.getId(), pessoa);
+        NavigableMap<String, Pessoa> nomes = porNome.computeIfAbsent(pessoa.getTipo(), _ -> new TreeMap<>());
+        for (String chave : chaves(pessoa)) {
+            nomes.put(chave, pessoa);
+        }
+    }
+
+    /**
+     * Removes a person from the index, using its current values.
+     */
+    public synchronized void remover(Pessoa pessoa) {
+        porId.remove(pessoa.getId());
+        NavigableMap<String, Pessoa> nomes = porNome.get(pessoa.getTipo());
+        if (nomes != null) {
+            for (String chave : chaves(pessoa)) {
+                nomes.remove(chave);
+            }
+        }
+    }
+
+    /**
+     * @return The person with exactly this ID, or {@code null}.
+     */
+    public synchronized Pessoa porId(String id) {
+        return porId.get(id);
+    }
+
+    /**
+     * Autocomplete lookup: the first {@code limite} people, in name order, with a
+     * word of the name starting with the given prefix.
+     *
+     * @param tipo The person type, or {@link #TODOS_OS_TIPOS}.
+     * @param prefixo The typed text; accents and case are ignored.
+     * @param limite Maximum number of people returned.
+     * @return The matches, ordered by the matched part of the name.
+     */
+    public synchronized List<Pessoa> buscarPorPrefixo(int tipo, String prefixo, int limite) {
+        String inicio = BuscaProdutos.normalizar(prefixo.trim());
+        String fim = inicio + Character.MAX_VALUE;
+
+        // Uma pessoa pode casar por mais de uma palavra: mantém só a primeira ocorrência
+        Map<String, Pessoa> encontradas = new LinkedHashMap<>();
+        if (tipo == TODOS_OS_TIPOS) {
+            // Intercala os tipos pela chave, para manter a ordem alfabética geral
+            NavigableMap<String, Pessoa> intervalo = new TreeMap<>();
+            for (NavigableMap<String, Pessoa> nomes : porNome.values()) {
+                // Os primeiros "limite" de cada tipo bastam para os primeiros "limite" no total
+                Map<String, Pessoa> doTipo = new HashMap<>();
+                for (Map.Entry<String, Pessoa> entrada : nomes.subMap(inicio, true, fim, false).entrySet()) {
+                    if (doTipo.putIfAbsent(entrada.getValue().getId(), entrada.getValue()) == null) {
+                        intervalo.put(entrada.getKey(), entrada.getValue());
+                        if (doTipo.size() >= limite) {
+                            break;
+                        }
+                    }
+                }
+            }
+            coletar(intervalo, encontradas, limite);
+        } else {
+            NavigableMap<String, Pessoa> nomes = porNome.get(tipo);
+            if (nomes != null) {
+                coletar(nomes.subMap(inicio, true, fim, false), encontradas, limite);
+            }
+        }
+        return new ArrayList<>(encontradas.values());
+    }
+
+    private static void coletar(NavigableMap<String, Pessoa> intervalo, Map<String, Pessoa> encontradas, int limite) {
+        for (Pessoa pessoa : intervalo.values()) {
+            if (encontradas.size() >= limite) {
+                return;
+            }
+            encontradas.putIfAbsent(pessoa.getId(), pessoa);
+        }
+    }
+
+    /**
+     * One key per word of the name: the normalized name from that word on.
+     */
+    private static List<String> chaves(Pessoa pessoa) {
+        List<String> chaves = new ArrayList<>();
+        String nome = BuscaProdutos.normalizar(pessoa.getNome());
+        for (int i = 0; i < nome.length(); i++) {
+            boolean inicioDePalavra = Character.isLetterOrDigit(nome.charAt(i))
+                && (i == 0 || !Character.isLetterOrDigit(nome.charAt(i - 1)));
+            if (inicioDePalavra) {
+                chaves.add(nome.substring(i) + SEPARADOR + pessoa.getId());
+            }
+        }
+        return chaves;
+    }
+}
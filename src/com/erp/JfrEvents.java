@@ -0,0 +1,154 @@
+package com.erp;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Custom Java Flight Recorder events emitted by the ERP.
+ * <p>
+ * All events live under the "ERP" category and can be enabled with a regular
+ * recording (ex: {@code -XX:StartFlightRecording:filename=erp.jfr}) and inspected
+ * with {@code jfr print --categories ERP erp.jfr} or JDK Mission Control.
+ * When no recording is active, {@code begin()}/{@code commit()} are no-ops and the
+ * fields are never populated, so instrumented code pays almost nothing.
+ */
+public final class JfrEvents {
+
+    private JfrEvents() {
+    }
+
+    @Name("com.erp.Conexao")
+    @Label("Conexão com o Banco")
+    @Category("ERP")
+    @Description("Aquisição de uma conexão JDBC pelo DbManager")
+    @StackTrace(false)
+    static final class ConexaoEvent extends Event {
+        @Label("Sucesso")
+        boolean sucesso;
+    }
+
+    @Name("com.erp.Transacao")
+    @Label("Transação de Estoque")
+    @Category("ERP")
+    @Description("Bloco transacional de compra ou venda, com o tempo gasto em cada etapa")
+    @StackTrace(false)
+    static final class TransacaoEvent extends Event {
+        @Label("Operação")
+        String operacao;
+
+        @Label("Produto")
+        String produtoId;
+
+        @Label("Pessoa")
+        String pessoaId;
+
+        @Label("Quantidade")
+        int quantidade;
+
+        @Label("Linhas Afetadas")
+        int linhas;
+
+        @Label("Tempo de Conexão")
+        @Timespan(Timespan.NANOSECONDS)
+        long conexao;
+
+        @Label("Tempo de Comandos")
+        @Timespan(Timespan.NANOSECONDS)
+        long comandos;
+
+        @Label("Tempo de Commit")
+        @Timespan(Timespan.NANOSECONDS)
+        long commit;
+
+        @Label("Tempo de Publicação de Eventos")
+        @Timespan(Timespan.NANOSECONDS)
+        long publicacao;
+
+        @Label("Sucesso")
+        boolean sucesso;
+    }
+
+    @Name("com.erp.Comando")
+    @Label("Comando SQL")
+    @Category("ERP")
+    @Description("Execução de um comando SQL, incluindo a leitura do ResultSet no caso de consultas")
+    @StackTrace(false)
+    static final class ComandoEvent extends Event {
+        @Label("SQL")
+        String sql;
+
+        @Label("Linhas")
+        long linhas;
+    }
+
+    @Name("com.erp.Log")
+    @Label("Escrita de Log")
+    @Category("ERP")
+    @Description("Inserção de um lote de registros na tabela Logs pelo LogService")
+    @StackTrace(false)
+    static final class LogEvent extends Event {
+        @Label("Tipo")
+        String tipo;
+
+        @Label("Produto")
+        String produtoId;
+
+        @Label("Quantidade")
+        int quantidade;
+
+        @Label("Linhas")
+        int linhas;
+
+        @Label("Sucesso")
+        boolean sucesso;
+    }
+
+    @Name("com.erp.FaseAnalise")
+    @Label("Fase de Análise")
+    @Category("ERP")
+    @Description("Etapa de uma análise da AnalisePreditiva (carga, agregação, ordenação, classificação, treino)")
+    @StackTrace(false)
+    static final class FaseAnaliseEvent extends Event {
+        @Label("Análise")
+        String analise;
+
+        @Label("Fase")
+        String fase;
+
+        @Label("Linhas")
+        long linhas;
+
+        /**
+         * Ends the phase and commits the event if a recording is interested in it.
+         *
+         * @param linhasProcessadas Number of rows (or items) handled by the phase.
+         */
+        void concluir(long linhasProcessadas) {
+            end();
+            if (shouldCommit()) {
+                linhas = linhasProcessadas;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * Creates and begins a {@link FaseAnaliseEvent}.
+     *
+     * @param analise The analysis being executed (ex: "abc", "demanda", "j48").
+     * @param fase The phase name (ex: "carga", "agregacao").
+     * @return The started event; call {@code concluir} when the phase ends.
+     */
+    static FaseAnaliseEvent iniciarFase(String analise, String fase) {
+        FaseAnaliseEvent evento = new FaseAnaliseEvent();
+        evento.analise = analise;
+        evento.fase = fase;
+        evento.begin();
+        return evento;
+    }
+}
@@ -0,0 +1,119 @@
+package com.erp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear latency histogram (HDR-style).
+ * <p>
+ * Values below {@code SUB_BUCKETS} nanoseconds are counted exactly; larger values
+ * fall into buckets whose width doubles every power of two, split into
+ * {@code SUB_BUCKETS / 2} linear sub-buckets, which keeps the relative error of any
+ * reported percentile under ~3%.
+ * <p>
+ * Recording is a single atomic increment plus two {@code LongAdder} updates, so it
+ * can be used on the hot path by many threads at once.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;          // 64
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;           // 32
+    private static final int BUCKET_COUNT = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records a single measured duration.
+     *
+     * @param nanos The duration in nanoseconds. Negative values are treated as zero.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(indexOf(nanos));
+        totalCount.increment();
+        totalNanos.add(nanos);
+
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public double getMeanNanos() {
+        long count = totalCount.sum();
+        return count == 0 ? 0.0 : (double) totalNanos.sum() / count;
+    }
+
+    /**
+     * Returns the value at the given percentile.
+     * <p>
+     * The result is the upper bound of the bucket holding the requested rank,
+     * capped at the maximum recorded value.
+     *
+     * @param percentile A value between 0 and 100 (ex: 99.9).
+     * @return The latency in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil((percentile / 100.0) * total);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long acumulado = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            acumulado += snapshot[i];
+            if (acumulado >= rank) {
+                return Math.min(upperBoundOf(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BUCKET_BITS
+        int shift = magnitude - (SUB_BUCKET_BITS - 1);
+        int top = (int) (value >>> shift);                     // [HALF_SUB_BUCKETS, SUB_BUCKETS)
+        return SUB_BUCKETS + (magnitude - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS + (top - HALF_SUB_BUCKETS);
+    }
+
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int offset = index - SUB_BUCKETS;
+        int magnitude = offset / HALF_SUB_BUCKETS + SUB_BUCKET_BITS;
+        int shift = magnitude - (SUB_BUCKET_BITS - 1);
+        long top = (offset % HALF_SUB_BUCKETS) + HALF_SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+}
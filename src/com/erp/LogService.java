@@ -15,38 +15,160 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
 
 public class LogService {
     // Mudança no formato da data para ser amigável ao SQL (ISO 8601)
     private static final SimpleDateFormat sdfData = new SimpleDateFormat("yyyy-MM-dd"); 
     private static final SimpleDateFormat sdfHora = new SimpleDateFormat("HH:mm:ss");
-
-    public static void logCompra(Produto produto, int quantidade, String pessoaId) {
-        log("COMPRA", pessoaId, produto.getId(), quantidade);
+    // SimpleDateFormat não é thread-safe: quem grava fora da thread do assinante usa este
+    private static final DateTimeFormatter FORMATO_HORA = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private static final String SQL_INSERIR = "INSERT INTO Logs(Tipo, PessoaID, ProdutoID, Quantidade, Data, Hora) VALUES(?, ?, ?, ?, ?, ?)";
+
+    private static final MetricsService.Timer TEMPO_ESCRITA = MetricsService.timer("log.write");
+    private static final MetricsService.Timer TEMPO_CONSULTA = MetricsService.timer("log.query");
+    private static final MetricsService.Counter ERROS_ESCRITA = MetricsService.counter("log.write.errors");
+
+    /**
+     * Reads the ID of the most recent sale in {@code Logs}. Log IDs only grow, so the
+     * value changes whenever a sale is logged, by this process or by any other writer
+     * of the database; it tells whether a cached analysis still reflects every sale.
+     *
+     * @param conn An open connection (ex: the snapshot an analysis runs on).
+     * @return The ID, or 0 if the table has no sale.
+     * @throws SQLException if the query fails.
+     */
+    public static long lerVersaoVendas(Connection conn) throws SQLException {
+        // Percorre os logs do mais novo para o mais antigo: para na primeira venda
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT id FROM Logs WHERE Tipo = 'VENDA' ORDER BY id DESC LIMIT 1");
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getLong("id") : 0;
+        }
     }
 
-    public static void logVenda(Produto produto, int quantidade, String pessoaId) {
-        log("VENDA", pessoaId, produto.getId(), quantidade);
+    // Eventos de compra e venda do lote atual (usado apenas pela thread do assinante)
+    private static final List<EventoDominio> pendentes = new ArrayList<>();
+    private static boolean assinado;
+
+    /**
+     * Subscribes the logger to {@link BarramentoEventos}: every purchase and sale
+     * event is written to the {@code Logs} table.
+     * <p>
+     * Rows are written in batches, one transaction per batch drained from the bus,
+     * so a sale never waits for its log insert. Operations that went through the
+     * write-behind journal have their log rows written by {@link DiarioEscrita}
+     * together with the operation ({@link EventoDominio#isLogGravado}), so those events
+     * are skipped here; the synchronous ones (ex: other stock locations) are still
+     * logged. Must be called once at startup.
+     */
+    public static synchronized void assinarEventos() {
+        if (assinado) {
+            return;
+        }
+        assinado = true;
+        BarramentoEventos.assinar("log", (evento, fimDoLote) -> {
+            if ((evento.getTipo() == EventoDominio.Tipo.COMPRA_REGISTRADA || evento.getTipo() == EventoDominio.Tipo.VENDA_REGISTRADA)
+                    && !evento.isLogGravado()) {
+                pendentes.add(evento);
+            }
+            if (fimDoLote && !pendentes.isEmpty()) {
+                try {
+                    gravar(pendentes);
+                } finally {
+                    pendentes.clear();
+                }
+            }
+        });
     }
 
-    private static void log(String tipo, String pessoaId, String produtoID, int quantidade) {
-        String data = sdfData.format(new Date());
-        String hora = sdfHora.format(new Date());
-        String sql = "INSERT INTO Logs(Tipo, PessoaID, ProdutoID, Quantidade, Data, Hora) VALUES(?, ?, ?, ?, ?, ?)";
+    /**
+     * Reads the ID of the most recent row in {@code Logs}, which changes whenever a
+     * purchase or a sale is logged; like {@link #lerVersaoVendas}, for analyses that
+     * also depend on purchases.
+     *
+     * @param conn An open connection (ex: the snapshot an analysis runs on).
+     * @return The ID, or 0 if the table is empty.
+     * @throws SQLException if the query fails.
+     */
+    public static long lerVersaoMovimentos(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT COALESCE(MAX(id), 0) FROM Logs");
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
 
-        try (Connection conn = DbManager.connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
+    /**
+     * Writes the log row of a purchase or sale inside the caller's transaction, so it
+     * is committed (or rolled back) together with the operation. The caller must
+     * publish the operation's event with {@code logGravado} set.
+     *
+     * @param conn An open connection inside a transaction.
+     * @param tipo {@code "COMPRA"} or {@code "VENDA"}.
+     * @throws SQLException if the insert fails.
+     */
+    static void inserirNaTransacao(Connection conn, String tipo, String pessoaId, String produtoId, int quantidade) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(SQL_INSERIR)) {
             pstmt.setString(1, tipo);
             pstmt.setString(2, pessoaId);
-            pstmt.setString(3, produtoID);
+            pstmt.setString(3, produtoId);
             pstmt.setInt(4, quantidade);
-            pstmt.setString(5, data);
-            pstmt.setString(6, hora);
+            pstmt.setString(5, LocalDate.now().toString());
+            pstmt.setString(6, LocalTime.now().format(FORMATO_HORA));
             pstmt.executeUpdate();
+        }
+    }
+
+    private static void gravar(List<EventoDominio> eventos) {
+
+        long inicio = System.nanoTime();
+        JfrEvents.LogEvent evento = new JfrEvents.LogEvent();
+        evento.begin();
+        boolean sucesso = false;
+        int vendas = 0;
+        try (Connection conn = DbManager.connect()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(SQL_INSERIR)) {
+                for (EventoDominio e : eventos) {
+                    boolean venda = e.getTipo() == EventoDominio.Tipo.VENDA_REGISTRADA;
+                    Date instante = new Date(e.getInstante());
+                    pstmt.setString(1, venda ? "VENDA" : "COMPRA");
+                    pstmt.setString(2, e.getPessoaId());
+                    pstmt.setString(3, e.getProdutoId());
+                    pstmt.setInt(4, e.getQuantidade());
+                    pstmt.setString(5, sdfData.format(instante));
+                    pstmt.setString(6, sdfHora.format(instante));
+                    pstmt.addBatch();
+                    if (venda) {
+                        vendas++;
+                    }
+                }
+                pstmt.executeBatch();
+                conn.commit();
+                sucesso = true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
 
         } catch (SQLException e) {
+            ERROS_ESCRITA.add(eventos.size());
             System.err.println(LanguageService.getFormattedString("error.log.write", e.getMessage()));
+        } finally {
+            TEMPO_ESCRITA.recordSince(inicio);
+            evento.end();
+            if (evento.shouldCommit()) {
+                evento.tipo = vendas == eventos.size() ? "VENDA" : vendas == 0 ? "COMPRA" : "COMPRA/VENDA";
+                evento.produtoId = eventos.get(0).getProdutoId();
+                evento.quantidade = eventos.get(0).getQuantidade();
+                evento.linhas = eventos.size();
+                evento.sucesso = sucesso;
+                evento.commit();
+            }
         }
     }
 
@@ -70,15 +192,13 @@ public class LogService {
             Date dataFinalUtil = sdfUsuario.parse(dataFinalStr);
             String dataFinalSql = sdfBanco.format(dataFinalUtil); // Converte para YYYY-MM-DD
 
-            // SQL para buscar logs no intervalo de datas
+            // Busca logs no intervalo de datas, na tabela atual e nas partições arquivadas do período
             // Como armazenamos em YYYY-MM-DD, podemos comparar como texto
-            String sql = "SELECT * FROM Logs WHERE Data >= ? AND Data <= ? ORDER BY Data, Hora";
-            
+            long inicio = System.nanoTime();
             try (Connection conn = DbManager.connect();
-                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                
-                pstmt.setString(1, dataInicialSql);
-                pstmt.setString(2, dataFinalSql);
+                 PreparedStatement pstmt = ArquivoLogs.prepararConsulta(conn,
+                     "Tipo, PessoaID, ProdutoID, Quantidade, Data, Hora", null,
+                     dataInicialSql, dataFinalSql, "Data, Hora")) {
                 
                 ResultSet rs = pstmt.executeQuery();
 
@@ -113,6 +233,8 @@ public class LogService {
                 System.err.println(LanguageService.getFormattedString("error.log.query", e.getMessage()));
             } catch (ParseException e) {
                 System.err.println(LanguageService.getFormattedString("error.log.date.reformat", e.getMessage()));
+            } finally {
+                TEMPO_CONSULTA.recordSince(inicio);
             }
             System.out.println(LanguageService.getString("log.report.end"));
 
@@ -1,10 +1,20 @@
 package com.erp;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Scanner;
 
 public class Main {
     public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            executarLote(args.length > 1 ? args[1] : "-");
+            return;
+        }
+
         Scanner scanner = new Scanner(System.in);
         Estoque estoque = new Estoque();
 
@@ -17,6 +27,8 @@ public class Main {
             System.out.println(LanguageService.getString("main.menu.option5"));
             System.out.println(LanguageService.getString("main.menu.option6"));
             System.out.println(LanguageService.getString("main.menu.option7"));
+            System.out.println(LanguageService.getString("main.menu.option8"));
+            System.out.println(LanguageService.getString("main.menu.option9"));
 
             int choice = 0;
             boolean subMenu = false;
@@ -38,6 +50,10 @@ public class Main {
                         System.out.println(LanguageService.getString("product.menu.option4"));
                         System.out.println(LanguageService.getString("product.menu.option5"));
                         System.out.println(LanguageService.getString("product.menu.option6"));
+                        System.out.println(LanguageService.getString("product.menu.option7"));
+                        System.out.println(LanguageService.getString("product.menu.option8"));
+                        System.out.println(LanguageService.getString("product.menu.option9"));
+                        System.out.println(LanguageService.getString("product.menu.option10"));
                         
                         choice = 0;
                         System.out.print(LanguageService.getString("prompt.choice"));
@@ -61,6 +77,18 @@ public class Main {
                                 LogService.VerLog(scanner);
                                 break;
                             case 6:
+                                estoque.addLocal(scanner);
+                                break;
+                            case 7:
+                                estoque.transferenciaEntreLocais(scanner);
+                                break;
+                            case 8:
+                                estoque.relatorioEstoqueConsolidado(scanner);
+                                break;
+                            case 9:
+                                estoque.buscaProdutos(scanner);
+                                break;
+                            case 10:
                                 subMenu = false;
                                 break;
                     
@@ -86,7 +114,7 @@ public class Main {
                         scanner.nextLine();
                         switch (choice) {
                             case 1:
-                                estoque.listaPessoas();;
+                                estoque.listaPessoas(scanner);
                                 break;
                             case 2:
                                 estoque.addPessoa(scanner);
@@ -114,6 +142,14 @@ public class Main {
                         System.out.println(LanguageService.getString("predictive.menu.option1"));
                         System.out.println(LanguageService.getString("predictive.menu.option2"));
                         System.out.println(LanguageService.getString("predictive.menu.option3"));
+                        System.out.println(LanguageService.getString("predictive.menu.option4"));
+                        System.out.println(LanguageService.getString("predictive.menu.option5"));
+                        System.out.println(LanguageService.getString("predictive.menu.option6"));
+                        System.out.println(LanguageService.getString("predictive.menu.option7"));
+                        System.out.println(LanguageService.getString("predictive.menu.option8"));
+                        System.out.println(LanguageService.getString("predictive.menu.option9"));
+                        System.out.println(LanguageService.getString("predictive.menu.option10"));
+                        System.out.println(LanguageService.getString("predictive.menu.option11"));
 
                         choice = 0;
                         System.out.print(LanguageService.getString("prompt.choice"));
@@ -128,6 +164,30 @@ public class Main {
                                 AnalisePreditiva.executarPrevisaoDeDemandaPonderada();
                                 break;
                             case 3:
+                                AnalisePreditiva.exibirAndamento();
+                                break;
+                            case 4:
+                                estoque.sugestaoDeCompras();
+                                break;
+                            case 5:
+                                AnalisePreditiva.executarMatrizABCXYZ();
+                                break;
+                            case 6:
+                                AnalisePreditiva.executarAnaliseDeMargem();
+                                break;
+                            case 7:
+                                AnalisePreditiva.executarSegmentacaoRFM();
+                                break;
+                            case 8:
+                                AnalisePreditiva.executarTreinoModeloDemanda();
+                                break;
+                            case 9:
+                                AnalisePreditiva.executarPrevisaoDeDemandaPorModelo();
+                                break;
+                            case 10:
+                                AnalisePreditiva.executarTreinamentoJ48();
+                                break;
+                            case 11:
                                 subMenu = false;
                                 break;
                             default:
@@ -162,6 +222,77 @@ public class Main {
                     }
                     break;
                 case 7:
+                    subMenu = true;
+                    while (subMenu) {
+                        System.out.println(LanguageService.getString("finance.menu.title"));
+                        System.out.println(LanguageService.getString("finance.menu.option1"));
+                        System.out.println(LanguageService.getString("finance.menu.option2"));
+                        System.out.println(LanguageService.getString("finance.menu.option3"));
+                        System.out.println(LanguageService.getString("finance.menu.option4"));
+
+                        choice = 0;
+                        System.out.print(LanguageService.getString("prompt.choice"));
+                        choice = scanner.nextInt();
+                        scanner.nextLine();
+
+                        switch (choice) {
+                            case 1:
+                                estoque.exibirSaldos(scanner);
+                                break;
+                            case 2:
+                                estoque.pagamentoEmLote(scanner);
+                                break;
+                            case 3:
+                                estoque.exibirFluxoDeCaixa(scanner);
+                                break;
+                            case 4:
+                                subMenu = false;
+                                break;
+                            default:
+                                System.out.println(LanguageService.getString("option.invalid"));
+                                break;
+                        }
+                    }
+                    break;
+                case 8:
+                    subMenu = true;
+                    while (subMenu) {
+                        System.out.println(LanguageService.getString("system.menu.title"));
+                        System.out.println(LanguageService.getString("system.menu.option1"));
+                        System.out.println(LanguageService.getString("system.menu.option2"));
+                        System.out.println(LanguageService.getString("system.menu.option3"));
+                        System.out.println(LanguageService.getString("system.menu.option4"));
+                        System.out.println(LanguageService.getString("system.menu.option5"));
+
+                        choice = 0;
+                        System.out.print(LanguageService.getString("prompt.choice"));
+                        choice = scanner.nextInt();
+                        scanner.nextLine();
+
+                        switch (choice) {
+                            case 1:
+                                MetricsService.exibirRelatorio();
+                                break;
+                            case 2:
+                                SqlMonitor.exibirRelatorio();
+                                break;
+                            case 3:
+                                ArquivoLogs.arquivarMesesFechados();
+                                break;
+                            case 4:
+                                estoque.conciliarEstoque(scanner);
+                                break;
+                            case 5:
+                                subMenu = false;
+                                break;
+                            default:
+                                System.out.println(LanguageService.getString("option.invalid"));
+                                break;
+                        }
+                    }
+                    break;
+                case 9:
+                    encerrar();
                     System.out.println(LanguageService.getString("main.exit.message"));
                     return;
                 default:
@@ -169,4 +300,28 @@ public class Main {
             }
         }
     }
+
+    /**
+     * Runs a command script with {@link ModoLote}, without menus.
+     *
+     * @param origem The script file, or {@code -} for stdin.
+     */
+    private static void executarLote(String origem) throws IOException {
+        Estoque estoque = new Estoque();
+        try (BufferedReader entrada = origem.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Path.of(origem), StandardCharsets.UTF_8)) {
+            ModoLote.executar(estoque, entrada);
+        } finally {
+            encerrar();
+        }
+    }
+
+    private static void encerrar() {
+        AnalisePreditiva.encerrar();
+        ClassificadorOnline.encerrar();
+        BarramentoEventos.encerrar();
+        DiarioEscrita.encerrar();
+        DbManager.fecharConexoes();
+    }
 }
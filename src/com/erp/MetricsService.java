@@ -0,0 +1,181 @@
+package com.erp;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * In-process registry of operation timers and counters.
+ * <p>
+ * Metrics are created once (usually into a {@code static final} field of the
+ * instrumented class) and then updated without locks. Every metric is also
+ * published as a JMX MXBean under the {@code com.erp} domain, so it can be
+ * inspected with JConsole or VisualVM while the system is running.
+ */
+public class MetricsService {
+
+    /**
+     * JMX view of a {@link Timer}.
+     */
+    public interface TimerMXBean {
+        long getCount();
+        double getRatePerSecond();
+        double getMeanMillis();
+        double getP50Millis();
+        double getP99Millis();
+        double getP999Millis();
+        double getMaxMillis();
+    }
+
+    /**
+     * JMX view of a {@link Counter}.
+     */
+    public interface CounterMXBean {
+        long getCount();
+        double getRatePerSecond();
+    }
+
+    /**
+     * Latency histogram plus throughput for a single operation.
+     */
+    public static final class Timer implements TimerMXBean {
+        private final LatencyHistogram histograma = new LatencyHistogram();
+
+        private Timer() {
+        }
+
+        public void record(long nanos) {
+            histograma.record(nanos);
+        }
+
+        /**
+         * Records the time elapsed since {@code inicio}, a value previously
+         * obtained from {@link System#nanoTime()}.
+         */
+        public void recordSince(long inicio) {
+            histograma.record(System.nanoTime() - inicio);
+        }
+
+        @Override public long getCount() { return histograma.getCount(); }
+        @Override public double getRatePerSecond() { return rate(histograma.getCount()); }
+        @Override public double getMeanMillis() { return histograma.getMeanNanos() / NANOS_PER_MILLI; }
+        @Override public double getP50Millis() { return histograma.getValueAtPercentile(50.0) / NANOS_PER_MILLI; }
+        @Override public double getP99Millis() { return histograma.getValueAtPercentile(99.0) / NANOS_PER_MILLI; }
+        @Override public double getP999Millis() { return histograma.getValueAtPercentile(99.9) / NANOS_PER_MILLI; }
+        @Override public double getMaxMillis() { return histograma.getMaxNanos() / NANOS_PER_MILLI; }
+    }
+
+    /**
+     * Monotonic event counter.
+     */
+    public static final class Counter implements CounterMXBean {
+        private final LongAdder valor = new LongAdder();
+
+        private Counter() {
+        }
+
+        public void increment() {
+            valor.increment();
+        }
+
+        public void add(long delta) {
+            valor.add(delta);
+        }
+
+        @Override public long getCount() { return valor.sum(); }
+        @Override public double getRatePerSecond() { return rate(valor.sum()); }
+    }
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+    private static final long INICIO = System.nanoTime();
+
+    // Ordenados pelo nome para que o relatório agrupe as métricas de cada classe
+    private static final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+    private static final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+
+    /**
+     * Returns the timer registered under {@code name}, creating it on first use.
+     *
+     * @param name Dotted metric name (ex: "estoque.venda").
+     * @return The shared {@code Timer} instance.
+     */
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, n -> registrarMBean("Timer", n, new Timer()));
+    }
+
+    /**
+     * Returns the counter registered under {@code name}, creating it on first use.
+     *
+     * @param name Dotted metric name (ex: "log.write.errors").
+     * @return The shared {@code Counter} instance.
+     */
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> registrarMBean("Counter", n, new Counter()));
+    }
+
+    /**
+     * Prints every registered metric with its percentiles and rates.
+     */
+    public static void exibirRelatorio() {
+        double uptime = (System.nanoTime() - INICIO) / 1e9;
+
+        System.out.println("\n======================================================================");
+        System.out.println(LanguageService.getString("metrics.report.title"));
+        System.out.println("======================================================================");
+        System.out.printf(LanguageService.getString("metrics.report.uptime"), uptime);
+
+        System.out.println("-------------------------------------------------------------------------------------------------");
+        System.out.printf("%-32s | %8s | %9s | %9s | %9s | %9s | %9s%n",
+            LanguageService.getString("metrics.table.header.operation"),
+            LanguageService.getString("metrics.table.header.count"),
+            LanguageService.getString("metrics.table.header.rate"),
+            "p50 ms", "p99 ms", "p999 ms", "max ms");
+        System.out.println("-------------------------------------------------------------------------------------------------");
+
+        boolean vazio = true;
+        for (Map.Entry<String, Timer> entrada : timers.entrySet()) {
+            Timer t = entrada.getValue();
+            if (t.getCount() == 0) {
+                continue;
+            }
+            vazio = false;
+            System.out.printf("%-32.32s | %8d | %9.2f | %9.3f | %9.3f | %9.3f | %9.3f%n",
+                entrada.getKey(), t.getCount(), t.getRatePerSecond(),
+                t.getP50Millis(), t.getP99Millis(), t.getP999Millis(), t.getMaxMillis());
+        }
+        for (Map.Entry<String, Counter> entrada : counters.entrySet()) {
+            Counter c = entrada.getValue();
+            if (c.getCount() == 0) {
+                continue;
+            }
+            vazio = false;
+            System.out.printf("%-32.32s | %8d | %9.2f |%n", entrada.getKey(), c.getCount(), c.getRatePerSecond());
+        }
+
+        if (vazio) {
+            System.out.println(LanguageService.getString("metrics.report.empty"));
+        }
+        System.out.println(LanguageService.getString("analysis.report.end"));
+    }
+
+    private static double rate(long count) {
+        double segundos = (System.nanoTime() - INICIO) / (double) TimeUnit.SECONDS.toNanos(1);
+        return segundos > 0 ? count / segundos : 0.0;
+    }
+
+    private static <T> T registrarMBean(String tipo, String name, T metrica) {
+        try {
+            MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+            servidor.registerMBean(metrica, new ObjectName("com.erp:type=" + tipo + ",name=" + ObjectName.quote(name)));
+        } catch (JMException e) {
+            // A métrica continua funcionando localmente mesmo sem exposição via JMX
+        }
+        return metrica;
+    }
+}
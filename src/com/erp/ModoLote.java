@@ -0,0 +1,280 @@
+package com.erp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Non-interactive batch mode: {@code java com.erp.Main --batch [file|-]}.
+ * <p>
+ * Reads one command per line from a script or from stdin ({@code -} or no file) and
+ * runs it with no prompts and no menus. Blank lines and lines starting with {@code #}
+ * are ignored. Product and person IDs must be exact.
+ * <pre>
+ *   buy  &lt;product&gt; &lt;qty&gt; &lt;supplier&gt; [location]
+ *   sell &lt;product&gt; &lt;qty&gt; &lt;customer&gt; [location]
+ *   pay  &lt;title&gt;
+ *   commit
+ *   segment
+ * </pre>
+ * Consecutive {@code buy}/{@code sell} commands share one transaction of up to
+ * {@code erp.batch.size} commands (default 500), and consecutive {@code pay} commands
+ * are settled together by {@link Estoque#pagarTitulos}. {@code commit} closes the
+ * current group. A rejected command (unknown ID, insufficient stock) does not touch
+ * the database and the group goes on; a command that fails with a database error is
+ * rolled back to its own savepoint. If the commit itself fails, the whole group is
+ * lost. {@code segment} closes the current group, then runs the customer RFM
+ * segmentation ({@link AnalisePreditiva#executarSegmentacaoRFM()}) and waits for it, so
+ * the segments can be refreshed by a scheduled job. A throughput summary is printed
+ * at the end.
+ */
+public class ModoLote {
+    private static final int TAMANHO_GRUPO = Integer.getInteger("erp.batch.size", 500);
+
+    private static final MetricsService.Timer TEMPO_GRUPO = MetricsService.timer("lote.grupo");
+    private static final MetricsService.Counter COMANDOS = MetricsService.counter("lote.comandos");
+
+    /**
+     * Outcome of one movement command.
+     */
+    enum Resultado {
+        OK(null),
+        PRODUTO_NAO_ENCONTRADO("stock.product.notfound"),
+        QUANTIDADE_INVALIDA("batch.rejected.quantity"),
+        PESSOA_NAO_ENCONTRADA("batch.rejected.person"),
+        LOCAL_NAO_ENCONTRADO("stock.location.notfound"),
+        ESTOQUE_INSUFICIENTE("batch.rejected.stock");
+
+        private final String chave;
+
+        Resultado(String chave) {
+            this.chave = chave;
+        }
+    }
+
+    private final Estoque estoque;
+
+    // Grupo de movimentos aberto: a transação só existe enquanto houver comandos nele
+    private Connection conn;
+    private final List<Runnable> aoConfirmar = new ArrayList<>();
+    private int comandosNoGrupo;
+    private int aceitosNoGrupo;
+    private long inicioGrupo;
+
+    // Pagamentos consecutivos, baixados juntos
+    private final List<String> titulosAPagar = new ArrayList<>();
+
+    private int comandos;
+    private int aceitos;
+    private int rejeitados;
+    private int falhas;
+    private int transacoes;
+
+    private ModoLote(Estoque estoque) {
+        this.estoque = estoque;
+    }
+
+    /**
+     * Runs every command read from {@code entrada} and prints the summary.
+     *
+     * @param estoque The loaded model the commands are applied to.
+     * @param entrada The script; it is read to the end but not closed.
+     * @throws IOException if the script cannot be read.
+     */
+    public static void executar(Estoque estoque, BufferedReader entrada) throws IOException {
+        // Com o diário ativo, o estoque no banco pode estar atrasado: aplica antes de movimentar
+        DiarioEscrita.aguardarAplicacao();
+
+        ModoLote lote = new ModoLote(estoque);
+        long inicio = System.nanoTime();
+        try {
+            String linha;
+            int numero = 0;
+            while ((linha = entrada.readLine()) != null) {
+                numero++;
+                lote.processar(numero, linha.trim());
+            }
+        } finally {
+            lote.fecharGrupo();
+            lote.pagarPendentes();
+        }
+        lote.imprimirResumo(System.nanoTime() - inicio);
+    }
+
+    private void processar(int numero, String linha) {
+        if (linha.isEmpty() || linha.startsWith("#")) {
+            return;
+        }
+        String[] partes = linha.split("\\s+");
+        String comando = partes[0].toLowerCase(Locale.ROOT);
+        comandos++;
+        COMANDOS.increment();
+
+        switch (comando) {
+            case "buy":
+            case "sell":
+                if (partes.length < 4 || partes.length > 5) {
+                    rejeitar(numero, LanguageService.getFormattedString("batch.error.syntax", linha));
+                    return;
+                }
+                int quantidade;
+                try {
+                    quantidade = Integer.parseInt(partes[2]);
+                } catch (NumberFormatException e) {
+                    rejeitar(numero, LanguageService.getFormattedString("batch.error.syntax", linha));
+                    return;
+                }
+                pagarPendentes();
+                movimentar(numero, comando.equals("sell"), partes[1], quantidade, partes[3], partes.length == 5 ? partes[4] : null);
+                break;
+            case "pay":
+                if (partes.length != 2) {
+                    rejeitar(numero, LanguageService.getFormattedString("batch.error.syntax", linha));
+                    return;
+                }
+                fecharGrupo();
+                titulosAPagar.add(partes[1]);
+                break;
+            case "segment":
+                if (partes.length != 1) {
+                    rejeitar(numero, LanguageService.getFormattedString("batch.error.syntax", linha));
+                    return;
+                }
+                fecharGrupo();
+                pagarPendentes();
+                segmentarClientes(numero);
+                break;
+            case "commit":
+                // Não é uma operação: só encerra o grupo atual
+                comandos--;
+                fecharGrupo();
+                pagarPendentes();
+                break;
+            default:
+                rejeitar(numero, LanguageService.getFormattedString("batch.error.syntax", linha));
+                break;
+        }
+    }
+
+    private void movimentar(int numero, boolean venda, String produtoId, int quantidade, String pessoaId, String localId) {
+        try {
+            if (conn == null) {
+                inicioGrupo = System.nanoTime();
+                conn = DbManager.connect();
+                conn.setAutoCommit(false);
+            }
+            comandosNoGrupo++;
+
+            Savepoint antes = conn.setSavepoint();
+            try {
+                Resultado resultado = estoque.movimentarNaTransacao(conn, venda, produtoId, quantidade, pessoaId, localId, aoConfirmar);
+                conn.releaseSavepoint(antes);
+                if (resultado == Resultado.OK) {
+                    aceitosNoGrupo++;
+                } else {
+                    rejeitar(numero, LanguageService.getString(resultado.chave));
+                }
+            } catch (SQLException e) {
+                // Desfaz só este comando; o restante do grupo segue
+                conn.rollback(antes);
+                falhas++;
+                System.err.println(LanguageService.getFormattedString("batch.error.line", numero, e.getMessage()));
+            }
+        } catch (SQLException e) {
+            falhas++;
+            System.err.println(LanguageService.getFormattedString("batch.error.line", numero, e.getMessage()));
+        }
+
+        if (comandosNoGrupo >= TAMANHO_GRUPO) {
+            fecharGrupo();
+        }
+    }
+
+    /**
+     * Commits the open group and only then applies its changes in memory.
+     */
+    private void fecharGrupo() {
+        if (conn == null) {
+            return;
+        }
+        try {
+            try {
+                conn.commit();
+                transacoes++;
+                aceitos += aceitosNoGrupo;
+                for (Runnable atualizacao : aoConfirmar) {
+                    atualizacao.run();
+                }
+            } catch (SQLException e) {
+                conn.rollback();
+                falhas += aceitosNoGrupo;
+                System.err.println(LanguageService.getFormattedString("batch.error.commit", aceitosNoGrupo, e.getMessage()));
+            } finally {
+                conn.setAutoCommit(true);
+                conn.close();
+            }
+        } catch (SQLException e) {
+            System.err.println(LanguageService.getFormattedString("batch.error.commit", 0, e.getMessage()));
+        } finally {
+            TEMPO_GRUPO.recordSince(inicioGrupo);
+            conn = null;
+            aoConfirmar.clear();
+            comandosNoGrupo = 0;
+            aceitosNoGrupo = 0;
+        }
+    }
+
+    private void segmentarClientes(int numero) {
+        // As vendas do lote precisam estar no log antes do snapshot da análise
+        BarramentoEventos.aguardarConsumo();
+        TarefaRelatorio tarefa = AnalisePreditiva.executarSegmentacaoRFM();
+        try {
+            tarefa.getResultado().get();
+            aceitos++;
+        } catch (ExecutionException e) {
+            // A própria análise já informou o erro
+            falhas++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            falhas++;
+            System.err.println(LanguageService.getFormattedString("batch.error.line", numero, e.getMessage()));
+        }
+    }
+
+    private void pagarPendentes() {
+        if (titulosAPagar.isEmpty()) {
+            return;
+        }
+        int pedidos = titulosAPagar.size();
+        // IDs desconhecidos já são informados pela seleção
+        List<Titulo> selecionados = estoque.selecionarPorIds(titulosAPagar);
+        Estoque.ResumoPagamento resumo = estoque.pagarTitulos(selecionados);
+        if (resumo == null) {
+            falhas += selecionados.size();
+            rejeitados += pedidos - selecionados.size();
+        } else {
+            transacoes++;
+            aceitos += resumo.getTitulosPagos();
+            rejeitados += pedidos - resumo.getTitulosPagos();
+        }
+        titulosAPagar.clear();
+    }
+
+    private void rejeitar(int numero, String motivo) {
+        rejeitados++;
+        System.out.println(LanguageService.getFormattedString("batch.error.line", numero, motivo));
+    }
+
+    private void imprimirResumo(long nanos) {
+        double segundos = nanos / 1_000_000_000.0;
+        double porSegundo = segundos > 0 ? comandos / segundos : 0.0;
+        System.out.println(LanguageService.getFormattedString("batch.summary", comandos, segundos, porSegundo, transacoes));
+        System.out.println(LanguageService.getFormattedString("batch.summary.results", aceitos, rejeitados, falhas));
+    }
+}
@@ -49,6 +49,16 @@ public class Produto {
         return false;
     }
 
+    /**
+     * Replaces the in-memory stock with the value read from the database,
+     * which other processes may have changed.
+     *
+     * @param quantidade The current stock.
+     */
+    public void sincronizarEstoque(int quantidade) {
+        this.quantidade = quantidade;
+    }
+
     public boolean removerEstoque(int qt) {
         if ((this.quantidade - qt) >= 0) {
             this.quantidade -= qt;
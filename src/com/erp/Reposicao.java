@@ -0,0 +1,315 @@
+package com.erp;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.time.YearMonth;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Replenishment engine: reorder point, safety stock and suggested order quantity
+ * per product, from the weighted monthly demand forecast of {@link AnalisePreditiva}.
+ * <p>
+ * For a product with forecast {@code F} units/month and monthly standard deviation
+ * {@code s} over the last months, with lead time {@code L} days
+ * ({@code erp.reorder.leadTimeDays}, default 7) and service factor {@code z}
+ * ({@code erp.reorder.serviceZ}, default 1.65, about 95%):
+ * <pre>
+ *   daily demand   d  = F / 30
+ *   safety stock   SS = z * (s / sqrt(30)) * sqrt(L)
+ *   reorder point  ROP = d * L + SS
+ *   order quantity Q  = ROP + d * cover - stock   (when stock &lt;= ROP)
+ * </pre>
+ * where {@code cover} is {@code erp.reorder.coverDays} (default 30) and stock is the
+ * consolidated stock of every location.
+ * <p>
+ * Every product is computed in parallel once at startup. After that nothing is
+ * rescanned: the engine subscribes to the {@link BarramentoEventos}, adds each sale to
+ * the current month of its product and applies each stock change, re-evaluating only
+ * that product. Stock changes are tracked per location from the resulting stock of the
+ * event, not only from its delta, so a resynchronization with the database (which
+ * {@link EstoqueLocais#sincronizar} publishes) also corrects the engine. The month
+ * window rolls forward on every event and whenever the suggestions are read, so a
+ * product without sales this month does not keep last month's figures. When a product
+ * crosses its reorder point an alert is printed.
+ */
+public class Reposicao {
+    private static final int PRAZO_ENTREGA_DIAS = Integer.getInteger("erp.reorder.leadTimeDays", 7);
+    private static final double FATOR_SERVICO = Double.parseDouble(System.getProperty("erp.reorder.serviceZ", "1.65"));
+    private static final int DIAS_COBERTURA = Integer.getInteger("erp.reorder.coverDays", 30);
+    private static final double DIAS_POR_MES = 30.0;
+
+    private static final MetricsService.Timer TEMPO_CALCULO = MetricsService.timer("reposicao.calcular");
+    private static final MetricsService.Timer TEMPO_REAVALIACAO = MetricsService.timer("reposicao.reavaliar");
+    private static final MetricsService.Counter ALERTAS = MetricsService.counter("reposicao.alertas");
+
+    /**
+     * Replenishment state of one product, updated by the subscriber thread.
+     */
+    private static final class Item {
+        final Produto produto;
+        // Vendas por mês, do mais antigo para o mais recente (mês corrente)
+        final int[] vendasPorMes = new int[AnalisePreditiva.NUMERO_MESES_ANALISE];
+        YearMonth mesCorrente;
+        int estoque;
+        // Último estoque conhecido de cada local que já apareceu em um evento
+        final Map<String, Integer> estoquePorLocal = new HashMap<>();
+        double demandaDiaria;
+        double estoqueSeguranca;
+        double pontoDePedido;
+        boolean abaixoDoPonto;
+
+        Item(Produto produto, List<Integer> historico, YearMonth mesCorrente, int estoque) {
+            this.produto = produto;
+            this.mesCorrente = mesCorrente;
+            this.estoque = estoque;
+            if (historico != null) {
+                for (int i = 0; i < vendasPorMes.length; i++) {
+                    vendasPorMes[i] = historico.get(i);
+                }
+            }
+            recalcular();
+        }
+
+        /**
+         * @return Whether the product has just crossed its reorder point downwards.
+         */
+        synchronized boolean registrarVenda(int quantidade, YearMonth mes) {
+            avancarMes(mes);
+            vendasPorMes[vendasPorMes.length - 1] += quantidade;
+            return recalcular();
+        }
+
+        /**
+         * @param resultante The stock of the location after the change, as published.
+         * @return Whether the product has just crossed its reorder point downwards.
+         */
+        synchronized boolean alterarEstoque(String localId, int variacao, int resultante, YearMonth mes) {
+            avancarMes(mes);
+            Integer anterior = estoquePorLocal.put(localId, resultante);
+            // Na primeira vez que o local aparece, o valor anterior vem do próprio evento
+            estoque += resultante - (anterior == null ? resultante - variacao : anterior);
+            return recalcular();
+        }
+
+        /**
+         * Virada de mês: desloca a janela até {@code mes}.
+         *
+         * @return Whether the window moved.
+         */
+        private boolean avancarMes(YearMonth mes) {
+            boolean avancou = false;
+            while (mesCorrente.isBefore(mes)) {
+                System.arraycopy(vendasPorMes, 1, vendasPorMes, 0, vendasPorMes.length - 1);
+                vendasPorMes[vendasPorMes.length - 1] = 0;
+                mesCorrente = mesCorrente.plusMonths(1);
+                avancou = true;
+            }
+            return avancou;
+        }
+
+        private boolean recalcular() {
+            double media = 0.0;
+            for (int vendas : vendasPorMes) {
+                media += vendas;
+            }
+            media /= vendasPorMes.length;
+            double variancia = 0.0;
+            for (int vendas : vendasPorMes) {
+                variancia += (vendas - media) * (vendas - media);
+            }
+            double desvioMensal = Math.sqrt(variancia / vendasPorMes.length);
+
+            demandaDiaria = AnalisePreditiva.calcularPrevisaoPorMediaPonderada(vendasPorMes) / DIAS_POR_MES;
+            estoqueSeguranca = FATOR_SERVICO * (desvioMensal / Math.sqrt(DIAS_POR_MES)) * Math.sqrt(PRAZO_ENTREGA_DIAS);
+            pontoDePedido = demandaDiaria * PRAZO_ENTREGA_DIAS + estoqueSeguranca;
+
+            boolean estavaAbaixo = abaixoDoPonto;
+            abaixoDoPonto = demandaDiaria > 0 && estoque <= pontoDePedido;
+            return abaixoDoPonto && !estavaAbaixo;
+        }
+
+        /**
+         * @return The purchase suggestion, or {@code null} if the product is above its reorder point.
+         */
+        synchronized Sugestao sugestao(YearMonth mes) {
+            if (avancarMes(mes)) {
+                recalcular();
+            }
+            if (!abaixoDoPonto) {
+                return null;
+            }
+            int quantidade = (int) Math.ceil(pontoDePedido + demandaDiaria * DIAS_COBERTURA - estoque);
+            double diasDeCobertura = Math.max(estoque, 0) / demandaDiaria;
+            return new Sugestao(produto, estoque, demandaDiaria, estoqueSeguranca, pontoDePedido, quantidade, diasDeCobertura);
+        }
+    }
+
+    /**
+     * A product that should be bought, with the figures behind the suggestion.
+     */
+    public static final class Sugestao {
+        private final Produto produto;
+        private final int estoque;
+        private final double demandaDiaria;
+        private final double estoqueSeguranca;
+        private final double pontoDePedido;
+        private final int quantidadeSugerida;
+        private final double diasDeCobertura;
+
+        Sugestao(Produto produto, int estoque, double demandaDiaria, double estoqueSeguranca,
+                 double pontoDePedido, int quantidadeSugerida, double diasDeCobertura) {
+            this.produto = produto;
+            this.estoque = estoque;
+            this.demandaDiaria = demandaDiaria;
+            this.estoqueSeguranca = estoqueSeguranca;
+            this.pontoDePedido = pontoDePedido;
+            this.quantidadeSugerida = quantidadeSugerida;
+            this.diasDeCobertura = diasDeCobertura;
+        }
+
+        public Produto getProduto() {
+            return produto;
+        }
+
+        public int getEstoque() {
+            return estoque;
+        }
+
+        public double getDemandaDiaria() {
+            return demandaDiaria;
+        }
+
+        public double getEstoqueSeguranca() {
+            return estoqueSeguranca;
+        }
+
+        public double getPontoDePedido() {
+            return pontoDePedido;
+        }
+
+        public int getQuantidadeSugerida() {
+            return quantidadeSugerida;
+        }
+
+        /**
+         * @return Days until the current stock runs out at the forecast demand.
+         */
+        public double getDiasDeCobertura() {
+            return diasDeCobertura;
+        }
+    }
+
+    private final ConcurrentMap<String, Item> itens = new ConcurrentHashMap<>();
+    private boolean assinado;
+
+    /**
+     * Computes every product from the sales history and starts following the bus.
+     *
+     * @param produtos Every product currently loaded in memory.
+     * @param estoqueConsolidado The stock of a product summed over every location.
+     */
+    public synchronized void inicializar(List<Produto> produtos, ToIntFunction<Produto> estoqueConsolidado) {
+        long inicio = System.nanoTime();
+        Map<String, List<Integer>> historicos;
+        Map<String, Produto> mapaDeProdutos = produtos.stream().collect(Collectors.toMap(Produto::getId, p -> p, (a, _) -> a));
+        try (Connection conn = DbManager.connect()) {
+            historicos = AnalisePreditiva.apurarVendasUltimosMeses(conn, mapaDeProdutos);
+        } catch (IOException | ParseException | SQLException e) {
+            System.err.println(LanguageService.getFormattedString("error.reorder.load", e.getMessage()));
+            historicos = Map.of();
+        }
+
+        // Cada produto depende só do próprio histórico: o cálculo é paralelo
+        YearMonth mesCorrente = YearMonth.now();
+        Map<String, List<Integer>> historicosCarregados = historicos;
+        itens.clear();
+        itens.putAll(produtos.parallelStream()
+            .map(produto -> new Item(produto, historicosCarregados.get(produto.getId()), mesCorrente,
+                                     estoqueConsolidado.applyAsInt(produto)))
+            .collect(Collectors.toConcurrentMap(item -> item.produto.getId(), item -> item, (a, _) -> a)));
+        TEMPO_CALCULO.recordSince(inicio);
+
+        if (!assinado) {
+            assinado = true;
+            BarramentoEventos.assinar("reposicao", (evento, _) -> aoReceber(evento));
+        }
+    }
+
+    /**
+     * Starts following a product registered after {@link #inicializar}.
+     */
+    public void adicionarProduto(Produto produto, int estoque) {
+        itens.putIfAbsent(produto.getId(), new Item(produto, null, YearMonth.now(), estoque));
+    }
+
+    private void aoReceber(EventoDominio evento) {
+        Item item = evento.getProdutoId() == null ? null : itens.get(evento.getProdutoId());
+        if (item == null) {
+            return;
+        }
+
+        long inicio = System.nanoTime();
+        YearMonth mes = YearMonth.now();
+        boolean cruzou = false;
+        if (evento.getTipo() == EventoDominio.Tipo.VENDA_REGISTRADA) {
+            cruzou = item.registrarVenda(evento.getQuantidade(), mes);
+        } else if (evento.getTipo() == EventoDominio.Tipo.ESTOQUE_ALTERADO) {
+            cruzou = item.alterarEstoque(evento.getLocalId(), evento.getQuantidade(), evento.getEstoqueResultante(), mes);
+        }
+        TEMPO_REAVALIACAO.recordSince(inicio);
+
+        if (cruzou) {
+            ALERTAS.increment();
+            Sugestao sugestao = item.sugestao(mes);
+            if (sugestao != null) {
+                synchronized (System.out) {
+                    System.out.println(LanguageService.getFormattedString("reorder.alert",
+                        item.produto.getId(), item.produto.getNome(), sugestao.getEstoque(),
+                        sugestao.getPontoDePedido(), sugestao.getQuantidadeSugerida()));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The products at or below their reorder point, most urgent first
+     *         (fewest days of cover, then largest suggested quantity).
+     */
+    public List<Sugestao> sugestoes() {
+        YearMonth mes = YearMonth.now();
+        return itens.values().parallelStream()
+            .map(item -> item.sugestao(mes))
+            .filter(sugestao -> sugestao != null)
+            .sorted(Comparator.comparingDouble(Sugestao::getDiasDeCobertura)
+                .thenComparing(Comparator.comparingInt(Sugestao::getQuantidadeSugerida).reversed()))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Prints the purchase suggestion list, sorted by urgency.
+     */
+    public void exibirSugestoes() {
+        List<Sugestao> sugestoes = sugestoes();
+        System.out.println(LanguageService.getFormattedString("reorder.report.title", PRAZO_ENTREGA_DIAS, FATOR_SERVICO, DIAS_COBERTURA));
+        System.out.println(LanguageService.getString("reorder.report.header"));
+        if (sugestoes.isEmpty()) {
+            System.out.println(LanguageService.getString("reorder.report.none"));
+            return;
+        }
+        for (Sugestao sugestao : sugestoes) {
+            System.out.println(String.format("%-8s | %-25.25s | %7d | %8.2f | %8.1f | %8.1f | %9.1f | %8d",
+                sugestao.getProduto().getId(), sugestao.getProduto().getNome(), sugestao.getEstoque(),
+                sugestao.getDemandaDiaria(), sugestao.getEstoqueSeguranca(), sugestao.getPontoDePedido(),
+                sugestao.getDiasDeCobertura(), sugestao.getQuantidadeSugerida()));
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.erp;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Incrementally maintained open balances per person.
+ * <p>
+ * Each open title adds its total to the "a receber" or "a pagar" balance of its
+ * person when it is created, and removes it when it is paid, so the balances can be
+ * read in O(1) without scanning the title list. Open amounts are also kept grouped
+ * by issue day, which lets the aging buckets be computed from a handful of entries
+ * per person instead of one per title.
+ */
+public class SaldosPessoa {
+    /** Upper bound (in days) of each aging bucket; the last bucket is open-ended. */
+    private static final int[] LIMITES_FAIXAS = { 30, 60, 90 };
+    public static final String[] FAIXAS = { "0-30", "31-60", "61-90", "90+" };
+
+    // Títulos sem data de emissão (anteriores à coluna) entram na faixa mais antiga
+    private static final long SEM_DATA = Long.MIN_VALUE;
+
+    private static final int RECEBER = 0;
+    private static final int PAGAR = 1;
+    private static final int QUANTIDADE = 2;
+
+    /**
+     * Open amounts of a single person.
+     */
+    private static final class Saldo {
+        double aReceber;
+        double aPagar;
+        int titulosAbertos;
+        // epochDay da emissão -> { a receber, a pagar, quantidade de títulos }
+        final NavigableMap<Long, double[]> abertoPorDia = new TreeMap<>();
+    }
+
+    private final Map<String, Saldo> saldos = new HashMap<>();
+
+    /**
+     * Rebuilds all balances from the given titles.
+     *
+     * @param titulos Every title currently loaded in memory.
+     */
+    public synchronized void recarregar(Collection<Titulo> titulos) {
+        saldos.clear();
+        for (Titulo titulo : titulos) {
+            if (!titulo.isPago()) {
+                aplicar(titulo, 1);
+            }
+        }
+    }
+
+    /**
+     * Adds a newly created open title to its person's balance.
+     */
+    public synchronized void registrar(Titulo titulo) {
+        if (!titulo.isPago()) {
+            aplicar(titulo, 1);
+        }
+    }
+
+    /**
+     * Removes a title that has just been settled from its person's balance.
+     * Must be called once, when the title goes from open to paid.
+     */
+    public synchronized void baixar(Titulo titulo) {
+        aplicar(titulo, -1);
+    }
+
+    public synchronized double getAReceber(String pessoaId) {
+        Saldo saldo = saldos.get(pessoaId);
+        return saldo == null ? 0.0 : saldo.aReceber;
+    }
+
+    public synchronized double getAPagar(String pessoaId) {
+        Saldo saldo = saldos.get(pessoaId);
+        return saldo == null ? 0.0 : saldo.aPagar;
+    }
+
+    /**
+     * Splits the open amounts of a person into the aging buckets of {@link #FAIXAS}.
+     *
+     * @param pessoaId The person.
+     * @param hoje The reference date for the age of each title.
+     * @return A matrix {@code [faixa][0 = a receber, 1 = a pagar]}.
+     */
+    public synchronized double[][] getAging(String pessoaId, LocalDate hoje) {
+        double[][] faixas = new double[FAIXAS.length][2];
+        Saldo saldo = saldos.get(pessoaId);
+        if (saldo == null) {
+            return faixas;
+        }
+
+        long diaHoje = hoje.toEpochDay();
+        for (Map.Entry<Long, double[]> entrada : saldo.abertoPorDia.entrySet()) {
+            long idade = entrada.getKey() == SEM_DATA ? Long.MAX_VALUE : diaHoje - entrada.getKey();
+            int faixa = 0;
+            while (faixa < LIMITES_FAIXAS.length && idade > LIMITES_FAIXAS[faixa]) {
+                faixa++;
+            }
+            faixas[faixa][RECEBER] += entrada.getValue()[RECEBER];
+            faixas[faixa][PAGAR] += entrada.getValue()[PAGAR];
+        }
+        return faixas;
+    }
+
+    /**
+     * @return The IDs of every person with at least one open title.
+     */
+    public synchronized List<String> getPessoasComSaldo() {
+        return new ArrayList<>(saldos.keySet());
+    }
+
+    /**
+     * Prints the open balance and aging of one person, or of everyone with open titles.
+     *
+     * @param pessoaId The person to show, or {@code null} for all.
+     * @param pessoas The registered people, used to show names.
+     */
+    public void exibirRelatorio(String pessoaId, List<Pessoa> pessoas) {
+        Map<String, String> nomes = new HashMap<>();
+        for (Pessoa p : pessoas) {
+            nomes.put(p.getId(), p.getNome());
+        }
+        List<String> ids = pessoaId == null ? getPessoasComSaldo() : List.of(pessoaId);
+        ids = new ArrayList<>(ids);
+        ids.sort(null);
+        LocalDate hoje = LocalDate.now();
+
+        System.out.println("\n======================================================================");
+        System.out.println(LanguageService.getString("balance.report.title"));
+        System.out.println("======================================================================");
+        System.out.printf("%-10s | %-20s | %12s | %12s | %10s | %10s | %10s | %10s%n",
+            LanguageService.getString("analysis.table.header.id"),
+            LanguageService.getString("name"),
+            LanguageService.getString("balance.table.header.receivable"),
+            LanguageService.getString("balance.table.header.payable"),
+            FAIXAS[0], FAIXAS[1], FAIXAS[2], FAIXAS[3]);
+        System.out.println("---------------------------------------------------------------------------------------------------------------");
+
+        if (ids.isEmpty()) {
+            System.out.println(LanguageService.getString("balance.report.empty"));
+        }
+        for (String id : ids) {
+            double[][] aging = getAging(id, hoje);
+            System.out.printf("%-10.10s | %-20.20s | %12.2f | %12.2f | %10.2f | %10.2f | %10.2f | %10.2f%n",
+                id, nomes.getOrDefault(id, "?"), getAReceber(id), getAPagar(id),
+                aging[0][RECEBER] + aging[0][PAGAR],
+                aging[1][RECEBER] + aging[1][PAGAR],
+                aging[2][RECEBER] + aging[2][PAGAR],
+                aging[3][RECEBER] + aging[3][PAGAR]);
+        }
+        System.out.println(LanguageService.getString("analysis.report.end"));
+    }
+
+    private void aplicar(Titulo titulo, int sinal) {
+        Saldo saldo = saldos.computeIfAbsent(titulo.getPessoaId(), _ -> new Saldo());
+        double valor = titulo.getValorTotal() * sinal;
+        int indice = titulo.isAReceber() ? RECEBER : PAGAR;
+
+        if (indice == RECEBER) {
+            saldo.aReceber += valor;
+        } else {
+            saldo.aPagar += valor;
+        }
+        saldo.titulosAbertos += sinal;
+
+        long dia = titulo.getDataEmissao() == null ? SEM_DATA : titulo.getDataEmissao().toEpochDay();
+        double[] doDia = saldo.abertoPorDia.computeIfAbsent(dia, _ -> new double[3]);
+        doDia[indice] += valor;
+        doDia[QUANTIDADE] += sinal;
+        if (doDia[QUANTIDADE] <= 0) {
+            saldo.abertoPorDia.remove(dia);
+        }
+
+        // Sem títulos em aberto, descarta o saldo (evita resíduos de arredondamento)
+        if (saldo.titulosAbertos <= 0) {
+            saldos.remove(titulo.getPessoaId());
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.erp;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumented JDBC layer.
+ * <p>
+ * {@link DbManager#connect()} wraps every connection with {@link #instrumentar(Connection)},
+ * so every statement executed by the application is timed and aggregated per SQL text.
+ * For queries, the measured time covers {@code executeQuery} plus every {@code next()}
+ * call, since SQLite only steps through the table while the result set is read.
+ * <p>
+ * Statements slower than {@code erp.slowQueryMs} (default 200 ms) are appended to
+ * {@code erp.slowQueryLog} (default {@code logs/slow-queries.log}) together with
+ * their {@code EXPLAIN QUERY PLAN} output.
+ */
+public class SqlMonitor {
+    private static final long LIMITE_LENTO_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("erp.slowQueryMs", 200));
+    private static final String ARQUIVO_LENTAS = System.getProperty("erp.slowQueryLog", "logs/slow-queries.log");
+    private static final int MAXIMO_RELATORIO = 20;
+
+    /**
+     * Aggregated statistics of a single SQL text.
+     */
+    private static final class EstatisticaSql {
+        final String sql;
+        final LatencyHistogram tempos = new LatencyHistogram();
+        final LongAdder linhas = new LongAdder();
+        final LongAdder lentas = new LongAdder();
+
+        EstatisticaSql(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    private static final Map<String, EstatisticaSql> estatisticas = new ConcurrentHashMap<>();
+
+    /**
+     * Wraps a connection so that all statements created from it are measured.
+     *
+     * @param conn The physical connection.
+     * @return A proxy implementing {@code Connection} that delegates to {@code conn}.
+     */
+    public static Connection instrumentar(Connection conn) {
+        return (Connection) Proxy.newProxyInstance(
+            SqlMonitor.class.getClassLoader(),
+            new Class<?>[] { Connection.class },
+            new ConexaoMonitorada(conn));
+    }
+
+    /**
+     * Prints the most expensive SQL statements, ordered by accumulated time.
+     */
+    public static void exibirRelatorio() {
+        List<EstatisticaSql> lista = new ArrayList<>(estatisticas.values());
+        lista.sort(Comparator.comparingLong((EstatisticaSql e) -> e.tempos.getTotalNanos()).reversed());
+
+        System.out.println("\n======================================================================");
+        System.out.println(LanguageService.getString("sql.report.title"));
+        System.out.println("======================================================================");
+        System.out.printf(LanguageService.getString("sql.report.threshold"),
+            TimeUnit.NANOSECONDS.toMillis(LIMITE_LENTO_NANOS), ARQUIVO_LENTAS);
+        System.out.println("-------------------------------------------------------------------------------------------------");
+        System.out.printf("%8s | %10s | %8s | %8s | %8s | %8s | %6s | %s%n",
+            LanguageService.getString("metrics.table.header.count"),
+            "total ms", "mean ms", "p99 ms", "max ms",
+            LanguageService.getString("sql.table.header.rows"),
+            LanguageService.getString("sql.table.header.slow"),
+            "SQL");
+        System.out.println("-------------------------------------------------------------------------------------------------");
+
+        if (lista.isEmpty()) {
+            System.out.println(LanguageService.getString("metrics.report.empty"));
+        }
+        for (int i = 0; i < lista.size() && i < MAXIMO_RELATORIO; i++) {
+            EstatisticaSql e = lista.get(i);
+            System.out.printf("%8d | %10.2f | %8.3f | %8.3f | %8.3f | %8d | %6d | %s%n",
+                e.tempos.getCount(),
+                e.tempos.getTotalNanos() / 1e6,
+                e.tempos.getMeanNanos() / 1e6,
+                e.tempos.getValueAtPercentile(99.0) / 1e6,
+                e.tempos.getMaxNanos() / 1e6,
+                e.linhas.sum(),
+                e.lentas.sum(),
+                resumir(e.sql));
+        }
+        System.out.println(LanguageService.getString("analysis.report.end"));
+    }
+
+    /**
+     * Records one execution and, if it exceeded the threshold, writes it to the slow-query log.
+     */
+    private static void registrar(Connection conn, String sql, long nanos, long linhas) {
+        EstatisticaSql estatistica = estatisticas.computeIfAbsent(sql, EstatisticaSql::new);
+        estatistica.tempos.record(nanos);
+        estatistica.linhas.add(linhas);
+
+        if (nanos >= LIMITE_LENTO_NANOS) {
+            estatistica.lentas.increment();
+            registrarConsultaLenta(conn, sql, nanos, linhas);
+        }
+    }
+
+    private static synchronized void registrarConsultaLenta(Connection conn, String sql, long nanos, long linhas) {
+        File arquivo = new File(ARQUIVO_LENTAS);
+        if (arquivo.getParentFile() != null) {
+            arquivo.getParentFile().mkdirs();
+        }
+
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(arquivo, true))) {
+            String agora = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
+            bw.write(String.format("# %s | %.3f ms | %d linhas%n", agora, nanos / 1e6, linhas));
+            bw.write(sql.trim());
+            bw.newLine();
+            for (String passo : planoDeExecucao(conn, sql)) {
+                bw.write("    " + passo);
+                bw.newLine();
+            }
+            bw.newLine();
+        } catch (IOException e) {
+            System.err.println(LanguageService.getFormattedString("error.sql.slow_log", e.getMessage()));
+        }
+    }
+
+    /**
+     * Runs {@code EXPLAIN QUERY PLAN} for the given SQL on the physical connection.
+     * Parameters are bound to {@code NULL}, which does not change the chosen plan.
+     */
+    private static List<String> planoDeExecucao(Connection conn, String sql) {
+        List<String> passos = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+            int parametros = pstmt.getParameterMetaData().getParameterCount();
+            for (int i = 1; i <= parametros; i++) {
+                pstmt.setObject(i, null);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    passos.add(rs.getString("detail"));
+                }
+            }
+        } catch (SQLException e) {
+            passos.add(LanguageService.getFormattedString("error.sql.explain", e.getMessage()));
+        }
+        return passos;
+    }
+
+    private static String resumir(String sql) {
+        String linha = sql.replaceAll("\\s+", " ").trim();
+        return linha.length() > 70 ? linha.substring(0, 67) + "..." : linha;
+    }
+
+    private static Object invocar(Object alvo, Method metodo, Object[] args) throws Throwable {
+        try {
+            return metodo.invoke(alvo, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Intercepts statement creation on a connection.
+     */
+    private static final class ConexaoMonitorada implements InvocationHandler {
+        private final Connection conn;
+
+        ConexaoMonitorada(Connection conn) {
+            this.conn = conn;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method metodo, Object[] args) throws Throwable {
+            Object resultado = invocar(conn, metodo, args);
+            switch (metodo.getName()) {
+                case "prepareStatement":
+                case "prepareCall":
+                case "createStatement":
+                    String sql = (args != null && args.length > 0 && args[0] instanceof String) ? (String) args[0] : null;
+                    return Proxy.newProxyInstance(
+                        SqlMonitor.class.getClassLoader(),
+                        new Class<?>[] { resultado instanceof PreparedStatement ? PreparedStatement.class : Statement.class },
+                        new ComandoMonitorado((Statement) resultado, conn, sql));
+                default:
+                    return resultado;
+            }
+        }
+    }
+
+    /**
+     * Times the {@code execute*} methods of a statement.
+     */
+    private static final class ComandoMonitorado implements InvocationHandler {
+        private final Statement stmt;
+        private final Connection conn;
+        private final String sqlPreparado;
+
+        ComandoMonitorado(Statement stmt, Connection conn, String sqlPreparado) {
+            this.stmt = stmt;
+            this.conn = conn;
+            this.sqlPreparado = sqlPreparado;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method metodo, Object[] args) throws Throwable {
+            String nome = metodo.getName();
+            if (!nome.startsWith("execute")) {
+                return invocar(stmt, metodo, args);
+            }
+
+            String sql = (args != null && args.length > 0 && args[0] instanceof String) ? (String) args[0] : sqlPreparado;
+            if (sql == null) {
+                sql = "<batch>";
+            }
+
+            JfrEvents.ComandoEvent evento = new JfrEvents.ComandoEvent();
+            evento.begin();
+            long inicio = System.nanoTime();
+            Object resultado = invocar(stmt, metodo, args);
+
+            if (resultado instanceof ResultSet) {
+                // Consultas só terminam quando o ResultSet é percorrido
+                ResultadoMonitorado monitor = new ResultadoMonitorado((ResultSet) resultado, conn, sql, System.nanoTime() - inicio, evento);
+                return Proxy.newProxyInstance(SqlMonitor.class.getClassLoader(), new Class<?>[] { ResultSet.class }, monitor);
+            }
+
+            long linhas = 0;
+            if (resultado instanceof Integer) {
+                linhas = (Integer) resultado;
+            } else if (resultado instanceof Long) {
+                linhas = (Long) resultado;
+            } else if (resultado instanceof int[]) {
+                for (int n : (int[]) resultado) {
+                    linhas += Math.max(n, 0);
+                }
+            }
+            long nanos = System.nanoTime() - inicio;
+            registrar(conn, sql, nanos, linhas);
+            concluirEvento(evento, sql, linhas);
+            return resultado;
+        }
+    }
+
+    /**
+     * Accumulates the time spent reading a result set and reports it once exhausted or closed.
+     */
+    private static final class ResultadoMonitorado implements InvocationHandler {
+        private final ResultSet rs;
+        private final Connection conn;
+        private final String sql;
+        private final JfrEvents.ComandoEvent evento;
+        private long nanos;
+        private long linhas;
+        private boolean concluido;
+
+        ResultadoMonitorado(ResultSet rs, Connection conn, String sql, long nanosExecucao, JfrEvents.ComandoEvent evento) {
+            this.rs = rs;
+            this.conn = conn;
+            this.sql = sql;
+            this.nanos = nanosExecucao;
+            this.evento = evento;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method metodo, Object[] args) throws Throwable {
+            String nome = metodo.getName();
+            if (nome.equals("next")) {
+                long inicio = System.nanoTime();
+                boolean temLinha = (Boolean) invocar(rs, metodo, args);
+                nanos += System.nanoTime() - inicio;
+                if (temLinha) {
+                    linhas++;
+                } else {
+                    concluir();
+                }
+                return temLinha;
+            }
+            if (nome.equals("close")) {
+                concluir();
+            }
+            return invocar(rs, metodo, args);
+        }
+
+        private void concluir() {
+            if (!concluido) {
+                concluido = true;
+                registrar(conn, sql, nanos, linhas);
+                concluirEvento(evento, sql, linhas);
+            }
+        }
+    }
+
+    private static void concluirEvento(JfrEvents.ComandoEvent evento, String sql, long linhas) {
+        evento.end();
+        if (evento.shouldCommit()) {
+            evento.sql = sql;
+            evento.linhas = linhas;
+            evento.commit();
+        }
+    }
+}
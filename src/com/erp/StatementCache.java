@@ -0,0 +1,269 @@
+package com.erp;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Long-lived physical connection with an LRU cache of compiled statements.
+ * <p>
+ * {@link DbManager} keeps a small pool of these. Each {@link #abrir()} hands out a
+ * logical {@code Connection} whose {@code prepareStatement(sql)} returns the cached
+ * statement for that SQL text, so SQLite only has to bind and step it. Closing the
+ * logical statement resets it (parameters and open result set) instead of finalizing
+ * it, and closing the logical connection returns the physical one to the pool.
+ * <p>
+ * Instances are not thread-safe; the pool guarantees that a physical connection is
+ * leased to only one caller at a time.
+ */
+public class StatementCache {
+    private static final int CAPACIDADE = Integer.getInteger("erp.statementCacheSize", 32);
+
+    private static final MetricsService.Counter ACERTOS = MetricsService.counter("db.statementCache.hit");
+    private static final MetricsService.Counter FALHAS = MetricsService.counter("db.statementCache.miss");
+
+    /**
+     * A cached statement and whether a logical statement is currently using it.
+     */
+    private static final class Entrada {
+        final String sql;
+        final PreparedStatement pstmt;
+        boolean emUso;
+
+        Entrada(String sql, PreparedStatement pstmt) {
+            this.sql = sql;
+            this.pstmt = pstmt;
+        }
+    }
+
+    private final Connection fisica;
+    private final int geracao;
+    private boolean quebrada;
+
+    // accessOrder = true: o LinkedHashMap mantém a ordem de uso, o mais antigo é removido primeiro
+    private final LinkedHashMap<String, Entrada> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entrada> maisAntiga) {
+            if (size() > CAPACIDADE && !maisAntiga.getValue().emUso) {
+                fecharSilenciosamente(maisAntiga.getValue().pstmt);
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * @param fisica The physical (already instrumented) connection to own.
+     * @param geracao The current pool generation.
+     */
+    StatementCache(Connection fisica, int geracao) {
+        this.fisica = fisica;
+        this.geracao = geracao;
+    }
+
+    /**
+     * @return The pool generation this connection was opened in; connections from
+     * an older generation are discarded instead of reused.
+     */
+    int getGeracao() {
+        return geracao;
+    }
+
+    /**
+     * Leases this physical connection as a logical one.
+     *
+     * @return A {@code Connection} proxy; closing it returns this object to the pool.
+     */
+    Connection abrir() {
+        return (Connection) Proxy.newProxyInstance(
+            StatementCache.class.getClassLoader(),
+            new Class<?>[] { Connection.class },
+            new ConexaoLogica());
+    }
+
+    /**
+     * Checks whether the physical connection can still be reused.
+     */
+    boolean isValida() {
+        try {
+            return !quebrada && !fisica.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Finalizes every cached statement and closes the physical connection.
+     */
+    void fechar() {
+        for (Entrada entrada : cache.values()) {
+            fecharSilenciosamente(entrada.pstmt);
+        }
+        cache.clear();
+        try {
+            fisica.close();
+        } catch (SQLException e) {
+            // A conexão será descartada de qualquer forma
+        }
+    }
+
+    /**
+     * Returns the connection to a clean state after a lease: pending work is
+     * rolled back and auto-commit is restored, as a freshly opened connection would have.
+     */
+    private void restaurar() {
+        for (Entrada entrada : cache.values()) {
+            entrada.emUso = false;
+        }
+        try {
+            if (!fisica.getAutoCommit()) {
+                fisica.rollback();
+                fisica.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            quebrada = true;
+        }
+    }
+
+    private PreparedStatement obter(String sql) throws SQLException {
+        Entrada entrada = cache.get(sql);
+        if (entrada != null && entrada.pstmt.isClosed()) {
+            cache.remove(sql);
+            entrada = null;
+        }
+
+        if (entrada == null) {
+            FALHAS.increment();
+            entrada = new Entrada(sql, fisica.prepareStatement(sql));
+            cache.put(sql, entrada);
+        } else if (entrada.emUso) {
+            // O mesmo SQL já está aberto nesta conexão: usa um comando avulso
+            FALHAS.increment();
+            return fisica.prepareStatement(sql);
+        } else {
+            ACERTOS.increment();
+        }
+
+        entrada.emUso = true;
+        return (PreparedStatement) Proxy.newProxyInstance(
+            StatementCache.class.getClassLoader(),
+            new Class<?>[] { PreparedStatement.class },
+            new ComandoReutilizavel(entrada));
+    }
+
+    private static void fecharSilenciosamente(AutoCloseable recurso) {
+        try {
+            recurso.close();
+        } catch (Exception e) {
+            // Ignorado: o recurso está sendo descartado
+        }
+    }
+
+    private Object invocar(Object alvo, Method metodo, Object[] args) throws Throwable {
+        try {
+            return metodo.invoke(alvo, args);
+        } catch (InvocationTargetException e) {
+            Throwable causa = e.getCause();
+            if (causa instanceof SQLException && fisica.isClosed()) {
+                quebrada = true;
+            }
+            throw causa;
+        }
+    }
+
+    /**
+     * Logical connection handed out to callers of {@link DbManager#connect()}.
+     */
+    private final class ConexaoLogica implements InvocationHandler {
+        private boolean fechada;
+
+        @Override
+        public Object invoke(Object proxy, Method metodo, Object[] args) throws Throwable {
+            switch (metodo.getName()) {
+                case "close":
+                    if (!fechada) {
+                        fechada = true;
+                        restaurar();
+                        DbManager.devolver(StatementCache.this);
+                    }
+                    return null;
+                case "isClosed":
+                    return fechada || fisica.isClosed();
+                case "prepareStatement":
+                    if (fechada) {
+                        throw new SQLException("Connection is closed");
+                    }
+                    if (args.length == 1) {
+                        return obter((String) args[0]);
+                    }
+                    return invocar(fisica, metodo, args);
+                default:
+                    if (fechada) {
+                        throw new SQLException("Connection is closed");
+                    }
+                    return invocar(fisica, metodo, args);
+            }
+        }
+    }
+
+    /**
+     * Logical statement backed by a cached {@code PreparedStatement}.
+     */
+    private final class ComandoReutilizavel implements InvocationHandler {
+        private final Entrada entrada;
+        private ResultSet resultadoAberto;
+        private boolean fechado;
+
+        ComandoReutilizavel(Entrada entrada) {
+            this.entrada = entrada;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method metodo, Object[] args) throws Throwable {
+            switch (metodo.getName()) {
+                case "close":
+                    if (!fechado) {
+                        fechado = true;
+                        liberar();
+                    }
+                    return null;
+                case "isClosed":
+                    return fechado || entrada.pstmt.isClosed();
+                default:
+                    if (fechado) {
+                        throw new SQLException("Statement is closed");
+                    }
+                    Object resultado = invocar(entrada.pstmt, metodo, args);
+                    if (resultado instanceof ResultSet) {
+                        resultadoAberto = (ResultSet) resultado;
+                    }
+                    return resultado;
+            }
+        }
+
+        /**
+         * Resets the statement so the next lease starts clean. Closing the result set
+         * also resets the SQLite statement, releasing its read lock.
+         */
+        private void liberar() {
+            try {
+                if (resultadoAberto != null && !resultadoAberto.isClosed()) {
+                    resultadoAberto.close();
+                }
+                entrada.pstmt.clearParameters();
+                entrada.pstmt.clearBatch();
+            } catch (SQLException e) {
+                cache.remove(entrada.sql);
+                fecharSilenciosamente(entrada.pstmt);
+            }
+            entrada.emUso = false;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.erp;
+
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handle of an analysis submitted to run in the background.
+ * <p>
+ * Exposes the current phase and progress while the job runs, and the rendered
+ * report once it finishes. A completed job also serves as the cached result of its
+ * analysis: it remembers the version of the data it was computed from, read in its
+ * own snapshot, and the month it was computed for, and {@link AnalisePreditiva}
+ * reuses it until the version in the database or the month changes.
+ */
+public class TarefaRelatorio {
+    public enum Estado { NA_FILA, EXECUTANDO, CONCLUIDA, FALHOU }
+
+    private final String nome;
+    private final int totalEtapas;
+    private volatile long versaoDados = -1;
+    private final YearMonth mes;
+    private final CompletableFuture<String> resultado = new CompletableFuture<>();
+
+    private volatile Estado estado = Estado.NA_FILA;
+    private volatile int etapa;
+    private volatile String fase = "";
+    private volatile long inicioNanos;
+    private volatile long fimNanos;
+    private volatile LocalTime momentoSnapshot;
+
+    /**
+     * @param nome The analysis name, as shown to the user.
+     * @param totalEtapas Number of phases the analysis reports through {@link #avancar(String)}.
+     * @param mes The month the analysis is computed for.
+     */
+    TarefaRelatorio(String nome, int totalEtapas, YearMonth mes) {
+        this.nome = nome;
+        this.totalEtapas = totalEtapas;
+        this.mes = mes;
+    }
+
+    /**
+     * Records the version of the data the analysis reads (ex: {@link LogService#lerVersaoVendas}),
+     * read in the same snapshot.
+     */
+    void registrarVersaoDados(long versao) {
+        versaoDados = versao;
+    }
+
+    void iniciar() {
+        inicioNanos = System.nanoTime();
+        momentoSnapshot = LocalTime.now().withNano(0);
+        estado = Estado.EXECUTANDO;
+    }
+
+    /**
+     * Marks the start of the next phase.
+     *
+     * @param novaFase The phase name (ex: "carga", "agregacao").
+     */
+    void avancar(String novaFase) {
+        fase = novaFase;
+        etapa++;
+    }
+
+    void concluir(String relatorio) {
+        fimNanos = System.nanoTime();
+        etapa = totalEtapas;
+        estado = Estado.CONCLUIDA;
+        resultado.complete(relatorio);
+    }
+
+    void falhar(Throwable erro) {
+        fimNanos = System.nanoTime();
+        estado = Estado.FALHOU;
+        resultado.completeExceptionally(erro);
+    }
+
+    public String getNome() {
+        return nome;
+    }
+
+    public Estado getEstado() {
+        return estado;
+    }
+
+    public String getFase() {
+        return fase;
+    }
+
+    public int getEtapa() {
+        return etapa;
+    }
+
+    public int getTotalEtapas() {
+        return totalEtapas;
+    }
+
+    /**
+     * @return The completed fraction of the phases, from 0 to 100.
+     */
+    public double getProgresso() {
+        return totalEtapas == 0 ? 0.0 : Math.min(etapa, totalEtapas) * 100.0 / totalEtapas;
+    }
+
+    /**
+     * @return Time spent running so far, or the total run time once finished.
+     */
+    public long getTempoDecorridoMillis() {
+        if (estado == Estado.NA_FILA) {
+            return 0;
+        }
+        long fim = isFinalizada() ? fimNanos : System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(fim - inicioNanos);
+    }
+
+    /**
+     * @return The time of day the data snapshot was taken, or {@code null} while queued.
+     */
+    public LocalTime getMomentoSnapshot() {
+        return momentoSnapshot;
+    }
+
+    /**
+     * @return The version of the data the report was computed from, or {@code -1} before the snapshot.
+     */
+    public long getVersaoDados() {
+        return versaoDados;
+    }
+
+    public YearMonth getMes() {
+        return mes;
+    }
+
+    public boolean isFinalizada() {
+        return estado == Estado.CONCLUIDA || estado == Estado.FALHOU;
+    }
+
+    /**
+     * @return A future completed with the rendered report.
+     */
+    public Future<String> getResultado() {
+        return resultado;
+    }
+}
@@ -1,20 +1,46 @@
 package com.erp;
 
+import java.time.LocalDate;
+
 public class Titulo {
+    // Prazo padrão (em dias após a emissão) de cada tipo de título
+    private static final int PRAZO_RECEBER_DIAS = Integer.getInteger("erp.titulos.prazoReceber", 30);
+    private static final int PRAZO_PAGAR_DIAS = Integer.getInteger("erp.titulos.prazoPagar", 30);
+
     private String id;
     private double valor;
     private int quantidade;
     private boolean paga;
     private String pessoaId;
     private String tipoTitulo; // "a pagar" ou "a receber"
+    private LocalDate dataEmissao; // Pode ser nulo em títulos antigos
+    private LocalDate dataVencimento; // Nulo apenas se a emissão também for
 
     public Titulo(String id, double valor, int quantidade, boolean paga, String pessoaId, String tipoTitulo) {
+        this(id, valor, quantidade, paga, pessoaId, tipoTitulo, null);
+    }
+
+    public Titulo(String id, double valor, int quantidade, boolean paga, String pessoaId, String tipoTitulo, LocalDate dataEmissao) {
+        this(id, valor, quantidade, paga, pessoaId, tipoTitulo, dataEmissao, null);
+    }
+
+    /**
+     * @param dataVencimento The due date, or {@code null} to use the default term of the
+     *                       title type ({@code erp.titulos.prazoReceber} / {@code erp.titulos.prazoPagar}).
+     */
+    public Titulo(String id, double valor, int quantidade, boolean paga, String pessoaId, String tipoTitulo,
+                  LocalDate dataEmissao, LocalDate dataVencimento) {
         this.id = id;
         this.valor = valor;
         this.quantidade = quantidade;
         this.paga = paga;
         this.pessoaId = pessoaId;
         this.tipoTitulo = tipoTitulo;
+        this.dataEmissao = dataEmissao;
+        if (dataVencimento == null && dataEmissao != null) {
+            dataVencimento = dataEmissao.plusDays("a receber".equals(tipoTitulo) ? PRAZO_RECEBER_DIAS : PRAZO_PAGAR_DIAS);
+        }
+        this.dataVencimento = dataVencimento;
     }
 
     public String getId() {
@@ -45,6 +71,22 @@ public class Titulo {
         return tipoTitulo;
     }
 
+    public LocalDate getDataEmissao() {
+        return dataEmissao;
+    }
+
+    public LocalDate getDataVencimento() {
+        return dataVencimento;
+    }
+
+    public double getValorTotal() {
+        return valor * quantidade;
+    }
+
+    public boolean isAReceber() {
+        return "a receber".equals(tipoTitulo);
+    }
+
     @Override
     public String toString() {
         return id + "," + valor + "," + quantidade + "," + paga + "," + pessoaId + "," + tipoTitulo;